@@ -1,5 +1,8 @@
 package me.redstoner2019.data;
 
+import me.redstoner2019.graphic.LayerCache;
+import me.redstoner2019.graphic.Mesh;
+import me.redstoner2019.graphic.RenderBackend;
 import me.redstoner2019.graphic.Renderer;
 
 import java.util.ArrayList;
@@ -11,6 +14,23 @@ abstract class Component {
     private double x;
     private double y;
     private List<Component> components = new ArrayList<>();
+    private Component parent;
+    /** Damage of the frame, only set on the components of a frame. */
+    private DamageRegion damageRegion;
+
+    private boolean staticGeometry;
+    /** Captured geometry of a static component, or null if it has to be captured again. */
+    private Mesh mesh;
+    /** Set by any thread, cleared by the render thread before it captures. */
+    private volatile boolean meshDirty;
+    private int meshDrawn;
+
+    private boolean cachedLayer;
+    /** Cache that holds the layer of this component, or null. */
+    private LayerCache layerCache;
+    /** Set by any thread, cleared by the render thread before it draws the layer. */
+    private volatile boolean layerDirty = true;
+    private int layerDrawn;
 
     public Component(double width, double height, double x, double y) {
         this.width = width;
@@ -18,14 +38,211 @@ abstract class Component {
         this.x = x;
         this.y = y;
     }
-    abstract int draw(Renderer r);
+    abstract int draw(RenderBackend r);
+
+    /**
+     * Draws the component and its children. A cached layer is drawn as one
+     * quad, it only gets drawn again after something in the subtree changed
+     * or the layer got evicted. Renderers without layers always draw the
+     * subtree.
+     *
+     * @param r The renderer
+     *
+     * @return Number of drawn components
+     */
+    int render(RenderBackend r) {
+        if (cachedLayer && r instanceof Renderer && !((Renderer) r).isDrawingLayer()) {
+            Renderer renderer = (Renderer) r;
+            /* Layers cover whole pixels, so compositing doesn't blur them */
+            int layerX = (int) Math.floor(x);
+            int layerY = (int) Math.floor(y);
+            int layerWidth = (int) Math.ceil(x + width) - layerX;
+            int layerHeight = (int) Math.ceil(y + height) - layerY;
+            if (layerWidth > 0 && layerHeight > 0) {
+                LayerCache.Layer layer = renderer.acquireLayer(this, layerWidth, layerHeight);
+                if (layer != null) {
+                    layerCache = renderer.getLayerCache();
+                    if (!layer.isValid() || layerDirty) {
+                        /* Cleared first, so changes while drawing mark it dirty again */
+                        layerDirty = false;
+                        renderer.beginLayer(layer, layerX, layerY);
+                        layerDrawn = renderTree(r);
+                        renderer.endLayer();
+                        layer.validate();
+                    }
+                    renderer.drawLayer(layer, layerX, layerY);
+                    return layerDrawn;
+                }
+            }
+        }
+        return renderTree(r);
+    }
+
+    private int renderTree(RenderBackend r) {
+        int drawn = renderSelf(r);
+        for (Component component : components) {
+            drawn += component.render(r);
+        }
+        return drawn;
+    }
+
+    /**
+     * Draws only this component. Static components get captured into a mesh
+     * the first time and then only the mesh gets drawn, until the component
+     * is invalidated or a texture of the mesh, like a glyph atlas page, gets
+     * replaced. Renderers without meshes always draw.
+     */
+    private int renderSelf(RenderBackend r) {
+        if (!staticGeometry || !(r instanceof Renderer)) {
+            return draw(r);
+        }
+        Renderer renderer = (Renderer) r;
+        if (meshDirty || mesh != null && mesh.isStale()) {
+            /* Cleared first, so changes while capturing mark it dirty again */
+            meshDirty = false;
+            deleteMesh();
+        }
+        /* A capture that evicted its own glyphs is captured once more, then they are resident */
+        for (int attempt = 0; mesh == null && attempt < 2; attempt++) {
+            /* Captured relative to the position, so moving doesn't invalidate */
+            renderer.beginCapture((float) x, (float) y);
+            meshDrawn = draw(r);
+            mesh = renderer.endCapture();
+            if (attempt == 0 && mesh.isStale()) {
+                mesh.delete();
+                mesh = null;
+            }
+        }
+        renderer.drawMesh(mesh, (float) x, (float) y);
+        return meshDrawn;
+    }
+
+    /**
+     * Marks the component as static. The geometry of static components is
+     * kept on the GPU until a property changes.
+     *
+     * @param staticGeometry true if the component rarely changes
+     */
+    public void setStatic(boolean staticGeometry) {
+        this.staticGeometry = staticGeometry;
+        if (!staticGeometry) {
+            invalidate();
+        }
+    }
+
+    public boolean isStatic() {
+        return staticGeometry;
+    }
+
+    /**
+     * Caches the subtree of this component in a layer. The layer covers the
+     * bounds of this component, children outside of them get cut off.
+     *
+     * @param cachedLayer true to draw the subtree from a layer
+     */
+    public void setCachedLayer(boolean cachedLayer) {
+        this.cachedLayer = cachedLayer;
+        if (!cachedLayer) {
+            releaseLayer();
+        }
+        invalidateLayers();
+    }
+
+    public boolean isCachedLayer() {
+        return cachedLayer;
+    }
+
+    /**
+     * Drops the captured geometry, the next frame captures it again. The
+     * layers of this component and its ancestors get drawn again as well.
+     * Subclasses call this when a property that changes the look changes.
+     * <p>
+     * This can be called from any thread, the mesh gets deleted on the
+     * render thread and the frame wakes up to draw the damage.
+     */
+    public void invalidate() {
+        meshDirty = true;
+        invalidateLayers();
+        damage();
+    }
+
+    private void deleteMesh() {
+        if (mesh != null) {
+            mesh.delete();
+            mesh = null;
+        }
+    }
+
+    /**
+     * Reports the bounds of this component as damaged, so the frame draws
+     * them again. Components that draw outside of their bounds have to
+     * report that area themselves.
+     */
+    public void damage() {
+        DamageRegion region = getDamageRegion();
+        if (region != null) {
+            region.add(x, y, width, height);
+        }
+    }
+
+    void setDamageRegion(DamageRegion damageRegion) {
+        this.damageRegion = damageRegion;
+    }
+
+    private DamageRegion getDamageRegion() {
+        Component root = this;
+        while (root.parent != null) {
+            root = root.parent;
+        }
+        return root.damageRegion;
+    }
+
+    /**
+     * Marks the layers of this component and all its ancestors as dirty.
+     */
+    void invalidateLayers() {
+        for (Component c = this; c != null; c = c.parent) {
+            c.layerDirty = true;
+        }
+    }
+
+    /**
+     * Deletes the mesh and the layers of this component and its children.
+     */
+    void dispose() {
+        deleteMesh();
+        invalidateLayers();
+        releaseLayer();
+        for (Component component : components) {
+            component.dispose();
+        }
+    }
+
+    private void releaseLayer() {
+        if (layerCache != null) {
+            layerCache.release(this);
+            layerCache = null;
+        }
+    }
 
     public void addComponent(Component c){
         components.add(c);
+        c.parent = this;
+        invalidateLayers();
+        c.damage();
     }
 
     public void removeComponent(Component c){
-        components.remove(c);
+        if (components.remove(c)) {
+            c.damage();
+            c.parent = null;
+            c.dispose();
+            invalidateLayers();
+        }
+    }
+
+    public Component getParent() {
+        return parent;
     }
 
     public List<Component> getComponents() {
@@ -37,7 +254,9 @@ abstract class Component {
     }
 
     public void setWidth(double width) {
+        damage();
         this.width = width;
+        invalidate();
     }
 
     public double getHeight() {
@@ -45,7 +264,9 @@ abstract class Component {
     }
 
     public void setHeight(double height) {
+        damage();
         this.height = height;
+        invalidate();
     }
 
     public double getX() {
@@ -53,7 +274,10 @@ abstract class Component {
     }
 
     public void setX(double x) {
+        damage();
         this.x = x;
+        damage();
+        invalidateLayers();
     }
 
     public double getY() {
@@ -61,6 +285,9 @@ abstract class Component {
     }
 
     public void setY(double y) {
+        damage();
         this.y = y;
+        damage();
+        invalidateLayers();
     }
 }
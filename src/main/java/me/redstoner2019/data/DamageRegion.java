@@ -0,0 +1,133 @@
+package me.redstoner2019.data;
+
+/**
+ * The parts of a frame that have to be drawn again, as a small set of
+ * rects in pixels. Overlapping or touching rects get merged, if there are
+ * more than {@link #MAX_RECTS} they collapse into their bounding box.
+ * <p>
+ * Damage can be reported from any thread, the listener gets called after
+ * every change.
+ */
+final class DamageRegion {
+
+    /** Maximum number of separate rects. */
+    static final int MAX_RECTS = 8;
+
+    /** Rects as x1, y1, x2, y2. */
+    private final int[] rects = new int[MAX_RECTS * 4];
+    private int count;
+
+    private int width;
+    private int height;
+
+    private Runnable listener;
+
+    /**
+     * Sets the listener that gets called when something got damaged, for
+     * example to wake up a waiting render loop.
+     *
+     * @param listener The listener, or null
+     */
+    synchronized void setListener(Runnable listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Sets the size of the surface, damage outside of it is ignored. The
+     * whole surface gets damaged.
+     *
+     * @param width  Width in pixels
+     * @param height Height in pixels
+     */
+    synchronized void setSize(int width, int height) {
+        this.width = width;
+        this.height = height;
+        addAll();
+    }
+
+    /**
+     * Damages a rect, it gets extended to whole pixels.
+     *
+     * @param x      Left edge
+     * @param y      Bottom edge
+     * @param width  Width
+     * @param height Height
+     */
+    synchronized void add(double x, double y, double width, double height) {
+        int x1 = Math.max(0, (int) Math.floor(x));
+        int y1 = Math.max(0, (int) Math.floor(y));
+        int x2 = Math.min(this.width, (int) Math.ceil(x + width));
+        int y2 = Math.min(this.height, (int) Math.ceil(y + height));
+        if (x1 >= x2 || y1 >= y2) {
+            return;
+        }
+
+        /* Merge with every rect it touches, a merged rect may touch others */
+        for (int i = 0; i < count; ) {
+            int offset = i * 4;
+            if (x1 <= rects[offset + 2] && x2 >= rects[offset] && y1 <= rects[offset + 3] && y2 >= rects[offset + 1]) {
+                x1 = Math.min(x1, rects[offset]);
+                y1 = Math.min(y1, rects[offset + 1]);
+                x2 = Math.max(x2, rects[offset + 2]);
+                y2 = Math.max(y2, rects[offset + 3]);
+                remove(i);
+                i = 0;
+            } else {
+                i++;
+            }
+        }
+
+        if (count == MAX_RECTS) {
+            for (int i = 0; i < count; i++) {
+                int offset = i * 4;
+                x1 = Math.min(x1, rects[offset]);
+                y1 = Math.min(y1, rects[offset + 1]);
+                x2 = Math.max(x2, rects[offset + 2]);
+                y2 = Math.max(y2, rects[offset + 3]);
+            }
+            count = 0;
+        }
+        int offset = count * 4;
+        rects[offset] = x1;
+        rects[offset + 1] = y1;
+        rects[offset + 2] = x2;
+        rects[offset + 3] = y2;
+        count++;
+
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Damages the whole surface.
+     */
+    synchronized void addAll() {
+        count = 0;
+        add(0, 0, width, height);
+    }
+
+    /**
+     * Copies the rects and clears the region. The rects never overlap.
+     *
+     * @param out Array for at least <code>4 * MAX_RECTS</code> values,
+     *            every rect is stored as x1, y1, x2, y2
+     *
+     * @return Number of rects
+     */
+    synchronized int drain(int[] out) {
+        int drained = count;
+        System.arraycopy(rects, 0, out, 0, drained * 4);
+        count = 0;
+        return drained;
+    }
+
+    synchronized boolean isEmpty() {
+        return count == 0;
+    }
+
+    private void remove(int rect) {
+        count--;
+        System.arraycopy(rects, count * 4, rects, rect * 4, 4);
+    }
+}
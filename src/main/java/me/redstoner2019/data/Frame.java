@@ -2,14 +2,20 @@ package me.redstoner2019.data;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import me.redstoner2019.font.TextBuffer;
 import me.redstoner2019.graphic.*;
 import me.redstoner2019.graphic.Color;
-import me.redstoner2019.math.Vector2f;
+import me.redstoner2019.math.Matrix4f;
 import org.lwjgl.glfw.*;
 import org.lwjgl.opengl.*;
+import org.lwjgl.system.MemoryStack;
 
 import static java.awt.Font.MONOSPACED;
 import static java.awt.Font.PLAIN;
@@ -30,11 +36,54 @@ public class Frame {
     private Renderer renderer;
     private boolean showDebug = true;
 
-    private final int vaoId;
+    private int vaoId;
 
-    private final int vboId;
+    private int vboId;
 
-    private final int eboId;
+    /** Shared element buffer with the static quad indices of the renderer. */
+    private int eboId;
+
+    /** Context and framebuffer of a headless frame, null for a window. */
+    private HeadlessContext headlessContext;
+    private Framebuffer framebuffer;
+
+    /** Persistent copy of the window contents, only damaged parts get drawn into it. */
+    private Framebuffer backBuffer;
+    private final DamageRegion damage = new DamageRegion();
+    /** Damaged rects of the current frame, see {@link DamageRegion#drain(int[])}. */
+    private final int[] repaintRects = new int[4 * DamageRegion.MAX_RECTS];
+    private int repaintedRects;
+    private double repaintedPercent;
+
+    /** Seconds between two frames of the debug overlay while idle. */
+    private static final double DEBUG_REFRESH = 0.25;
+
+    /** Handle of the window, or NULL for headless frames and before it exists. */
+    private volatile long window = NULL;
+    private volatile boolean idle = true;
+    private volatile boolean redrawRequested = true;
+    private final AtomicInteger animations = new AtomicInteger();
+    /** Pending timers ordered by due time, guarded by itself. */
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+    private double nextDebugRefresh;
+
+    private me.redstoner2019.font.Font font;
+    private final TextBuffer overlayText = new TextBuffer(128);
+
+    private GpuProfiler profiler;
+    private int frameScope;
+    private int componentScope;
+    private int flushScope;
+    private int textScope;
+
+    private final RenderStats.Snapshot stats = new RenderStats.Snapshot();
+    private GLState glState;
+    private long stateCalls;
+    private long skippedStateCalls;
+
+    private int componentsDrawn;
+    private int fps;
+    private double lastFrameTime;
 
     public Frame(double width, double height, double x, double y) {
         this.width = width;
@@ -42,14 +91,8 @@ public class Frame {
         this.x = x;
         this.y = y;
 
-        vaoId = GL30.glGenVertexArrays();
-
-        vboId = GL30.glGenBuffers();
-
-        eboId = GL30.glGenBuffers();
-
-
         renderer = new Renderer();
+        damage.setListener(this::wake);
         Thread t = new Thread(new Runnable() {
             @Override
             public void run() {
@@ -64,6 +107,35 @@ public class Frame {
         this(width,height,0,0);
     }
 
+    private Frame(HeadlessContext headlessContext, int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.headlessContext = headlessContext;
+
+        renderer = new Renderer();
+        showDebug = false;
+
+        framebuffer = new Framebuffer(width, height);
+        glViewport(0, 0, width, height);
+        initGL();
+        damage.setSize(width, height);
+    }
+
+    /**
+     * Creates a frame without a window, for example on a server without a
+     * display. It renders into a framebuffer of the specified size, frames
+     * get drawn with {@link #renderFrame()} and read back with
+     * {@link #toImage()}. The debug overlay is off.
+     *
+     * @param width  Width in pixels
+     * @param height Height in pixels
+     *
+     * @return The headless frame, its context is current on this thread
+     */
+    public static Frame createHeadless(int width, int height) {
+        return new Frame(new HeadlessContext(), width, height);
+    }
+
     private void init(){
 
         errorCallback = GLFWErrorCallback.createPrint(System.err);
@@ -99,29 +171,48 @@ public class Frame {
                 }
                 if (key == GLFW_KEY_F3 && action == GLFW_RELEASE) {
                     showDebug = !showDebug;
+                    redrawRequested = true;
                 }
             }
         });
 
+        // Contents of the window got lost, for example after it was covered
+        glfwSetWindowRefreshCallback(window, new GLFWWindowRefreshCallback() {
+            @Override
+            public void invoke(long window) {
+                redrawRequested = true;
+            }
+        });
+
+        // Keep the viewport and projection in sync with the framebuffer
+        glfwSetFramebufferSizeCallback(window, new GLFWFramebufferSizeCallback() {
+            @Override
+            public void invoke(long window, int width, int height) {
+                glViewport(0, 0, width, height);
+                renderer.setProjection(Matrix4f.orthographic(0f, width, 0f, height, -1f, 1f));
+                resizeBackBuffer(width, height);
+            }
+        });
+
         // Make the OpenGL context current
         glfwMakeContextCurrent(window);
 
         // Initialize OpenGL
         GL.createCapabilities();
 
-        // Set the clear color
-        glClearColor(1.0f, 1.0f, 1.0f, 0.0f);
-
         glfwShowWindow(window);
 
-        renderer.init();
-
-        me.redstoner2019.font.Font font = new me.redstoner2019.font.Font();
+        initGL();
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            IntBuffer framebufferWidth = stack.mallocInt(1);
+            IntBuffer framebufferHeight = stack.mallocInt(1);
+            glfwGetFramebufferSize(window, framebufferWidth, framebufferHeight);
+            resizeBackBuffer(framebufferWidth.get(0), framebufferHeight.get(0));
+        }
+        this.window = window;
 
         long lastUpdate = System.currentTimeMillis();
         int frames = 0;
-        int fps = 0;
-        double lastFrameTime = 0;
 
         Texture texture = Texture.loadTexture("C:\\Users\\l.paepke\\Projects\\SwingEnhanced\\src\\main\\resources\\optadata.jpg");
         texture.bind();
@@ -133,18 +224,20 @@ public class Frame {
         // Loop until the window should close
         while (!glfwWindowShouldClose(window)) {
             double start = glfwGetTime();
-            glClear(GL_COLOR_BUFFER_BIT);
+            runTimers();
 
-            int componentsDrawn = 0;
+            if (!needsFrame(start)) {
+                waitEvents(start);
+                continue;
+            }
+            redrawRequested = false;
+            if (showDebug) {
+                nextDebugRefresh = start + DEBUG_REFRESH;
+            }
 
-            //show debug info if necessary
-            if(showDebug) {
-                renderer.drawText("FPS: " + fps, 10, 0, new Color(0, 0, 0), font);
-                renderer.drawText("Last Frame Time: " + String.format("%.2f ms",lastFrameTime*1000), 10, 20, new Color(0, 0, 0), font);
-                renderer.drawText("Time: " + String.format("%.4fs",glfwGetTime()), 10, 40, new Color(0, 0, 0), font);
-                renderer.drawText("Components Drawn: " + componentsDrawn, 10, 60, new Color(0, 0, 0), font);
-                renderer.drawTriangle(new Vector2f(0,0),new Vector2f(0,1),new Vector2f(1,1),new Color(1f,0f,0f));
+            drawFrame();
 
+            if(showDebug) {
                 shaderProgram.use();
 
                 glBegin(GL_QUADS);
@@ -166,15 +259,360 @@ public class Frame {
             }
             lastFrameTime = glfwGetTime() - start;
         }
+        this.window = NULL;
+        profiler.delete();
+        if (backBuffer != null) {
+            backBuffer.delete();
+        }
         glfwTerminate();
     }
 
+    /**
+     * Tests if the window has to be drawn again. In idle mode that is only
+     * the case after something got damaged, while animations run or when
+     * the debug overlay is due.
+     */
+    private boolean needsFrame(double time) {
+        return !idle || animations.get() > 0 || redrawRequested || !damage.isEmpty()
+                || showDebug && time >= nextDebugRefresh;
+    }
+
+    /**
+     * Blocks until an event arrives, the next timer is due or the debug
+     * overlay has to be updated. Damage from other threads wakes the loop
+     * with an empty event.
+     */
+    private void waitEvents(double time) {
+        double timeout = Double.POSITIVE_INFINITY;
+        synchronized (timers) {
+            Timer next = timers.peek();
+            if (next != null) {
+                timeout = next.time - now();
+            }
+        }
+        if (showDebug) {
+            timeout = Math.min(timeout, nextDebugRefresh - time);
+        }
+        if (timeout == Double.POSITIVE_INFINITY) {
+            glfwWaitEvents();
+        } else if (timeout > 0) {
+            glfwWaitEventsTimeout(timeout);
+        } else {
+            glfwPollEvents();
+        }
+    }
+
+    /**
+     * Runs the timers that are due, on the render thread.
+     */
+    private void runTimers() {
+        while (true) {
+            Timer timer;
+            synchronized (timers) {
+                timer = timers.peek();
+                if (timer == null || timer.time > now()) {
+                    return;
+                }
+                timers.poll();
+            }
+            timer.task.run();
+        }
+    }
+
+    /**
+     * Wakes up the render loop if it is waiting for events. Can be called
+     * from any thread.
+     */
+    private void wake() {
+        if (window != NULL) {
+            glfwPostEmptyEvent();
+        }
+    }
+
+    private static double now() {
+        return System.nanoTime() / 1e9;
+    }
+
+    /**
+     * Sets up everything that needs the current context, for windows and
+     * headless frames alike.
+     */
+    private void initGL() {
+        // Set the clear color
+        glClearColor(1.0f, 1.0f, 1.0f, 0.0f);
+
+        // Buffer objects need a current context
+        vaoId = GL30.glGenVertexArrays();
+        vboId = GL30.glGenBuffers();
+        eboId = GL30.glGenBuffers();
+
+        renderer.init(new VertexBufferObject(eboId));
+
+        font = new me.redstoner2019.font.Font();
+
+        profiler = new GpuProfiler();
+        renderer.setProfiler(profiler);
+        frameScope = profiler.scope("frame");
+        componentScope = profiler.scope("components");
+        flushScope = profiler.scope("flush");
+        textScope = profiler.scope("text");
+
+        glState = GLState.current();
+    }
+
+    /**
+     * Recreates the back buffer of a window in the new size, everything
+     * gets drawn again.
+     */
+    private void resizeBackBuffer(int width, int height) {
+        if (backBuffer != null) {
+            backBuffer.delete();
+            backBuffer = null;
+        }
+        if (width > 0 && height > 0) {
+            backBuffer = new Framebuffer(width, height);
+        }
+        damage.setSize(width, height);
+    }
+
+    /**
+     * Draws one frame, with the debug overlay if it is shown. Only the
+     * damaged parts of the frame get drawn, each under its own scissor
+     * rect, into a framebuffer that keeps its contents. A window copies that
+     * framebuffer to the screen every frame, a headless frame draws into its
+     * own framebuffer.
+     */
+    public void renderFrame() {
+        drawFrame();
+    }
+
+    /* The loop runs from the constructor, it must not call the overridable renderFrame() */
+    private void drawFrame() {
+        Framebuffer target = framebuffer != null ? framebuffer : backBuffer;
+        if (target == null) {
+            /* Minimized window */
+            return;
+        }
+        target.bind();
+        profiler.beginFrame();
+        profiler.begin(frameScope);
+
+        componentsDrawn = 0;
+        /* Damage reported while drawing ends up in the next frame */
+        repaintedRects = damage.drain(repaintRects);
+        long area = 0;
+        for (int i = 0; i < repaintedRects * 4; i += 4) {
+            area += (long) (repaintRects[i + 2] - repaintRects[i]) * (repaintRects[i + 3] - repaintRects[i + 1]);
+        }
+        repaintedPercent = 100.0 * area / ((double) target.getWidth() * target.getHeight());
+        profiler.begin(componentScope);
+        if (repaintedRects > 0) {
+            renderer.begin();
+            for (int i = 0; i < repaintedRects * 4; i += 4) {
+                /* Quads outside of the rect get culled by the renderer */
+                renderer.pushClip(repaintRects[i], repaintRects[i + 1],
+                        repaintRects[i + 2] - repaintRects[i], repaintRects[i + 3] - repaintRects[i + 1]);
+                glClear(GL_COLOR_BUFFER_BIT);
+                for (Component component : components) {
+                    componentsDrawn += component.render(renderer);
+                }
+                renderer.popClip();
+            }
+            renderer.end();
+        }
+        profiler.end();
+
+        if (backBuffer != null) {
+            backBuffer.blitTo(0);
+        }
+
+        //show debug info if necessary
+        if(showDebug) {
+            drawDebugOverlay();
+            if (framebuffer != null) {
+                /* The overlay went into the persistent framebuffer */
+                damage.addAll();
+            }
+        }
+
+        profiler.end();
+        profiler.endFrame();
+        renderer.getStats().endFrame();
+        stateCalls = glState.getIssuedCalls();
+        skippedStateCalls = glState.getSkippedCalls();
+        glState.resetCounters();
+    }
+
+    private void drawDebugOverlay() {
+        // stats of the last finished frame
+        renderer.getStats().snapshot(stats);
+        renderer.begin();
+        /* One buffer for every line, so the overlay creates no garbage */
+        TextBuffer text = overlayText;
+        drawOverlayLine(text.clear().append("FPS: ").append(fps), 0);
+        drawOverlayLine(text.clear().append("Last Frame Time: ").appendMillis(lastFrameTime, 2), 20);
+        drawOverlayLine(text.clear().append("Time: ").append(glfwGetTime(), 4).append('s'), 40);
+        drawOverlayLine(text.clear().append("Components Drawn: ").append(componentsDrawn), 60);
+        drawOverlayLine(text.clear().append("Draw Calls: ").append(stats.get(RenderStats.Counter.DRAW_CALLS))
+                .append(" | Flushes: ").append(stats.get(RenderStats.Counter.FLUSHES))
+                .append(" (full ").append(stats.get(RenderStats.Counter.FLUSHES_BUFFER_FULL))
+                .append(", texture ").append(stats.get(RenderStats.Counter.FLUSHES_TEXTURE_CHANGE))
+                .append(", state ").append(stats.get(RenderStats.Counter.FLUSHES_STATE_CHANGE))
+                .append(", end ").append(stats.get(RenderStats.Counter.FLUSHES_END)).append(')'), 80);
+        drawOverlayLine(text.clear().append("Vertices: ").append(stats.get(RenderStats.Counter.VERTICES))
+                .append(" | Uploaded: ").append(stats.get(RenderStats.Counter.BYTES_UPLOADED)).append(" B")
+                .append(" | Culled: ").append(stats.get(RenderStats.Counter.CULLED))
+                .append(" | Trimmed: ").append(stats.get(RenderStats.Counter.TRIMMED)), 100);
+        drawOverlayLine(text.clear().append("Texture Binds: ").append(stats.get(RenderStats.Counter.TEXTURE_BINDS))
+                .append(" | Program Binds: ").append(stats.get(RenderStats.Counter.PROGRAM_BINDS)), 120);
+        drawOverlayLine(text.clear().append("Flush Time: ").append(stats.getFlushTimeMillis(), 3).append(" ms"), 140);
+        // GPU times lag a few frames behind, the CPU times are from the same frame
+        drawOverlayLine(text.clear().append("GPU/CPU Frame: ").append(profiler.getGpuTimeMillis(frameScope), 3)
+                .append('/').append(profiler.getCpuTimeMillis(frameScope), 3).append(" ms")
+                .append(" | Components: ").append(profiler.getGpuTimeMillis(componentScope), 3)
+                .append('/').append(profiler.getCpuTimeMillis(componentScope), 3).append(" ms"), 160);
+        drawOverlayLine(text.clear().append("GPU/CPU Flush: ").append(profiler.getGpuTimeMillis(flushScope), 3)
+                .append('/').append(profiler.getCpuTimeMillis(flushScope), 3).append(" ms")
+                /* Text is drawn in the batch of the caller, its GPU time is part of the flushes */
+                .append(" | Text CPU: ").append(profiler.getCpuTimeMillis(textScope), 3).append(" ms"), 180);
+        drawOverlayLine(text.clear().append("State Changes: ").append(stateCalls)
+                .append(" | Skipped: ").append(skippedStateCalls), 200);
+        drawOverlayLine(text.clear().append("Repainted: ").append(repaintedRects).append(" rects, ")
+                .append(repaintedPercent, 1).append('%'), 220);
+        renderer.end();
+    }
+
+    private void drawOverlayLine(CharSequence text, float y) {
+        renderer.drawText(text, 10, y, Color.BLACK, font);
+    }
+
+    /**
+     * Reads the last rendered frame of a headless frame.
+     *
+     * @param pixels Buffer for <code>width * height</code> RGBA pixels, the
+     *               rows start at the bottom
+     */
+    public void readPixels(ByteBuffer pixels) {
+        if (framebuffer == null) {
+            throw new IllegalStateException("Only headless frames can be read back!");
+        }
+        framebuffer.readPixels(pixels);
+    }
+
+    /**
+     * Copies the last rendered frame of a headless frame into an image.
+     *
+     * @return The frame as image
+     */
+    public BufferedImage toImage() {
+        if (framebuffer == null) {
+            throw new IllegalStateException("Only headless frames can be read back!");
+        }
+        int imageWidth = framebuffer.getWidth();
+        int imageHeight = framebuffer.getHeight();
+        BufferedImage image = new BufferedImage(imageWidth, imageHeight, BufferedImage.TYPE_INT_ARGB);
+
+        ByteBuffer pixels = memAlloc(imageWidth * imageHeight * 4);
+        try {
+            framebuffer.readPixels(pixels);
+            int[] row = new int[imageWidth];
+            for (int y = 0; y < imageHeight; y++) {
+                /* GL rows start at the bottom */
+                int offset = (imageHeight - 1 - y) * imageWidth * 4;
+                for (int x = 0; x < imageWidth; x++) {
+                    int i = offset + x * 4;
+                    int r = pixels.get(i) & 0xFF;
+                    int g = pixels.get(i + 1) & 0xFF;
+                    int b = pixels.get(i + 2) & 0xFF;
+                    int a = pixels.get(i + 3) & 0xFF;
+                    row[x] = (a << 24) | (r << 16) | (g << 8) | b;
+                }
+                image.setRGB(0, y, imageWidth, 1, row, 0, imageWidth);
+            }
+        } finally {
+            memFree(pixels);
+        }
+        return image;
+    }
+
+    /**
+     * Releases the GL resources of a headless frame and destroys its
+     * context.
+     */
+    public void dispose() {
+        if (headlessContext == null) {
+            throw new IllegalStateException("Windows clean up when they get closed!");
+        }
+        renderer.dispose();
+        profiler.delete();
+        framebuffer.delete();
+        headlessContext.delete();
+        headlessContext = null;
+    }
+
     public boolean isShowDebug() {
         return showDebug;
     }
 
     public void setShowDebug(boolean showDebug) {
         this.showDebug = showDebug;
+        redrawRequested = true;
+        wake();
+    }
+
+    /**
+     * Sets if the window only gets drawn when something changed. An idle
+     * window sleeps until input arrives, a component gets damaged, a timer
+     * is due or an animation runs, instead of drawing as fast as possible.
+     *
+     * @param idle true to draw on demand, false to draw continuously
+     */
+    public void setIdle(boolean idle) {
+        this.idle = idle;
+        wake();
+    }
+
+    public boolean isIdle() {
+        return idle;
+    }
+
+    /**
+     * Starts an animation, the window gets drawn continuously until every
+     * started animation has been stopped. Can be called from any thread.
+     */
+    public void startAnimation() {
+        animations.incrementAndGet();
+        wake();
+    }
+
+    /**
+     * Stops an animation started with {@link #startAnimation()}.
+     */
+    public void stopAnimation() {
+        if (animations.getAndUpdate(count -> Math.max(0, count - 1)) == 0) {
+            throw new IllegalStateException("No animation running!");
+        }
+    }
+
+    public boolean isAnimating() {
+        return animations.get() > 0;
+    }
+
+    /**
+     * Runs a task on the render thread after the specified delay, an idle
+     * window wakes up for it. Can be called from any thread.
+     *
+     * @param task  The task
+     * @param delay Delay in seconds
+     */
+    public void schedule(Runnable task, double delay) {
+        if (delay < 0) {
+            throw new IllegalArgumentException("Delay must not be negative!");
+        }
+        synchronized (timers) {
+            timers.add(new Timer(now() + delay, task));
+        }
+        wake();
     }
 
     public double getWidth() {
@@ -217,15 +655,43 @@ public class Frame {
         this.title = title;
     }
 
+    /**
+     * Draws the whole frame again in the next frame.
+     */
+    public void repaint() {
+        damage.addAll();
+    }
+
     public void addComponent(Component c){
         components.add(c);
+        c.setDamageRegion(damage);
+        c.damage();
     }
 
     public void removeComponent(Component c){
-        components.remove(c);
+        if (components.remove(c)) {
+            c.damage();
+            c.setDamageRegion(null);
+            c.dispose();
+        }
     }
 
     public List<Component> getComponents() {
         return components;
     }
+
+    private static final class Timer implements Comparable<Timer> {
+        private final double time;
+        private final Runnable task;
+
+        private Timer(double time, Runnable task) {
+            this.time = time;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            return Double.compare(time, other.time);
+        }
+    }
 }
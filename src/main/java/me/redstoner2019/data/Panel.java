@@ -1,16 +1,12 @@
 package me.redstoner2019.data;
 
 import me.redstoner2019.graphic.Color;
-import me.redstoner2019.graphic.Renderer;
-import me.redstoner2019.math.Vector2f;
-
-import static org.lwjgl.opengl.GL15.*;
-import static org.lwjgl.opengl.GL20.glEnableVertexAttribArray;
-import static org.lwjgl.opengl.GL20.glVertexAttribPointer;
-import static org.lwjgl.opengl.GL30.glBindVertexArray;
-import static org.lwjgl.opengl.GL30.glGenVertexArrays;
+import me.redstoner2019.graphic.RenderBackend;
 
 public class Panel extends Component{
+    private Color background = Color.WHITE;
+    private float cornerRadius;
+
     public Panel(double width, double height, double x, double y) {
         super(width, height, x, y);
     }
@@ -19,28 +15,29 @@ public class Panel extends Component{
     }
 
     @Override
-    int draw(Renderer r) {
-        /*float[] vertices = {
-                -0.5f, -0.5f, 0.0f,
-                0.5f, -0.5f, 0.0f,
-                0.0f,  0.5f, 0.0f
-        };
-
-        // Generate VAO and VBO
-        int vao = glGenVertexArrays();
-        int vbo = glGenBuffers();
+    int draw(RenderBackend r) {
+        /* The whole panel is one quad, the corners are done by the shader */
+        float x1 = (float) getX();
+        float y1 = (float) getY();
+        r.fillRoundedRect(x1, y1, x1 + (float) getWidth(), y1 + (float) getHeight(), cornerRadius, background);
+        return 1;
+    }
 
-        glBindVertexArray(vao);
+    public Color getBackground() {
+        return background;
+    }
 
-        glBindBuffer(GL_ARRAY_BUFFER, vbo);
-        glBufferData(GL_ARRAY_BUFFER, vertices, GL_STATIC_DRAW);
+    public void setBackground(Color background) {
+        this.background = background;
+        invalidate();
+    }
 
-        glVertexAttribPointer(0, 3, GL_FLOAT, false, 3 * Float.BYTES, 0);
-        glEnableVertexAttribArray(0);
+    public float getCornerRadius() {
+        return cornerRadius;
+    }
 
-        glBindBuffer(GL_ARRAY_BUFFER, 0);
-        glBindVertexArray(0);*/
-        //r.drawTriangle(new Vector2f(0,0),new Vector2f(0,1),new Vector2f(1,1),new Color(1f,0f,0f),0);
-        return 1;
+    public void setCornerRadius(float cornerRadius) {
+        this.cornerRadius = cornerRadius;
+        invalidate();
     }
 }
@@ -0,0 +1,110 @@
+package me.redstoner2019.font;
+
+/**
+ * Turns glyph coverage into a signed distance field. The distances are
+ * exact euclidean distances between pixel centers, computed with the
+ * separable transform of Felzenszwalb and Huttenlocher in linear time.
+ */
+final class DistanceField {
+
+    private static final float INF = 1e20f;
+
+    private DistanceField() {
+    }
+
+    /**
+     * Computes the distance field of a glyph. Pixels with a coverage of at
+     * least one half are inside.
+     *
+     * @param coverage Coverage from 0 to 255, row by row
+     * @param width    Width of the glyph
+     * @param height   Height of the glyph
+     * @param spread   Distance in pixels that maps to the full range
+     *
+     * @return Encoded distances from 0 to 255, 128 is the edge and inside is
+     *         above it
+     */
+    static int[] compute(int[] coverage, int width, int height, int spread) {
+        int size = width * height;
+        float[] toInside = new float[size];
+        float[] toOutside = new float[size];
+        for (int i = 0; i < size; i++) {
+            boolean inside = coverage[i] >= 128;
+            toInside[i] = inside ? 0f : INF;
+            toOutside[i] = inside ? INF : 0f;
+        }
+        int n = Math.max(width, height);
+        float[] f = new float[n];
+        float[] d = new float[n];
+        int[] v = new int[n];
+        float[] z = new float[n + 1];
+        transform(toInside, width, height, f, d, v, z);
+        transform(toOutside, width, height, f, d, v, z);
+
+        int[] field = new int[size];
+        for (int i = 0; i < size; i++) {
+            /* The edge lies half a pixel from the center of the nearest pixel */
+            float distance = toInside[i] == 0f
+                    ? -((float) Math.sqrt(toOutside[i]) - 0.5f)
+                    : (float) Math.sqrt(toInside[i]) - 0.5f;
+            float value = 0.5f - distance / (2f * spread);
+            field[i] = Math.round(Math.max(0f, Math.min(1f, value)) * 255f);
+        }
+        return field;
+    }
+
+    /**
+     * Replaces every value with the squared distance to the nearest zero,
+     * first along the columns and then along the rows.
+     */
+    private static void transform(float[] grid, int width, int height, float[] f, float[] d, int[] v, float[] z) {
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                f[y] = grid[y * width + x];
+            }
+            transform(f, height, d, v, z);
+            for (int y = 0; y < height; y++) {
+                grid[y * width + x] = d[y];
+            }
+        }
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(grid, y * width, f, 0, width);
+            transform(f, width, d, v, z);
+            System.arraycopy(d, 0, grid, y * width, width);
+        }
+    }
+
+    /**
+     * One dimensional squared distance transform, the lower envelope of the
+     * parabolas rooted at every sample.
+     */
+    private static void transform(float[] f, int n, float[] d, int[] v, float[] z) {
+        int k = 0;
+        v[0] = 0;
+        z[0] = -INF;
+        z[1] = INF;
+        for (int q = 1; q < n; q++) {
+            float s = intersection(f, q, v[k]);
+            while (s <= z[k]) {
+                k--;
+                s = intersection(f, q, v[k]);
+            }
+            k++;
+            v[k] = q;
+            z[k] = s;
+            z[k + 1] = INF;
+        }
+        k = 0;
+        for (int q = 0; q < n; q++) {
+            while (z[k + 1] < q) {
+                k++;
+            }
+            int p = v[k];
+            d[q] = (q - p) * (q - p) + f[p];
+        }
+    }
+
+    private static float intersection(float[] f, int q, int p) {
+        return ((f[q] + q * q) - (f[p] + p * p)) / (2f * q - 2f * p);
+    }
+}
@@ -23,21 +23,31 @@
  */
 package me.redstoner2019.font;
 
+import java.awt.AlphaComposite;
 import java.awt.FontMetrics;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
-import java.awt.geom.AffineTransform;
-import java.awt.image.AffineTransformOp;
 import java.awt.image.BufferedImage;
 import java.awt.FontFormatException;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import me.redstoner2019.graphic.Color;
-import me.redstoner2019.graphic.Renderer;
+import me.redstoner2019.graphic.GpuProfiler;
+import me.redstoner2019.graphic.RenderBackend;
 import me.redstoner2019.graphic.Texture;
 import org.lwjgl.system.MemoryUtil;
 
@@ -45,12 +55,57 @@ import static java.awt.Font.MONOSPACED;
 import static java.awt.Font.PLAIN;
 import static java.awt.Font.TRUETYPE_FONT;
 
+/**
+ * A font that rasterizes its glyphs when they are first drawn. The glyphs
+ * get packed into the pages of a {@link GlyphAtlas}, so any Unicode
+ * character can be drawn and only the used ones cost memory. The Latin-1
+ * glyphs are preloaded from the {@link FontCache}.
+ * <p>
+ * A font created with {@link #createDistanceField(RenderBackend, java.awt.Font)}
+ * stores signed distance fields instead of coverage. The glyphs are
+ * rasterized once at the size of the AWT font and stay sharp when the text
+ * is drawn larger or smaller, so one font serves every size.
+ * <p>
+ * A font created with {@link #createFreeType(RenderBackend, InputStream, int, boolean)}
+ * renders its glyphs with FreeType instead of AWT. Its text is shaped with
+ * HarfBuzz, so the kerning and ligatures of the font file apply.
+ */
 public class Font {
-    private final Map<Character, Glyph> glyphs;
+    /**
+     * Glyphs with keys below 128, the others are in the map. The keys are
+     * code points, FreeType fonts use the glyph indices of the font file.
+     */
+    private final Glyph[] asciiGlyphs = new Glyph[128];
+    private final Map<Integer, Glyph> glyphs = new HashMap<>();
+    private final GlyphAtlas atlas;
+
+    /** The AWT font and its metrics, both null for FreeType fonts. */
+    private final java.awt.Font font;
+    private final FontMetrics metrics;
+    /** The FreeType face, null for AWT fonts. */
+    private final FreeTypeFace face;
+    private final boolean antiAlias;
+    private final int size;
+    private final int fontHeight;
+    private final int ascent;
+
+    /** true, if the glyphs are distance fields. */
+    private final boolean distanceField;
+    /** Pixels the distance field reaches past the outline, 0 for bitmap glyphs. */
+    private final int spread;
 
-    private final Texture texture;
+    /** Image the glyphs drawn on the render thread go into, it grows with the widest glyph. */
+    private Scratch scratch;
 
-    private int fontHeight;
+    /** Changes when glyphs got evicted, runs of older generations are stale. */
+    private int generation;
+
+    /** Runs of recently drawn strings. */
+    private final TextRunCache runs = new TextRunCache(256);
+
+    /** Profiler the text scope was looked up for. */
+    private GpuProfiler profiler;
+    private int textScope;
 
     public Font() {
         this(new java.awt.Font(MONOSPACED, PLAIN, 16), true);
@@ -73,7 +128,12 @@ public class Font {
     }
 
     public Font(InputStream in, int size, boolean antiAlias) throws FontFormatException, IOException {
-        this(java.awt.Font.createFont(TRUETYPE_FONT, in).deriveFont(PLAIN, size), antiAlias);
+        this(in.readAllBytes(), size, antiAlias);
+    }
+
+    private Font(byte[] data, int size, boolean antiAlias) throws FontFormatException, IOException {
+        this(null, java.awt.Font.createFont(TRUETYPE_FONT, new ByteArrayInputStream(data)).deriveFont(PLAIN, size),
+                antiAlias, false, FontCache.key(data, size, antiAlias, false));
     }
 
     public Font(java.awt.Font font) {
@@ -81,137 +141,544 @@ public class Font {
     }
 
     public Font(java.awt.Font font, boolean antiAlias) {
-        glyphs = new HashMap<>();
-        texture = createFontTexture(font, antiAlias);
+        this(null, font, antiAlias);
     }
 
-    private Texture createFontTexture(java.awt.Font font, boolean antiAlias) {
-        int imageWidth = 0;
-        int imageHeight = 0;
+    /**
+     * Creates a monospaced font for a renderer.
+     *
+     * @param backend Renderer that creates the atlas pages
+     * @param size    Font size
+     */
+    public Font(RenderBackend backend, int size) {
+        this(backend, new java.awt.Font(MONOSPACED, PLAIN, size), true);
+    }
 
-        for (int i = 32; i < 256; i++) {
-            if (i == 127) {
-                continue;
-            }
-            char c = (char) i;
-            BufferedImage ch = createCharImage(font, c, antiAlias);
-            if (ch == null) {
-                continue;
+    /**
+     * Creates a font for a renderer.
+     *
+     * @param backend   Renderer that creates the atlas pages, or null for
+     *                  GL textures
+     * @param font      The AWT font
+     * @param antiAlias true, if the glyphs should be antialiased
+     */
+    public Font(RenderBackend backend, java.awt.Font font, boolean antiAlias) {
+        this(backend, font, antiAlias, false, nameKey(font, antiAlias, false));
+    }
+
+    private Font(RenderBackend backend, java.awt.Font font, boolean antiAlias, boolean distanceField, String cacheKey) {
+        this.font = font;
+        this.antiAlias = antiAlias;
+        this.distanceField = distanceField;
+        face = null;
+        size = font.getSize();
+        spread = distanceField ? Math.max(2, Math.round(font.getSize2D() / 8f)) : 0;
+        atlas = new GlyphAtlas(backend, distanceField, this::pageEvicted);
+
+        BufferedImage image = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = createGraphics(image);
+        metrics = g.getFontMetrics();
+        g.dispose();
+        fontHeight = metrics.getHeight();
+        ascent = metrics.getAscent();
+
+        preload(cacheKey);
+    }
+
+    private Font(RenderBackend backend, FreeTypeFace face, int size, boolean antiAlias, String cacheKey) {
+        this.face = face;
+        this.size = size;
+        this.antiAlias = antiAlias;
+        font = null;
+        metrics = null;
+        distanceField = false;
+        spread = 0;
+        atlas = new GlyphAtlas(backend, false, this::pageEvicted);
+        fontHeight = face.getHeight();
+        ascent = face.getAscent();
+
+        preload(cacheKey);
+    }
+
+    /**
+     * Creates a font that renders with FreeType. It needs no AWT toolkit and
+     * shapes text with the kerning and ligatures of the font file.
+     *
+     * @param backend   Renderer that creates the atlas pages, or null for GL
+     *                  textures
+     * @param in        The font file, TrueType or anything else FreeType
+     *                  reads
+     * @param size      Size in pixels
+     * @param antiAlias true, if the glyphs should be antialiased
+     *
+     * @return The font
+     *
+     * @throws FontFormatException If FreeType can't read the file
+     * @throws IOException         If the file can't be read
+     */
+    public static Font createFreeType(RenderBackend backend, InputStream in, int size, boolean antiAlias) throws FontFormatException, IOException {
+        byte[] data = in.readAllBytes();
+        /* FreeType draws other pixels than AWT, so the cache files must not mix */
+        FreeTypeFace face = new FreeTypeFace(data, size);
+        try {
+            return new Font(backend, face, size, antiAlias, FontCache.key(data, size, antiAlias, false) + "-ft");
+        } catch (RuntimeException ex) {
+            /* The font never got returned, so nobody else can dispose the face */
+            face.dispose();
+            throw ex;
+        }
+    }
+
+    /**
+     * Creates a distance field font. The size of the AWT font is the
+     * reference size the glyphs are rasterized at, something like 48 keeps
+     * the outlines accurate for large text.
+     *
+     * @param backend Renderer that creates the atlas pages, or null for GL
+     *                textures
+     * @param font    The AWT font
+     *
+     * @return The font
+     */
+    public static Font createDistanceField(RenderBackend backend, java.awt.Font font) {
+        return new Font(backend, font, true, true, nameKey(font, true, true));
+    }
+
+    /**
+     * Creates a distance field font from a TrueType file.
+     *
+     * @param backend Renderer that creates the atlas pages, or null for GL
+     *                textures
+     * @param in      The font file
+     * @param size    Reference size of the glyphs
+     *
+     * @return The font
+     *
+     * @throws FontFormatException If the file is no TrueType font
+     * @throws IOException         If the file can't be read
+     */
+    public static Font createDistanceField(RenderBackend backend, InputStream in, int size) throws FontFormatException, IOException {
+        byte[] data = in.readAllBytes();
+        java.awt.Font font = java.awt.Font.createFont(TRUETYPE_FONT, new ByteArrayInputStream(data)).deriveFont(PLAIN, size);
+        return new Font(backend, font, true, true, FontCache.key(data, size, true, true));
+    }
+
+    /**
+     * Without the font file the name has to identify it.
+     */
+    private static String nameKey(java.awt.Font font, boolean antiAlias, boolean distanceField) {
+        return FontCache.key(font.getFontName() + "-" + font.getStyle(), font.getSize2D(), antiAlias, distanceField);
+    }
+
+    /**
+     * Puts the Latin-1 glyphs into the atlas. They come from the
+     * {@link FontCache} if it has them, else they get rasterized in parallel
+     * and written to the cache. Either way every atlas page gets assembled in
+     * memory and uploaded once. Without a cache directory nothing is
+     * preloaded.
+     */
+    private void preload(String cacheKey) {
+        Path file = FontCache.file(cacheKey);
+        if (file == null) {
+            return;
+        }
+        try {
+            ByteBuffer data = FontCache.map(file, fontHeight);
+            if (data != null) {
+                int count = FontCache.getGlyphCount(data);
+                int[] codePoints = new int[count];
+                int[] widths = new int[count];
+                int[] heights = new int[count];
+                float[] advances = new float[count];
+                int[] bearingsX = new int[count];
+                int[] bearingsY = new int[count];
+                ByteBuffer[] pixels = new ByteBuffer[count];
+                for (int i = 0; i < count; i++) {
+                    codePoints[i] = FontCache.getCodePoint(data, i);
+                    widths[i] = FontCache.getWidth(data, i);
+                    heights[i] = FontCache.getHeight(data, i);
+                    advances[i] = FontCache.getAdvance(data, i);
+                    bearingsX[i] = FontCache.getBearingX(data, i);
+                    bearingsY[i] = FontCache.getBearingY(data, i);
+                    pixels[i] = FontCache.getPixels(data, i);
+                }
+                putGlyphs(codePoints, atlas.addAll(count, widths, heights, advances, bearingsX, bearingsY, pixels));
+                return;
             }
+        } catch (IOException ex) {
+            Logger.getLogger(Font.class.getName()).log(Level.CONFIG, null, ex);
+        }
+
+        if (face != null) {
+            preloadFreeType(file);
+            return;
+        }
 
-            imageWidth += ch.getWidth();
-            imageHeight = Math.max(imageHeight, ch.getHeight());
+        /* The metrics are not thread safe, so the widths are measured up front */
+        int count = 0;
+        int maxWidth = 1;
+        int[] codePoints = new int[256];
+        int[] widths = new int[256];
+        float[] advances = new float[256];
+        for (int c = 32; c < 256; c++) {
+            int width = c == 127 ? 0 : metrics.charWidth(c);
+            if (width > 0) {
+                codePoints[count] = c;
+                widths[count] = width + 2 * spread;
+                advances[count] = width;
+                maxWidth = Math.max(maxWidth, widths[count]);
+                count++;
+            }
+        }
+        int[] heights = new int[count];
+        int[] bearings = new int[count];
+        for (int i = 0; i < count; i++) {
+            heights[i] = fontHeight + 2 * spread;
+            bearings[i] = -spread;
         }
 
-        fontHeight = imageHeight;
+        ByteBuffer[] pixels = new ByteBuffer[count];
+        try {
+            rasterizeAll(count, codePoints, widths, maxWidth, pixels);
+            putGlyphs(codePoints, atlas.addAll(count, widths, heights, advances, bearings, bearings, pixels));
 
-        BufferedImage image = new BufferedImage(imageWidth, imageHeight, BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g = image.createGraphics();
+            List<FontCache.Entry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                entries.add(new FontCache.Entry(codePoints[i], widths[i], heights[i], advances[i], bearings[i],
+                        bearings[i], pixels[i]));
+            }
+            FontCache.write(file, fontHeight, entries);
+        } catch (IOException ex) {
+            /* The font works without the cache, it just starts slower next time */
+            Logger.getLogger(Font.class.getName()).log(Level.CONFIG, null, ex);
+        } finally {
+            for (ByteBuffer buffer : pixels) {
+                if (buffer != null) {
+                    MemoryUtil.memFree(buffer);
+                }
+            }
+        }
+    }
 
-        int x = 0;
+    /**
+     * Renders the Latin-1 glyphs with FreeType and writes them to the cache.
+     * The face is not thread safe, but FreeType is fast enough to do this on
+     * the calling thread.
+     */
+    private void preloadFreeType(Path file) {
+        int count = 0;
+        int[] codePoints = new int[256];
+        int[] widths = new int[256];
+        int[] heights = new int[256];
+        float[] advances = new float[256];
+        int[] bearingsX = new int[256];
+        int[] bearingsY = new int[256];
+        ByteBuffer[] pixels = new ByteBuffer[256];
+        try {
+            for (int c = 33; c < 256; c++) {
+                if (c == 127) {
+                    continue;
+                }
+                int glyphIndex = face.getGlyphIndex(c);
+                if (glyphIndex == 0) {
+                    /* The font has no glyph for it */
+                    continue;
+                }
+                ByteBuffer buffer = face.render(glyphIndex, antiAlias);
+                if (buffer == null) {
+                    /* Spaces have no pixels, their glyphs get created when they are used */
+                    continue;
+                }
+                codePoints[count] = c;
+                widths[count] = face.getRenderedWidth();
+                heights[count] = face.getRenderedHeight();
+                advances[count] = face.getRenderedAdvance();
+                bearingsX[count] = face.getRenderedLeft();
+                bearingsY[count] = getBearingY();
+                pixels[count] = buffer;
+                count++;
+            }
+            putGlyphs(codePoints, atlas.addAll(count, widths, heights, advances, bearingsX, bearingsY, pixels));
 
-        for (int i = 32; i < 256; i++) {
-            if (i == 127) {
-                continue;
+            List<FontCache.Entry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                entries.add(new FontCache.Entry(codePoints[i], widths[i], heights[i], advances[i], bearingsX[i],
+                        bearingsY[i], pixels[i]));
             }
-            char c = (char) i;
-            BufferedImage charImage = createCharImage(font, c, antiAlias);
-            if (charImage == null) {
-                continue;
+            FontCache.write(file, fontHeight, entries);
+        } catch (IOException ex) {
+            Logger.getLogger(Font.class.getName()).log(Level.CONFIG, null, ex);
+        } finally {
+            for (ByteBuffer buffer : pixels) {
+                if (buffer != null) {
+                    MemoryUtil.memFree(buffer);
+                }
             }
+        }
+    }
 
-            int charWidth = charImage.getWidth();
-            int charHeight = charImage.getHeight();
+    /**
+     * Returns the offset of the glyph FreeType rendered last from the bottom
+     * of the line.
+     */
+    private int getBearingY() {
+        return fontHeight - ascent + face.getRenderedTop() - face.getRenderedHeight();
+    }
 
-            Glyph ch = new Glyph(charWidth, charHeight, x, image.getHeight() - charHeight, 0f);
-            g.drawImage(charImage, x, 0, null);
-            x += ch.width;
-            glyphs.put(c, ch);
+    /**
+     * Rasterizes glyphs on the common fork join pool. Every thread draws into
+     * its own scratch image, they get disposed afterwards. The scratches are
+     * kept in a map of this call instead of thread locals, so the pool
+     * threads hold no images once this returns.
+     */
+    private void rasterizeAll(int count, int[] codePoints, int[] widths, int maxWidth, ByteBuffer[] pixels) {
+        Map<Thread, Scratch> scratches = new ConcurrentHashMap<>();
+        try {
+            ForkJoinPool.commonPool().invoke(new RasterTask(0, count, codePoints, widths, maxWidth, pixels, scratches));
+        } finally {
+            for (Scratch workerScratch : scratches.values()) {
+                workerScratch.dispose();
+            }
         }
+    }
 
-        AffineTransform transform = AffineTransform.getScaleInstance(1f, -1f);
-        transform.translate(0, -image.getHeight());
-        AffineTransformOp operation = new AffineTransformOp(transform,
-                AffineTransformOp.TYPE_NEAREST_NEIGHBOR);
-        image = operation.filter(image, null);
+    private void putGlyphs(int[] codePoints, Glyph[] added) {
+        for (int i = 0; i < added.length; i++) {
+            if (added[i] != null) {
+                /* The cache files store code points, shaped text looks glyphs up by index */
+                putGlyph(face != null ? face.getGlyphIndex(codePoints[i]) : codePoints[i], added[i]);
+            }
+        }
+    }
 
-        int width = image.getWidth();
-        int height = image.getHeight();
+    /**
+     * Returns the glyph of a character, it gets rasterized and uploaded on
+     * first use.
+     *
+     * @param codePoint The character, or the glyph index for FreeType fonts
+     * @param renderer  Renderer that is drawing, or null
+     *
+     * @return The glyph, characters without pixels get a glyph without
+     *         texture
+     */
+    Glyph getGlyph(int codePoint, RenderBackend renderer) {
+        Glyph glyph = codePoint < asciiGlyphs.length ? asciiGlyphs[codePoint] : glyphs.get(codePoint);
+        if (glyph != null) {
+            atlas.touch(glyph);
+            return glyph;
+        }
+        glyph = rasterize(codePoint, renderer);
+        putGlyph(codePoint, glyph);
+        return glyph;
+    }
 
-        int[] pixels = new int[width * height];
-        image.getRGB(0, 0, width, height, pixels, 0, width);
+    private void putGlyph(int codePoint, Glyph glyph) {
+        if (codePoint < asciiGlyphs.length) {
+            asciiGlyphs[codePoint] = glyph;
+        } else {
+            glyphs.put(codePoint, glyph);
+        }
+    }
 
-        ByteBuffer buffer = MemoryUtil.memAlloc(width * height * 4);
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                int pixel = pixels[i * width + j];
-                buffer.put((byte) ((pixel >> 16) & 0xFF));
-                buffer.put((byte) ((pixel >> 8) & 0xFF));
-                buffer.put((byte) (pixel & 0xFF));
-                buffer.put((byte) ((pixel >> 24) & 0xFF));
+    private Glyph rasterize(int codePoint, RenderBackend renderer) {
+        if (face != null) {
+            /* FreeType fonts look glyphs up by index */
+            ByteBuffer buffer = face.render(codePoint, antiAlias);
+            if (buffer == null) {
+                return new Glyph(0, 0, 0, 0, face.getRenderedAdvance());
+            }
+            try {
+                return atlas.add(face.getRenderedWidth(), face.getRenderedHeight(), face.getRenderedAdvance(),
+                        face.getRenderedLeft(), getBearingY(), buffer, renderer);
+            } finally {
+                MemoryUtil.memFree(buffer);
             }
         }
-        buffer.flip();
+        int advance = metrics.charWidth(codePoint);
+        if (advance <= 0 || fontHeight <= 0) {
+            return new Glyph(0, 0, 0, 0, 0f);
+        }
+        /* Distance fields reach past the outline, so they get a border */
+        int width = advance + 2 * spread;
+        ByteBuffer buffer = rasterizePixels(codePoint, width);
+        try {
+            return atlas.add(width, fontHeight + 2 * spread, advance, -spread, -spread, buffer, renderer);
+        } finally {
+            MemoryUtil.memFree(buffer);
+        }
+    }
 
-        Texture fontTexture = Texture.createTexture(width, height, buffer);
-        MemoryUtil.memFree(buffer);
-        return fontTexture;
+    /**
+     * Draws a glyph with AWT on the render thread.
+     *
+     * @return RGBA pixels with {@link GlyphAtlas#PADDING} on every side, the
+     *         rows start at the bottom, the caller frees them
+     */
+    private ByteBuffer rasterizePixels(int codePoint, int width) {
+        if (scratch == null || scratch.image.getWidth() < width) {
+            int scratchWidth = width;
+            if (scratch != null) {
+                scratchWidth = Math.max(width, scratch.image.getWidth());
+                scratch.dispose();
+            }
+            scratch = new Scratch(scratchWidth, fontHeight + 2 * spread);
+        }
+        return scratch.rasterize(codePoint, width);
     }
 
-    private BufferedImage createCharImage(java.awt.Font font, char c, boolean antiAlias) {
-        BufferedImage image = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+    private Graphics2D createGraphics(BufferedImage image) {
         Graphics2D g = image.createGraphics();
         if (antiAlias) {
             g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
         }
         g.setFont(font);
-        FontMetrics metrics = g.getFontMetrics();
-        g.dispose();
-
-        int charWidth = metrics.charWidth(c);
-        int charHeight = metrics.getHeight();
+        return g;
+    }
 
-        if (charWidth == 0) {
-            return null;
+    /**
+     * Forgets the glyphs of a cleared atlas page.
+     */
+    private void pageEvicted(int page) {
+        for (int i = 0; i < asciiGlyphs.length; i++) {
+            if (asciiGlyphs[i] != null && asciiGlyphs[i].page == page) {
+                asciiGlyphs[i] = null;
+            }
         }
+        glyphs.values().removeIf(glyph -> glyph.page == page);
+        generation++;
+    }
 
-        image = new BufferedImage(charWidth, charHeight, BufferedImage.TYPE_INT_ARGB);
-        g = image.createGraphics();
-        if (antiAlias) {
-            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+    int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Returns true, if the glyphs are distance fields that scale to any
+     * size.
+     */
+    public boolean isDistanceField() {
+        return distanceField;
+    }
+
+    int getSpread() {
+        return spread;
+    }
+
+    /**
+     * Returns the size the glyphs are rasterized at, texts drawn at this size
+     * are not scaled.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns true, if the glyphs are rendered with FreeType.
+     */
+    public boolean isFreeType() {
+        return face != null;
+    }
+
+    /**
+     * Returns the index of the next line feed or carriage return, or the
+     * length of the text. FreeType fonts shape the text between them.
+     */
+    private static int segmentEnd(CharSequence text, int start) {
+        int end = start;
+        while (end < text.length() && text.charAt(end) != '\n' && text.charAt(end) != '\r') {
+            end++;
         }
-        g.setFont(font);
-        g.setPaint(java.awt.Color.WHITE);
-        g.drawString(String.valueOf(c), 0, metrics.getAscent());
-        g.dispose();
-        return image;
+        return end;
+    }
+
+    /**
+     * Limits the number of atlas pages of 1024x1024 pixels. When all pages
+     * are full the least recently used page gets cleared, its glyphs are
+     * rasterized again when they are drawn the next time.
+     *
+     * @param maxPages Page limit, 0 for no limit
+     */
+    public void setMaxAtlasPages(int maxPages) {
+        atlas.setMaxPages(maxPages);
+    }
+
+    public int getMaxAtlasPages() {
+        return atlas.getMaxPages();
+    }
+
+    public int getAtlasPageCount() {
+        return atlas.getPageCount();
+    }
+
+    /**
+     * Returns the number of atlas pages that were cleared to make room.
+     */
+    public long getAtlasEvictions() {
+        return atlas.getEvictions();
+    }
+
+    public int getFontHeight() {
+        return fontHeight;
     }
 
     public int getWidth(CharSequence text) {
-        int width = 0;
-        int lineWidth = 0;
+        float width = 0f;
+        float lineWidth = 0f;
+        if (face != null) {
+            for (int start = 0; ; start++) {
+                int end = segmentEnd(text, start);
+                lineWidth += face.shape(text, start, end).width;
+                if (end == text.length()) {
+                    break;
+                }
+                if (text.charAt(end) == '\n') {
+                    width = Math.max(width, lineWidth);
+                    lineWidth = 0f;
+                }
+                start = end;
+            }
+            return (int) Math.ceil(Math.max(width, lineWidth));
+        }
         for (int i = 0; i < text.length(); i++) {
-            char c = text.charAt(i);
+            int c = Character.codePointAt(text, i);
+            i += Character.charCount(c) - 1;
             if (c == '\n') {
                 width = Math.max(width, lineWidth);
-                lineWidth = 0;
+                lineWidth = 0f;
                 continue;
             }
             if (c == '\r') {
                 continue;
             }
-            Glyph g = glyphs.get(c);
-            lineWidth += g.width;
+            lineWidth += metrics.charWidth(c);
         }
         width = Math.max(width, lineWidth);
-        return width;
+        return (int) Math.ceil(width);
     }
 
     public int getHeight(CharSequence text) {
         int height = 0;
         int lineHeight = 0;
+        if (face != null) {
+            for (int start = 0; ; start++) {
+                int end = segmentEnd(text, start);
+                if (face.shape(text, start, end).width > 0f) {
+                    lineHeight = fontHeight;
+                }
+                if (end == text.length()) {
+                    break;
+                }
+                if (text.charAt(end) == '\n') {
+                    height += lineHeight;
+                    lineHeight = 0;
+                }
+                start = end;
+            }
+            return height + lineHeight;
+        }
         for (int i = 0; i < text.length(); i++) {
-            char c = text.charAt(i);
+            int c = Character.codePointAt(text, i);
+            i += Character.charCount(c) - 1;
             if (c == '\n') {
                 height += lineHeight;
                 lineHeight = 0;
@@ -220,49 +687,450 @@ public class Font {
             if (c == '\r') {
                 continue;
             }
-            Glyph g = glyphs.get(c);
-            lineHeight = Math.max(lineHeight, g.height);
+            if (metrics.charWidth(c) > 0) {
+                lineHeight = fontHeight;
+            }
         }
         height += lineHeight;
         return height;
     }
 
-    public void drawText(Renderer renderer, CharSequence text, float x, float y, Color c) {
-        drawText(renderer,text,x,y,c,12);
+    public void drawText(RenderBackend renderer, CharSequence text, float x, float y, Color c) {
+        drawText(renderer, text, x, y, c, 1f);
     }
-    public void drawText(Renderer renderer, CharSequence text, float x, float y, Color c, int fontSize) {
-        int textHeight = getHeight(text);
 
-        float drawX = x;
-        float drawY = y;
-        if (textHeight > fontHeight) {
-            drawY += textHeight - fontHeight;
+    /**
+     * Draws a text at another size than the font was created with. Distance
+     * field fonts stay sharp at any size, bitmap glyphs get stretched.
+     *
+     * @param fontSize Size to draw the text at
+     */
+    public void drawText(RenderBackend renderer, CharSequence text, float x, float y, Color c, int fontSize) {
+        drawText(renderer, text, x, y, c, fontSize / (float) size);
+    }
+
+    /**
+     * Draws a text. Strings get laid out once and are then drawn from the
+     * run cache, other char sequences like a {@link TextBuffer} change
+     * between frames and get laid out while they are drawn.
+     */
+    private void drawText(RenderBackend renderer, CharSequence text, float x, float y, Color c, float scale) {
+        boolean batch = beginText(renderer);
+        TextRun run = text instanceof String ? runs.get(this, (String) text, renderer) : null;
+        if (run != null && run.getGeneration() == generation) {
+            run.draw(renderer, x, y, scale, c);
+        } else {
+            /* The text changes every frame, or laying it out evicted glyphs it uses */
+            drawImmediate(renderer, text, x, y, scale, c);
         }
+        endText(renderer, batch);
+    }
+
+    /**
+     * Draws a run of this font.
+     *
+     * @param renderer The renderer
+     * @param run      Run created by {@link #layout(CharSequence)}
+     * @param x        X position of the origin
+     * @param y        Y position of the origin
+     * @param c        The color to use
+     */
+    public void drawRun(RenderBackend renderer, TextRun run, float x, float y, Color c) {
+        drawRun(renderer, run, x, y, c, size);
+    }
 
-        texture.bind();
-        renderer.begin();
+    /**
+     * Draws a run of this font at another size.
+     *
+     * @param fontSize Size to draw the run at
+     */
+    public void drawRun(RenderBackend renderer, TextRun run, float x, float y, Color c, int fontSize) {
+        if (run.getFont() != this) {
+            throw new IllegalArgumentException("Run belongs to another font!");
+        }
+        float scale = fontSize / (float) size;
+        boolean batch = beginText(renderer);
+        if (run.getGeneration() == generation) {
+            run.draw(renderer, x, y, scale, c);
+        } else {
+            /* Glyphs of the run got evicted */
+            drawImmediate(renderer, run.getText(), x, y, scale, c);
+        }
+        endText(renderer, batch);
+    }
+
+    /**
+     * Lays out a text into glyph quads relative to the origin. Labels that
+     * never change can keep the run and draw it with
+     * {@link #drawRun(RenderBackend, TextRun, float, float, Color)}.
+     *
+     * @param text The text
+     *
+     * @return The run
+     */
+    public TextRun layout(CharSequence text) {
+        return layout(text, null);
+    }
+
+    /**
+     * Lays out a text while drawing, the renderer gets flushed if glyphs
+     * have to be evicted. If that evicts glyphs the run already uses, the
+     * text gets laid out once more. A run that is still stale afterwards
+     * has more glyphs than the atlas holds and has to be drawn immediately.
+     */
+    TextRun layout(CharSequence text, RenderBackend renderer) {
+        TextRun run = layoutOnce(text, renderer);
+        if (run.getGeneration() != generation) {
+            run = layoutOnce(text, renderer);
+        }
+        return run;
+    }
+
+    private TextRun layoutOnce(CharSequence text, RenderBackend renderer) {
+        int runGeneration = generation;
+        float[] quads = new float[text.length() * 8];
+        Texture[] textures = new Texture[text.length()];
+        int count = 0;
+
+        float drawX = 0f;
+        float drawY = getLineOffset(text);
+        if (face != null) {
+            for (int start = 0; ; start++) {
+                int end = segmentEnd(text, start);
+                ShapedLine line = face.shape(text, start, end);
+                /* Some scripts shape into more glyphs than chars */
+                if ((count + line.getGlyphCount()) * 8 > quads.length) {
+                    quads = Arrays.copyOf(quads, (count + line.getGlyphCount()) * 8);
+                    textures = Arrays.copyOf(textures, count + line.getGlyphCount());
+                }
+                for (int i = 0; i < line.getGlyphCount(); i++) {
+                    Glyph g = getGlyph(line.glyphs[i], renderer);
+                    if (g.texture != null) {
+                        putQuad(quads, count, g, drawX + line.offsetsX[i], drawY + line.offsetsY[i]);
+                        textures[count] = g.texture;
+                        count++;
+                    }
+                    drawX += line.advances[i];
+                }
+                if (end == text.length()) {
+                    break;
+                }
+                if (text.charAt(end) == '\n') {
+                    drawY -= fontHeight;
+                    drawX = 0f;
+                }
+                start = end;
+            }
+        } else {
+            for (int i = 0; i < text.length(); i++) {
+                int ch = Character.codePointAt(text, i);
+                i += Character.charCount(ch) - 1;
+                if (ch == '\n') {
+                    drawY -= fontHeight;
+                    drawX = 0f;
+                    continue;
+                }
+                if (ch == '\r') {
+                    continue;
+                }
+                Glyph g = getGlyph(ch, renderer);
+                if (g.texture != null) {
+                    putQuad(quads, count, g, drawX, drawY);
+                    textures[count] = g.texture;
+                    count++;
+                }
+                drawX += g.advance;
+            }
+        }
+        /* An eviction while laying out leaves quads on a cleared page */
+        return new TextRun(this, text.toString(), runGeneration, textures, quads, count);
+    }
+
+    /**
+     * Writes the quad of a glyph at a pen position into a run.
+     */
+    private static void putQuad(float[] quads, int index, Glyph g, float x, float y) {
+        Texture texture = g.texture;
+        int offset = index * 8;
+        quads[offset] = x + g.bearingX;
+        quads[offset + 1] = y + g.bearingY;
+        quads[offset + 2] = x + g.bearingX + g.width;
+        quads[offset + 3] = y + g.bearingY + g.height;
+        quads[offset + 4] = (float) g.x / texture.getWidth();
+        quads[offset + 5] = (float) g.y / texture.getHeight();
+        quads[offset + 6] = (float) (g.x + g.width) / texture.getWidth();
+        quads[offset + 7] = (float) (g.y + g.height) / texture.getHeight();
+    }
+
+    /**
+     * Returns the cache that keeps the runs of drawn strings.
+     */
+    public TextRunCache getRunCache() {
+        return runs;
+    }
+
+    /**
+     * Returns how far the first line is above the origin, so multiline
+     * texts grow upwards from it.
+     */
+    private float getLineOffset(CharSequence text) {
+        int textHeight = getHeight(text);
+        return textHeight > fontHeight ? textHeight - fontHeight : 0f;
+    }
+
+    private void drawImmediate(RenderBackend renderer, CharSequence text, float x, float y, float scale, Color c) {
+        if (face != null) {
+            drawShaped(renderer, text, x, y, scale, c);
+            return;
+        }
+        float lineHeight = fontHeight * scale;
+        float drawX = x;
+        float drawY = y + getLineOffset(text) * scale;
         for (int i = 0; i < text.length(); i++) {
-            char ch = text.charAt(i);
+            int ch = Character.codePointAt(text, i);
+            i += Character.charCount(ch) - 1;
             if (ch == '\n') {
-                drawY -= fontHeight;
+                drawY -= lineHeight;
                 drawX = x;
                 continue;
             }
             if (ch == '\r') {
                 continue;
             }
-            Glyph g = glyphs.get(ch);
-            renderer.drawTextureRegion(texture, drawX, drawY, g.x, g.y, g.width, g.height, c);
-            drawX += g.width;
+            if (renderer.isOutsideClip(drawX, drawY, Float.POSITIVE_INFINITY, drawY + lineHeight)) {
+                /* Nothing right of here is visible, skip to the next line */
+                while (i + 1 < text.length() && text.charAt(i + 1) != '\n') {
+                    i++;
+                }
+                continue;
+            }
+            Glyph g = getGlyph(ch, renderer);
+            drawGlyph(renderer, g, drawX, drawY, scale, c);
+            drawX += g.advance * scale;
         }
-        renderer.end();
     }
 
-    public void drawText(Renderer renderer, CharSequence text, float x, float y) {
+    /**
+     * Draws the text of a FreeType font line by line from the shaped glyphs.
+     * Lines come from the shaping cache, so drawing a text that changes
+     * between frames only shapes the lines that changed.
+     */
+    private void drawShaped(RenderBackend renderer, CharSequence text, float x, float y, float scale, Color c) {
+        float lineHeight = fontHeight * scale;
+        float drawX = x;
+        float drawY = y + getLineOffset(text) * scale;
+        for (int start = 0; ; start++) {
+            int end = segmentEnd(text, start);
+            ShapedLine line = face.shape(text, start, end);
+            for (int i = 0; i < line.getGlyphCount(); i++) {
+                if (renderer.isOutsideClip(drawX, drawY, Float.POSITIVE_INFINITY, drawY + lineHeight)) {
+                    /* Nothing right of here is visible */
+                    break;
+                }
+                Glyph g = getGlyph(line.glyphs[i], renderer);
+                drawGlyph(renderer, g, drawX + line.offsetsX[i] * scale, drawY + line.offsetsY[i] * scale, scale, c);
+                drawX += line.advances[i] * scale;
+            }
+            if (end == text.length()) {
+                break;
+            }
+            if (text.charAt(end) == '\n') {
+                drawY -= lineHeight;
+                drawX = x;
+            }
+            start = end;
+        }
+    }
+
+    /**
+     * Draws the quad of a glyph at a pen position, glyphs without pixels
+     * draw nothing.
+     */
+    private void drawGlyph(RenderBackend renderer, Glyph g, float x, float y, float scale, Color c) {
+        if (g.texture != null) {
+            drawGlyph(renderer, g.texture, x + g.bearingX * scale, y + g.bearingY * scale,
+                    x + (g.bearingX + g.width) * scale, y + (g.bearingY + g.height) * scale,
+                    (float) g.x / g.texture.getWidth(), (float) g.y / g.texture.getHeight(),
+                    (float) (g.x + g.width) / g.texture.getWidth(), (float) (g.y + g.height) / g.texture.getHeight(), c);
+        }
+    }
+
+    /**
+     * Draws a glyph quad, distance fields go through the shape mode that
+     * reconstructs their outline.
+     */
+    void drawGlyph(RenderBackend renderer, Texture texture, float x1, float y1, float x2, float y2,
+                   float s1, float t1, float s2, float t2, Color c) {
+        if (distanceField) {
+            renderer.drawDistanceField(texture, x1, y1, x2, y2, s1, t1, s2, t2, spread, c);
+        } else {
+            renderer.drawTextureRegion(texture, x1, y1, x2, y2, s1, t1, s2, t2, c);
+        }
+    }
+
+    /**
+     * Starts the text scope of the profiler and a batch if the caller has
+     * none. Text shares the batch of the caller, so its GPU work is drawn by
+     * a later flush and ends up in the "flush" scope. The text scope only
+     * measures the CPU time of the layout and the glyph uploads.
+     *
+     * @return true, if a batch was started
+     */
+    private boolean beginText(RenderBackend renderer) {
+        GpuProfiler textProfiler = renderer.getProfiler();
+        if (textProfiler != null) {
+            if (textProfiler != profiler) {
+                profiler = textProfiler;
+                textScope = textProfiler.scope("text");
+            }
+            textProfiler.begin(textScope);
+        }
+
+        /* The glyphs get their own texture slot, so text can share the batch of the caller */
+        boolean batch = !renderer.isDrawing();
+        if (batch) {
+            renderer.begin();
+        }
+        return batch;
+    }
+
+    private void endText(RenderBackend renderer, boolean batch) {
+        if (batch) {
+            renderer.end();
+        }
+        GpuProfiler textProfiler = renderer.getProfiler();
+        if (textProfiler != null) {
+            textProfiler.end();
+        }
+    }
+
+    public void drawText(RenderBackend renderer, CharSequence text, float x, float y) {
         drawText(renderer, text, x, y, Color.WHITE);
     }
 
     public void dispose() {
-        texture.delete();
+        runs.clear();
+        atlas.delete();
+        if (scratch != null) {
+            scratch.dispose();
+            scratch = null;
+        }
+        if (face != null) {
+            face.dispose();
+        }
+    }
+
+    /**
+     * An image to draw glyphs into, owned by one thread.
+     */
+    private final class Scratch {
+        private final BufferedImage image;
+        private final Graphics2D graphics;
+        private final int[] row;
+
+        private Scratch(int width, int height) {
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            graphics = createGraphics(image);
+            graphics.setPaint(java.awt.Color.WHITE);
+            row = new int[width];
+        }
+
+        /**
+         * Draws a glyph. Distance fields get the spread as border around the
+         * outline and are stored as white with the field in alpha.
+         *
+         * @param width Width of the glyph including the border
+         *
+         * @return RGBA pixels with {@link GlyphAtlas#PADDING} on every side,
+         *         the rows start at the bottom, the caller frees them
+         */
+        private ByteBuffer rasterize(int codePoint, int width) {
+            int height = image.getHeight();
+            graphics.setComposite(AlphaComposite.Clear);
+            graphics.fillRect(0, 0, width, height);
+            graphics.setComposite(AlphaComposite.SrcOver);
+            graphics.drawString(new String(Character.toChars(codePoint)), spread, spread + ascent);
+
+            int[] field = null;
+            if (distanceField) {
+                int[] coverage = new int[width * height];
+                for (int y = 0; y < height; y++) {
+                    image.getRGB(0, y, width, 1, row, 0, width);
+                    for (int x = 0; x < width; x++) {
+                        coverage[y * width + x] = row[x] >>> 24;
+                    }
+                }
+                field = DistanceField.compute(coverage, width, height, spread);
+            }
+
+            int padding = GlyphAtlas.PADDING;
+            int paddedWidth = width + 2 * padding;
+            ByteBuffer buffer = MemoryUtil.memCalloc(paddedWidth * (height + 2 * padding) * 4);
+            for (int y = 0; y < height; y++) {
+                if (field == null) {
+                    image.getRGB(0, y, width, 1, row, 0, width);
+                }
+                /* Image rows start at the top, texture rows at the bottom */
+                int target = ((height - 1 - y + padding) * paddedWidth + padding) * 4;
+                for (int x = 0; x < width; x++) {
+                    int pixel = field == null ? row[x] : field[y * width + x] << 24 | 0xFFFFFF;
+                    int i = target + x * 4;
+                    buffer.put(i, (byte) ((pixel >> 16) & 0xFF));
+                    buffer.put(i + 1, (byte) ((pixel >> 8) & 0xFF));
+                    buffer.put(i + 2, (byte) (pixel & 0xFF));
+                    buffer.put(i + 3, (byte) ((pixel >> 24) & 0xFF));
+                }
+            }
+            return buffer;
+        }
+
+        private void dispose() {
+            graphics.dispose();
+        }
+    }
+
+    /**
+     * Rasterizes a range of glyphs, big ranges get split in halves. Tasks are
+     * never serialized.
+     */
+    @SuppressWarnings("serial")
+    private final class RasterTask extends RecursiveAction {
+        private static final int THRESHOLD = 16;
+
+        private final int from;
+        private final int to;
+        private final int[] codePoints;
+        private final int[] widths;
+        private final int maxWidth;
+        private final ByteBuffer[] pixels;
+        /** Scratch of every thread that ran a task. */
+        private final Map<Thread, Scratch> scratches;
+
+        private RasterTask(int from, int to, int[] codePoints, int[] widths, int maxWidth, ByteBuffer[] pixels,
+                           Map<Thread, Scratch> scratches) {
+            this.from = from;
+            this.to = to;
+            this.codePoints = codePoints;
+            this.widths = widths;
+            this.maxWidth = maxWidth;
+            this.pixels = pixels;
+            this.scratches = scratches;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > THRESHOLD) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new RasterTask(from, middle, codePoints, widths, maxWidth, pixels, scratches),
+                        new RasterTask(middle, to, codePoints, widths, maxWidth, pixels, scratches));
+                return;
+            }
+            /* A thread never runs two ranges at once, ranges don't wait for other tasks */
+            Scratch workerScratch = scratches.computeIfAbsent(Thread.currentThread(),
+                    thread -> new Scratch(maxWidth, fontHeight + 2 * spread));
+            for (int i = from; i < to; i++) {
+                pixels[i] = workerScratch.rasterize(codePoints[i], widths[i]);
+            }
+        }
     }
 }
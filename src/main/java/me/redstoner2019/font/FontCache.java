@@ -0,0 +1,236 @@
+package me.redstoner2019.font;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Files with the preloaded glyphs of a font, so later runs skip the AWT
+ * rasterization. A file is keyed by a hash of the font, its size, the
+ * antialias flag and the distance field flag. It gets memory mapped when
+ * it is read, the glyph pixels are uploaded straight from the mapping.
+ * <p>
+ * The layout is little endian: a header of magic, version, font height and
+ * glyph count, then one entry of code point, width, height, advance,
+ * bearings and pixel offset per glyph, then the padded RGBA pixels of the
+ * glyphs.
+ */
+public final class FontCache {
+
+    private static final int MAGIC = 0x43464553;
+    /** Changes whenever the layout or the rasterization changes. */
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 16;
+    private static final int ENTRY_SIZE = 28;
+
+    private static volatile Path directory = Paths.get(System.getProperty("user.home"), ".swingenhanced", "fonts");
+
+    private FontCache() {
+    }
+
+    /**
+     * Sets the directory of the cache files.
+     *
+     * @param directory The directory, or null to disable the cache
+     */
+    public static void setDirectory(Path directory) {
+        FontCache.directory = directory;
+    }
+
+    public static Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Creates the key of a font.
+     *
+     * @param source        Font file, or the name of a font without file
+     * @param size          Font size
+     * @param antiAlias     true, if the glyphs are antialiased
+     * @param distanceField true, if the glyphs are distance fields
+     *
+     * @return The key
+     */
+    static String key(byte[] source, float size, boolean antiAlias, boolean distanceField) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(source);
+            return HexFormat.of().formatHex(hash) + "-" + size + (antiAlias ? "-aa" : "") + (distanceField ? "-sdf" : "");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not available!", ex);
+        }
+    }
+
+    static String key(String name, float size, boolean antiAlias, boolean distanceField) {
+        return key(name.getBytes(StandardCharsets.UTF_8), size, antiAlias, distanceField);
+    }
+
+    /**
+     * Returns the file of a key.
+     *
+     * @return The file, or null if the cache is disabled
+     */
+    static Path file(String key) {
+        Path dir = directory;
+        return dir == null ? null : dir.resolve(key + ".atlas");
+    }
+
+    /**
+     * Maps a cache file.
+     *
+     * @param file       The file
+     * @param fontHeight Height the font has now, a file with another height
+     *                   is stale
+     *
+     * @return The mapped file, or null if it doesn't exist or doesn't match
+     *
+     * @throws IOException If the file can't be read
+     */
+    static ByteBuffer map(Path file, int fontHeight) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        ByteBuffer data;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            /* The mapping stays valid after the channel is closed */
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        if (data.limit() < HEADER_SIZE || data.getInt(0) != MAGIC || data.getInt(4) != VERSION
+                || data.getInt(8) != fontHeight) {
+            return null;
+        }
+
+        /* Check every entry before anything gets uploaded */
+        int count = data.getInt(12);
+        if (count < 0 || (long) HEADER_SIZE + (long) count * ENTRY_SIZE > data.limit()) {
+            return null;
+        }
+        for (int i = 0; i < count; i++) {
+            int entry = HEADER_SIZE + i * ENTRY_SIZE;
+            int codePoint = data.getInt(entry);
+            int width = data.getInt(entry + 4);
+            int height = data.getInt(entry + 8);
+            int offset = data.getInt(entry + 24);
+            if (codePoint < 0 || codePoint > Character.MAX_CODE_POINT || width <= 0 || height <= 0 || offset < 0
+                    || (long) offset + pixelSize(width, height) > data.limit()) {
+                return null;
+            }
+        }
+        return data;
+    }
+
+    static int getGlyphCount(ByteBuffer data) {
+        return data.getInt(12);
+    }
+
+    static int getCodePoint(ByteBuffer data, int glyph) {
+        return data.getInt(HEADER_SIZE + glyph * ENTRY_SIZE);
+    }
+
+    static int getWidth(ByteBuffer data, int glyph) {
+        return data.getInt(HEADER_SIZE + glyph * ENTRY_SIZE + 4);
+    }
+
+    static int getHeight(ByteBuffer data, int glyph) {
+        return data.getInt(HEADER_SIZE + glyph * ENTRY_SIZE + 8);
+    }
+
+    static float getAdvance(ByteBuffer data, int glyph) {
+        return data.getFloat(HEADER_SIZE + glyph * ENTRY_SIZE + 12);
+    }
+
+    static int getBearingX(ByteBuffer data, int glyph) {
+        return data.getInt(HEADER_SIZE + glyph * ENTRY_SIZE + 16);
+    }
+
+    static int getBearingY(ByteBuffer data, int glyph) {
+        return data.getInt(HEADER_SIZE + glyph * ENTRY_SIZE + 20);
+    }
+
+    /**
+     * Returns the padded pixels of a glyph as view of the mapping.
+     */
+    static ByteBuffer getPixels(ByteBuffer data, int glyph) {
+        int offset = data.getInt(HEADER_SIZE + glyph * ENTRY_SIZE + 24);
+        return data.slice(offset, pixelSize(getWidth(data, glyph), getHeight(data, glyph)));
+    }
+
+    /**
+     * Writes a cache file. It gets written next to the target first and then
+     * moved, so readers never see a partial file.
+     *
+     * @param file       The file
+     * @param fontHeight Height of the font
+     * @param glyphs     The glyphs, with the pixels of each
+     *
+     * @throws IOException If the file can't be written
+     */
+    static void write(Path file, int fontHeight, List<Entry> glyphs) throws IOException {
+        int size = HEADER_SIZE + glyphs.size() * ENTRY_SIZE;
+        for (Entry glyph : glyphs) {
+            size += glyph.pixels.remaining();
+        }
+        ByteBuffer data = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        data.putInt(MAGIC).putInt(VERSION).putInt(fontHeight).putInt(glyphs.size());
+        int offset = HEADER_SIZE + glyphs.size() * ENTRY_SIZE;
+        for (Entry glyph : glyphs) {
+            data.putInt(glyph.codePoint).putInt(glyph.width).putInt(glyph.height).putFloat(glyph.advance)
+                    .putInt(glyph.bearingX).putInt(glyph.bearingY).putInt(offset);
+            offset += glyph.pixels.remaining();
+        }
+        for (Entry glyph : glyphs) {
+            data.put(glyph.pixels.duplicate());
+        }
+        data.flip();
+
+        Files.createDirectories(file.getParent());
+        Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static int pixelSize(int width, int height) {
+        return (width + 2 * GlyphAtlas.PADDING) * (height + 2 * GlyphAtlas.PADDING) * 4;
+    }
+
+    /**
+     * A glyph to write, the pixels are padded like the atlas expects them.
+     */
+    static final class Entry {
+        private final int codePoint;
+        private final int width;
+        private final int height;
+        private final float advance;
+        private final int bearingX;
+        private final int bearingY;
+        private final ByteBuffer pixels;
+
+        Entry(int codePoint, int width, int height, float advance, int bearingX, int bearingY, ByteBuffer pixels) {
+            this.codePoint = codePoint;
+            this.width = width;
+            this.height = height;
+            this.advance = advance;
+            this.bearingX = bearingX;
+            this.bearingY = bearingY;
+            this.pixels = pixels;
+        }
+    }
+}
@@ -0,0 +1,358 @@
+package me.redstoner2019.font;
+
+import java.awt.FontFormatException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.system.Configuration;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.util.freetype.FT_Bitmap;
+import org.lwjgl.util.freetype.FT_Face;
+import org.lwjgl.util.freetype.FT_GlyphSlot;
+import org.lwjgl.util.freetype.FT_Size_Metrics;
+import org.lwjgl.util.freetype.FreeType;
+import org.lwjgl.util.harfbuzz.hb_glyph_info_t;
+import org.lwjgl.util.harfbuzz.hb_glyph_position_t;
+
+import static org.lwjgl.system.MemoryUtil.NULL;
+import static org.lwjgl.util.freetype.FreeType.FT_Done_Face;
+import static org.lwjgl.util.freetype.FreeType.FT_Done_FreeType;
+import static org.lwjgl.util.freetype.FreeType.FT_Err_Ok;
+import static org.lwjgl.util.freetype.FreeType.FT_Error_String;
+import static org.lwjgl.util.freetype.FreeType.FT_Get_Char_Index;
+import static org.lwjgl.util.freetype.FreeType.FT_Init_FreeType;
+import static org.lwjgl.util.freetype.FreeType.FT_LOAD_MONOCHROME;
+import static org.lwjgl.util.freetype.FreeType.FT_LOAD_RENDER;
+import static org.lwjgl.util.freetype.FreeType.FT_Load_Glyph;
+import static org.lwjgl.util.freetype.FreeType.FT_New_Memory_Face;
+import static org.lwjgl.util.freetype.FreeType.FT_PIXEL_MODE_MONO;
+import static org.lwjgl.util.freetype.FreeType.FT_Set_Pixel_Sizes;
+import static org.lwjgl.util.harfbuzz.HarfBuzz.hb_buffer_add_utf16;
+import static org.lwjgl.util.harfbuzz.HarfBuzz.hb_buffer_allocation_successful;
+import static org.lwjgl.util.harfbuzz.HarfBuzz.hb_buffer_clear_contents;
+import static org.lwjgl.util.harfbuzz.HarfBuzz.hb_buffer_create;
+import static org.lwjgl.util.harfbuzz.HarfBuzz.hb_buffer_destroy;
+import static org.lwjgl.util.harfbuzz.HarfBuzz.hb_buffer_get_glyph_infos;
+import static org.lwjgl.util.harfbuzz.HarfBuzz.hb_buffer_get_glyph_positions;
+import static org.lwjgl.util.harfbuzz.HarfBuzz.hb_buffer_get_length;
+import static org.lwjgl.util.harfbuzz.HarfBuzz.hb_buffer_guess_segment_properties;
+import static org.lwjgl.util.harfbuzz.HarfBuzz.hb_font_destroy;
+import static org.lwjgl.util.harfbuzz.HarfBuzz.hb_ft_font_create_referenced;
+import static org.lwjgl.util.harfbuzz.HarfBuzz.hb_shape;
+
+/**
+ * A font file loaded with FreeType. It renders glyphs straight into the
+ * padded RGBA layout of the {@link GlyphAtlas}, without the AWT toolkit.
+ * Text gets shaped by HarfBuzz, which applies the kerning and ligatures of
+ * the GPOS and GSUB tables and falls back to the legacy kern table.
+ * <p>
+ * A face is not thread safe, it is only used by the thread that draws.
+ */
+final class FreeTypeFace {
+
+    /** Number of shaped lines to keep. */
+    private static final int SHAPE_CACHE_SIZE = 256;
+
+    static {
+        /* The FreeType natives of LWJGL contain HarfBuzz with its FreeType integration */
+        if (Configuration.HARFBUZZ_LIBRARY_NAME.get() == null) {
+            Configuration.HARFBUZZ_LIBRARY_NAME.set(FreeType.getLibrary());
+        }
+    }
+
+    private final long library;
+    private final FT_Face face;
+    /** The font file, FreeType reads from it as long as the face lives. */
+    private final ByteBuffer data;
+
+    /** HarfBuzz font on top of the face and the buffer every line gets shaped in. */
+    private final long hbFont;
+    private final long hbBuffer;
+
+    /** Glyph indices of the Latin-1 characters, -1 if not looked up yet. */
+    private final int[] latinIndices = new int[256];
+    private final Map<Integer, Integer> glyphIndices = new HashMap<>();
+
+    /** Recently shaped lines, the least recently used gets dropped. */
+    private final Map<LineKey, ShapedLine> shapedLines = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<LineKey, ShapedLine> eldest) {
+            return size() > SHAPE_CACHE_SIZE;
+        }
+    };
+    /** Key the cache gets looked up with, so char sequences need no copy. */
+    private final LineKey lookup = new LineKey();
+
+    private final int ascent;
+    private final int height;
+
+    /* Metrics of the glyph rendered last */
+    private int renderedWidth;
+    private int renderedHeight;
+    private int renderedLeft;
+    private int renderedTop;
+    private float renderedAdvance;
+
+    /**
+     * Loads a font file.
+     *
+     * @param file The font file
+     * @param size Size in pixels
+     *
+     * @throws FontFormatException If FreeType can't read the file
+     */
+    FreeTypeFace(byte[] file, int size) throws FontFormatException {
+        data = MemoryUtil.memAlloc(file.length);
+        data.put(0, file);
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            PointerBuffer pointer = stack.mallocPointer(1);
+            int error = FT_Init_FreeType(pointer);
+            if (error != FT_Err_Ok) {
+                MemoryUtil.memFree(data);
+                throw new IllegalStateException("FreeType could not be initialized: " + FT_Error_String(error) + "!");
+            }
+            library = pointer.get(0);
+            error = FT_New_Memory_Face(library, data, 0, pointer);
+            if (error != FT_Err_Ok) {
+                FT_Done_FreeType(library);
+                MemoryUtil.memFree(data);
+                throw new FontFormatException("Font could not be loaded: " + FT_Error_String(error) + "!");
+            }
+            face = FT_Face.create(pointer.get(0));
+        }
+        int error = FT_Set_Pixel_Sizes(face, 0, size);
+        if (error != FT_Err_Ok) {
+            dispose();
+            throw new FontFormatException("Font has no size " + size + ": " + FT_Error_String(error) + "!");
+        }
+
+        /* The font takes the size of the face, its positions are in 26.6 fixed point too */
+        hbFont = hb_ft_font_create_referenced(face.address());
+        hbBuffer = hb_buffer_create();
+        if (!hb_buffer_allocation_successful(hbBuffer)) {
+            dispose();
+            throw new IllegalStateException("HarfBuzz buffer could not be allocated!");
+        }
+        Arrays.fill(latinIndices, -1);
+
+        /* The size metrics are in 26.6 fixed point */
+        FT_Size_Metrics metrics = face.size().metrics();
+        ascent = (int) ((metrics.ascender() + 63) >> 6);
+        height = (int) ((metrics.height() + 63) >> 6);
+    }
+
+    private static void check(int error, String message) {
+        if (error != FT_Err_Ok) {
+            throw new IllegalStateException(message + ": " + FT_Error_String(error) + "!");
+        }
+    }
+
+    int getAscent() {
+        return ascent;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the index of the glyph of a character in the font file, 0 if
+     * the font has none. The indices are cached.
+     */
+    int getGlyphIndex(int codePoint) {
+        if (codePoint < latinIndices.length) {
+            if (latinIndices[codePoint] < 0) {
+                latinIndices[codePoint] = FT_Get_Char_Index(face, codePoint);
+            }
+            return latinIndices[codePoint];
+        }
+        return glyphIndices.computeIfAbsent(codePoint, c -> FT_Get_Char_Index(face, c));
+    }
+
+    /**
+     * Shapes a line of text. The glyphs of recently shaped lines are cached,
+     * looking up a line allocates nothing.
+     *
+     * @param text  The text
+     * @param start Index of the first char of the line
+     * @param end   Index after the last char of the line, it must not
+     *              contain line breaks
+     *
+     * @return The glyphs of the line
+     */
+    ShapedLine shape(CharSequence text, int start, int end) {
+        if (start == end) {
+            return ShapedLine.EMPTY;
+        }
+        ShapedLine line = shapedLines.get(lookup.set(text, start, end));
+        if (line == null) {
+            String key = text.subSequence(start, end).toString();
+            line = shapeUncached(key);
+            shapedLines.put(new LineKey().set(key, 0, key.length()), line);
+        }
+        return line;
+    }
+
+    private ShapedLine shapeUncached(String text) {
+        hb_buffer_clear_contents(hbBuffer);
+        hb_buffer_add_utf16(hbBuffer, text, 0, text.length());
+        hb_buffer_guess_segment_properties(hbBuffer);
+        hb_shape(hbFont, hbBuffer, null);
+
+        int count = hb_buffer_get_length(hbBuffer);
+        hb_glyph_info_t.Buffer infos = hb_buffer_get_glyph_infos(hbBuffer);
+        hb_glyph_position_t.Buffer positions = hb_buffer_get_glyph_positions(hbBuffer);
+        int[] glyphs = new int[count];
+        float[] advances = new float[count];
+        float[] offsetsX = new float[count];
+        float[] offsetsY = new float[count];
+        for (int i = 0; i < count; i++) {
+            hb_glyph_position_t position = positions.get(i);
+            glyphs[i] = infos.get(i).codepoint();
+            advances[i] = position.x_advance() / 64f;
+            offsetsX[i] = position.x_offset() / 64f;
+            offsetsY[i] = position.y_offset() / 64f;
+        }
+        return new ShapedLine(glyphs, advances, offsetsX, offsetsY);
+    }
+
+    /**
+     * Renders a glyph. Its metrics can be read afterwards with the getters of
+     * the rendered glyph.
+     *
+     * @param glyphIndex Index of the glyph in the font file
+     * @param antiAlias  true for gray levels, false for a monochrome bitmap
+     *
+     * @return RGBA pixels with {@link GlyphAtlas#PADDING} on every side, the
+     *         rows start at the bottom, the caller frees them. Null if the
+     *         glyph has no pixels.
+     */
+    ByteBuffer render(int glyphIndex, boolean antiAlias) {
+        int flags = antiAlias ? FT_LOAD_RENDER : FT_LOAD_RENDER | FT_LOAD_MONOCHROME;
+        check(FT_Load_Glyph(face, glyphIndex, flags), "Glyph could not be rendered");
+        FT_GlyphSlot slot = face.glyph();
+        FT_Bitmap bitmap = slot.bitmap();
+        renderedWidth = bitmap.width();
+        renderedHeight = bitmap.rows();
+        renderedLeft = slot.bitmap_left();
+        renderedTop = slot.bitmap_top();
+        renderedAdvance = slot.advance().x() / 64f;
+        if (renderedWidth == 0 || renderedHeight == 0) {
+            return null;
+        }
+
+        int pitch = bitmap.pitch();
+        boolean mono = bitmap.pixel_mode() == FT_PIXEL_MODE_MONO;
+        ByteBuffer source = bitmap.buffer(Math.abs(pitch) * renderedHeight);
+        int padding = GlyphAtlas.PADDING;
+        int paddedWidth = renderedWidth + 2 * padding;
+        ByteBuffer buffer = MemoryUtil.memCalloc(paddedWidth * (renderedHeight + 2 * padding) * 4);
+        for (int y = 0; y < renderedHeight; y++) {
+            /* A positive pitch means the rows start at the top, texture rows start at the bottom */
+            int sourceRow = (pitch > 0 ? y : renderedHeight - 1 - y) * Math.abs(pitch);
+            int target = ((renderedHeight - 1 - y + padding) * paddedWidth + padding) * 4;
+            for (int x = 0; x < renderedWidth; x++) {
+                int coverage;
+                if (mono) {
+                    coverage = (source.get(sourceRow + (x >> 3)) & (0x80 >> (x & 7))) != 0 ? 0xFF : 0;
+                } else {
+                    coverage = source.get(sourceRow + x) & 0xFF;
+                }
+                int i = target + x * 4;
+                buffer.put(i, (byte) 0xFF);
+                buffer.put(i + 1, (byte) 0xFF);
+                buffer.put(i + 2, (byte) 0xFF);
+                buffer.put(i + 3, (byte) coverage);
+            }
+        }
+        return buffer;
+    }
+
+    int getRenderedWidth() {
+        return renderedWidth;
+    }
+
+    int getRenderedHeight() {
+        return renderedHeight;
+    }
+
+    /**
+     * Returns the offset of the rendered bitmap from the pen position in x.
+     */
+    int getRenderedLeft() {
+        return renderedLeft;
+    }
+
+    /**
+     * Returns how far the rendered bitmap reaches above the baseline.
+     */
+    int getRenderedTop() {
+        return renderedTop;
+    }
+
+    float getRenderedAdvance() {
+        return renderedAdvance;
+    }
+
+    void dispose() {
+        if (hbBuffer != NULL) {
+            hb_buffer_destroy(hbBuffer);
+        }
+        if (hbFont != NULL) {
+            hb_font_destroy(hbFont);
+        }
+        FT_Done_Face(face);
+        FT_Done_FreeType(library);
+        MemoryUtil.memFree(data);
+    }
+
+    /**
+     * A range of chars as cache key. Stored keys hold a string of their own,
+     * the lookup key points into the text that is drawn.
+     */
+    private static final class LineKey {
+        private CharSequence text;
+        private int start;
+        private int length;
+        private int hash;
+
+        private LineKey set(CharSequence text, int start, int end) {
+            this.text = text;
+            this.start = start;
+            length = end - start;
+            int h = 0;
+            for (int i = start; i < end; i++) {
+                h = 31 * h + text.charAt(i);
+            }
+            hash = h;
+            return this;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof LineKey)) {
+                return false;
+            }
+            LineKey other = (LineKey) obj;
+            if (other.length != length || other.hash != hash) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (text.charAt(start + i) != other.text.charAt(other.start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
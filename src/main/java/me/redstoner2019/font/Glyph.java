@@ -1,5 +1,7 @@
 package me.redstoner2019.font;
 
+import me.redstoner2019.graphic.Texture;
+
 public class Glyph {
 
     public final int width;
@@ -7,13 +9,29 @@ public class Glyph {
     public final int x;
     public final int y;
     public final float advance;
+    /** Offset of the quad from the pen position, for glyphs with a margin. */
+    public final int bearingX;
+    public final int bearingY;
+
+    /** Atlas page that holds the glyph, or null for glyphs without pixels. */
+    public final Texture texture;
+    /** Index of the atlas page, or -1. */
+    final int page;
 
     public Glyph(int width, int height, int x, int y, float advance) {
+        this(width, height, x, y, advance, 0, 0, null, -1);
+    }
+
+    Glyph(int width, int height, int x, int y, float advance, int bearingX, int bearingY, Texture texture, int page) {
         this.width = width;
         this.height = height;
         this.x = x;
         this.y = y;
         this.advance = advance;
+        this.bearingX = bearingX;
+        this.bearingY = bearingY;
+        this.texture = texture;
+        this.page = page;
     }
 
 }
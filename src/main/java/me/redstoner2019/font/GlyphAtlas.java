@@ -0,0 +1,285 @@
+package me.redstoner2019.font;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+import me.redstoner2019.graphic.RenderBackend;
+import me.redstoner2019.graphic.Texture;
+import org.lwjgl.system.MemoryUtil;
+
+import static org.lwjgl.opengl.GL11.GL_LINEAR;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_MAG_FILTER;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_MIN_FILTER;
+
+/**
+ * Texture pages the glyphs of a font get packed into when they are first
+ * used. A single glyph only uploads its own rect, a batch of glyphs gets
+ * assembled into new pages that are uploaded at once.
+ * <p>
+ * With a page limit the least recently used page gets cleared when a glyph
+ * fits nowhere, its glyphs have to be rasterized again when they are used
+ * the next time.
+ */
+final class GlyphAtlas {
+
+    /** Width and height of a page, GL 3.3 guarantees textures of this size. */
+    static final int PAGE_SIZE = 1024;
+    /** Transparent border around every glyph, so neighbours never bleed in. */
+    static final int PADDING = 1;
+
+    private final RenderBackend backend;
+    /** true to sample the pages with linear filtering, for distance fields. */
+    private final boolean linear;
+    private final List<Page> pages = new ArrayList<>();
+    private int maxPages;
+
+    /** Gets the index of a cleared page. */
+    private final IntConsumer evictionListener;
+
+    private long clock;
+    private long evictions;
+
+    /**
+     * Creates an empty atlas.
+     *
+     * @param backend          Renderer that creates the pages, or null for
+     *                         GL textures
+     * @param linear           true for linear filtering of GL pages
+     * @param evictionListener Gets the index of every cleared page
+     */
+    GlyphAtlas(RenderBackend backend, boolean linear, IntConsumer evictionListener) {
+        this.backend = backend;
+        this.linear = linear;
+        this.evictionListener = evictionListener;
+    }
+
+    /**
+     * Packs a glyph into a page and uploads its pixels.
+     *
+     * @param width    Width of the glyph
+     * @param height   Height of the glyph
+     * @param advance  Advance of the glyph
+     * @param bearingX Offset of the glyph from the pen position in x
+     * @param bearingY Offset of the glyph from the pen position in y
+     * @param pixels   RGBA pixels of the glyph with {@link #PADDING} on
+     *                 every side, the rows start at the bottom
+     * @param renderer Renderer that is drawing, it gets flushed before a page
+     *                 is cleared, or null
+     *
+     * @return The glyph
+     */
+    Glyph add(int width, int height, float advance, int bearingX, int bearingY, ByteBuffer pixels, RenderBackend renderer) {
+        int paddedWidth = width + 2 * PADDING;
+        int paddedHeight = height + 2 * PADDING;
+        if (paddedWidth > PAGE_SIZE || paddedHeight > PAGE_SIZE) {
+            throw new IllegalArgumentException("Glyph does not fit into an atlas page!");
+        }
+
+        int index = -1;
+        for (int i = 0; i < pages.size(); i++) {
+            if (pages.get(i).packer.pack(paddedWidth, paddedHeight)) {
+                index = i;
+                break;
+            }
+        }
+        if (index < 0) {
+            if (maxPages == 0 || pages.size() < maxPages) {
+                index = pages.size();
+                pages.add(createPage());
+            } else {
+                index = evict(renderer);
+            }
+            pages.get(index).packer.pack(paddedWidth, paddedHeight);
+        }
+
+        Page page = pages.get(index);
+        page.lastUse = ++clock;
+        int x = page.packer.getPackedX();
+        int y = page.packer.getPackedY();
+        page.texture.uploadSubData(x, y, paddedWidth, paddedHeight, pixels);
+        return new Glyph(width, height, x + PADDING, y + PADDING, advance, bearingX, bearingY, page.texture, index);
+    }
+
+    /**
+     * Packs glyphs into new pages. Every page is assembled in memory and
+     * created with a single upload, so this is meant for many glyphs at
+     * once, for example when a font is created.
+     *
+     * @param count     Number of glyphs
+     * @param widths    Widths of the glyphs
+     * @param heights   Heights of the glyphs
+     * @param advances  Advances of the glyphs
+     * @param bearingsX Offsets of the glyphs from the pen position in x
+     * @param bearingsY Offsets of the glyphs from the pen position in y
+     * @param pixels    Pixels of the glyphs, like for
+     *                  {@link #add(int, int, float, int, int, ByteBuffer, RenderBackend)}
+     *
+     * @return The glyphs, null for glyphs that didn't fit under the page
+     *         limit
+     */
+    Glyph[] addAll(int count, int[] widths, int[] heights, float[] advances, int[] bearingsX, int[] bearingsY,
+                   ByteBuffer[] pixels) {
+        Glyph[] added = new Glyph[count];
+        int[] positions = new int[count * 2];
+        ByteBuffer staging = null;
+        SkylinePacker packer = null;
+        int first = 0;
+        try {
+            for (int i = 0; i <= count; i++) {
+                int paddedWidth = i < count ? widths[i] + 2 * PADDING : 0;
+                int paddedHeight = i < count ? heights[i] + 2 * PADDING : 0;
+                if (paddedWidth > PAGE_SIZE || paddedHeight > PAGE_SIZE) {
+                    throw new IllegalArgumentException("Glyph does not fit into an atlas page!");
+                }
+                if (i < count && packer != null && packer.pack(paddedWidth, paddedHeight)) {
+                    place(i, packer, staging, positions, paddedWidth, paddedHeight, pixels[i]);
+                    continue;
+                }
+
+                /* The page is full or all glyphs are placed */
+                if (packer != null) {
+                    int index = pages.size();
+                    Page page = createPage(staging, packer);
+                    pages.add(page);
+                    for (int j = first; j < i; j++) {
+                        added[j] = new Glyph(widths[j], heights[j], positions[j * 2] + PADDING,
+                                positions[j * 2 + 1] + PADDING, advances[j], bearingsX[j], bearingsY[j], page.texture, index);
+                    }
+                    packer = null;
+                }
+                if (i == count || maxPages != 0 && pages.size() >= maxPages) {
+                    break;
+                }
+
+                if (staging == null) {
+                    staging = MemoryUtil.memAlloc(PAGE_SIZE * PAGE_SIZE * 4);
+                }
+                MemoryUtil.memSet(staging, 0);
+                packer = new SkylinePacker(PAGE_SIZE);
+                packer.pack(paddedWidth, paddedHeight);
+                place(i, packer, staging, positions, paddedWidth, paddedHeight, pixels[i]);
+                first = i;
+            }
+        } finally {
+            if (staging != null) {
+                MemoryUtil.memFree(staging);
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Copies the pixels of a packed glyph into the staging page.
+     */
+    private static void place(int glyph, SkylinePacker packer, ByteBuffer staging, int[] positions,
+                              int paddedWidth, int paddedHeight, ByteBuffer pixels) {
+        int x = packer.getPackedX();
+        int y = packer.getPackedY();
+        positions[glyph * 2] = x;
+        positions[glyph * 2 + 1] = y;
+        int rowBytes = paddedWidth * 4;
+        for (int row = 0; row < paddedHeight; row++) {
+            staging.put(((y + row) * PAGE_SIZE + x) * 4, pixels, pixels.position() + row * rowBytes, rowBytes);
+        }
+    }
+
+    /**
+     * Marks the page of a glyph as used.
+     */
+    void touch(Glyph glyph) {
+        if (glyph.page >= 0) {
+            pages.get(glyph.page).lastUse = ++clock;
+        }
+    }
+
+    /**
+     * Clears the least recently used page.
+     *
+     * @return Index of the page
+     */
+    private int evict(RenderBackend renderer) {
+        int oldest = 0;
+        for (int i = 1; i < pages.size(); i++) {
+            if (pages.get(i).lastUse < pages.get(oldest).lastUse) {
+                oldest = i;
+            }
+        }
+        /* Pending quads may still show glyphs of the page */
+        if (renderer != null && renderer.isDrawing()) {
+            renderer.flushAll();
+        }
+        Page page = pages.get(oldest);
+        page.packer.reset();
+        page.texture.markReplaced();
+        evictions++;
+        evictionListener.accept(oldest);
+        return oldest;
+    }
+
+    private Page createPage() {
+        ByteBuffer empty = MemoryUtil.memCalloc(PAGE_SIZE * PAGE_SIZE * 4);
+        try {
+            return createPage(empty, new SkylinePacker(PAGE_SIZE));
+        } finally {
+            MemoryUtil.memFree(empty);
+        }
+    }
+
+    private Page createPage(ByteBuffer pixels, SkylinePacker packer) {
+        Texture texture = backend != null ? backend.createTexture(PAGE_SIZE, PAGE_SIZE, pixels)
+                : Texture.createTexture(PAGE_SIZE, PAGE_SIZE, pixels);
+        if (linear && texture.getPixels() == null) {
+            texture.bind();
+            texture.setParameter(GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+            texture.setParameter(GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        }
+        Page page = new Page(texture, packer);
+        page.lastUse = ++clock;
+        return page;
+    }
+
+    /**
+     * Sets the most pages the atlas may create, 0 for no limit. A limit
+     * below the current number of pages applies once they are full.
+     *
+     * @param maxPages Page limit
+     */
+    void setMaxPages(int maxPages) {
+        if (maxPages < 0) {
+            throw new IllegalArgumentException("Page limit must not be negative!");
+        }
+        this.maxPages = maxPages;
+    }
+
+    int getMaxPages() {
+        return maxPages;
+    }
+
+    int getPageCount() {
+        return pages.size();
+    }
+
+    long getEvictions() {
+        return evictions;
+    }
+
+    void delete() {
+        for (Page page : pages) {
+            page.texture.delete();
+        }
+        pages.clear();
+    }
+
+    private static final class Page {
+        private final Texture texture;
+        private final SkylinePacker packer;
+        private long lastUse;
+
+        private Page(Texture texture, SkylinePacker packer) {
+            this.texture = texture;
+            this.packer = packer;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package me.redstoner2019.font;
+
+/**
+ * A line of text shaped by HarfBuzz into glyphs of the font file. A glyph
+ * can stand for several characters, like a ligature, and the kerning of
+ * the font is in its advance and offset.
+ */
+final class ShapedLine {
+
+    static final ShapedLine EMPTY = new ShapedLine(new int[0], new float[0], new float[0], new float[0]);
+
+    /** Glyph indices in the font file. */
+    final int[] glyphs;
+    /** How far the pen moves after every glyph. */
+    final float[] advances;
+    /** Offset of every glyph from the pen position. */
+    final float[] offsetsX;
+    final float[] offsetsY;
+    /** Sum of the advances. */
+    final float width;
+
+    ShapedLine(int[] glyphs, float[] advances, float[] offsetsX, float[] offsetsY) {
+        this.glyphs = glyphs;
+        this.advances = advances;
+        this.offsetsX = offsetsX;
+        this.offsetsY = offsetsY;
+        float sum = 0f;
+        for (float advance : advances) {
+            sum += advance;
+        }
+        width = sum;
+    }
+
+    int getGlyphCount() {
+        return glyphs.length;
+    }
+}
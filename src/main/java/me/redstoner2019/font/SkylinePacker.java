@@ -0,0 +1,156 @@
+package me.redstoner2019.font;
+
+import java.util.Arrays;
+
+/**
+ * Packs rects into a square page with the skyline bottom-left heuristic.
+ * The skyline is the top edge of everything packed so far, a new rect goes
+ * where it ends up lowest, on ties where it wastes the least width.
+ */
+final class SkylinePacker {
+
+    private final int size;
+
+    /** Segments of the skyline from left to right. */
+    private int[] segmentX = new int[16];
+    private int[] segmentY = new int[16];
+    private int[] segmentWidth = new int[16];
+    private int segments;
+
+    private int packedX;
+    private int packedY;
+
+    /**
+     * Creates a packer.
+     *
+     * @param size Width and height of the page
+     */
+    SkylinePacker(int size) {
+        this.size = size;
+        reset();
+    }
+
+    /**
+     * Removes all rects.
+     */
+    void reset() {
+        segments = 1;
+        segmentX[0] = 0;
+        segmentY[0] = 0;
+        segmentWidth[0] = size;
+    }
+
+    /**
+     * Finds a place for a rect. On success the position can be read with
+     * {@link #getPackedX()} and {@link #getPackedY()}.
+     *
+     * @param width  Width of the rect
+     * @param height Height of the rect
+     *
+     * @return true, if the rect fit, else false
+     */
+    boolean pack(int width, int height) {
+        int bestIndex = -1;
+        int bestY = Integer.MAX_VALUE;
+        int bestWidth = Integer.MAX_VALUE;
+        for (int i = 0; i < segments; i++) {
+            int y = fit(i, width, height);
+            if (y < 0) {
+                continue;
+            }
+            if (y < bestY || y == bestY && segmentWidth[i] < bestWidth) {
+                bestIndex = i;
+                bestY = y;
+                bestWidth = segmentWidth[i];
+            }
+        }
+        if (bestIndex < 0) {
+            return false;
+        }
+
+        packedX = segmentX[bestIndex];
+        packedY = bestY;
+        insert(bestIndex, packedX, bestY + height, width);
+        return true;
+    }
+
+    int getPackedX() {
+        return packedX;
+    }
+
+    int getPackedY() {
+        return packedY;
+    }
+
+    /**
+     * Returns the lowest y a rect starting at a segment can be placed at, or
+     * -1 if it does not fit.
+     */
+    private int fit(int index, int width, int height) {
+        int x = segmentX[index];
+        if (x + width > size) {
+            return -1;
+        }
+        int y = 0;
+        int remaining = width;
+        for (int i = index; remaining > 0; i++) {
+            y = Math.max(y, segmentY[i]);
+            if (y + height > size) {
+                return -1;
+            }
+            remaining -= segmentWidth[i];
+        }
+        return y;
+    }
+
+    /**
+     * Adds the top edge of a packed rect to the skyline, the segments below
+     * it get cut or removed.
+     */
+    private void insert(int index, int x, int y, int width) {
+        if (segments == segmentX.length) {
+            segmentX = Arrays.copyOf(segmentX, segments * 2);
+            segmentY = Arrays.copyOf(segmentY, segments * 2);
+            segmentWidth = Arrays.copyOf(segmentWidth, segments * 2);
+        }
+        System.arraycopy(segmentX, index, segmentX, index + 1, segments - index);
+        System.arraycopy(segmentY, index, segmentY, index + 1, segments - index);
+        System.arraycopy(segmentWidth, index, segmentWidth, index + 1, segments - index);
+        segmentX[index] = x;
+        segmentY[index] = y;
+        segmentWidth[index] = width;
+        segments++;
+
+        /* Cut the segments covered by the new one */
+        int right = x + width;
+        int i = index + 1;
+        while (i < segments && segmentX[i] < right) {
+            int end = segmentX[i] + segmentWidth[i];
+            if (end <= right) {
+                remove(i);
+                continue;
+            }
+            segmentWidth[i] = end - right;
+            segmentX[i] = right;
+            break;
+        }
+
+        /* Merge neighbours of the same height */
+        for (i = 0; i < segments - 1; ) {
+            if (segmentY[i] == segmentY[i + 1]) {
+                segmentWidth[i] += segmentWidth[i + 1];
+                remove(i + 1);
+            } else {
+                i++;
+            }
+        }
+    }
+
+    private void remove(int index) {
+        int moved = segments - index - 1;
+        System.arraycopy(segmentX, index + 1, segmentX, index, moved);
+        System.arraycopy(segmentY, index + 1, segmentY, index, moved);
+        System.arraycopy(segmentWidth, index + 1, segmentWidth, index, moved);
+        segments--;
+    }
+}
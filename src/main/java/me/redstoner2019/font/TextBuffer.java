@@ -0,0 +1,171 @@
+package me.redstoner2019.font;
+
+import java.util.Arrays;
+
+/**
+ * A reusable text for labels that change every frame. Unlike
+ * <code>String.format</code> or string concatenation the appenders write
+ * straight into a char array, so once the buffer is big enough building a
+ * text allocates nothing. {@link Font#drawText} reads it as a
+ * {@link CharSequence}.
+ */
+public final class TextBuffer implements CharSequence {
+
+    /** Most decimals the number appenders support. */
+    public static final int MAX_DECIMALS = 9;
+
+    private static final long[] POWERS_OF_TEN = {
+            1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L, 100_000_000L, 1_000_000_000L
+    };
+
+    private char[] chars;
+    private int length;
+
+    public TextBuffer() {
+        this(64);
+    }
+
+    /**
+     * Creates a text buffer.
+     *
+     * @param capacity Initial capacity in chars
+     */
+    public TextBuffer(int capacity) {
+        chars = new char[Math.max(capacity, 1)];
+    }
+
+    /**
+     * Removes all chars, the capacity stays.
+     *
+     * @return This buffer
+     */
+    public TextBuffer clear() {
+        length = 0;
+        return this;
+    }
+
+    public TextBuffer append(char c) {
+        ensureCapacity(length + 1);
+        chars[length++] = c;
+        return this;
+    }
+
+    public TextBuffer append(CharSequence text) {
+        int count = text.length();
+        ensureCapacity(length + count);
+        if (text instanceof String) {
+            ((String) text).getChars(0, count, chars, length);
+        } else {
+            for (int i = 0; i < count; i++) {
+                chars[length + i] = text.charAt(i);
+            }
+        }
+        length += count;
+        return this;
+    }
+
+    public TextBuffer append(int value) {
+        return append((long) value);
+    }
+
+    public TextBuffer append(long value) {
+        if (value < 0) {
+            append('-');
+        } else {
+            /* Negative values hold Long.MIN_VALUE */
+            value = -value;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+        ensureCapacity(length + digits);
+        for (int i = length + digits - 1; i >= length; i--) {
+            chars[i] = (char) ('0' - value % 10);
+            value /= 10;
+        }
+        length += digits;
+        return this;
+    }
+
+    /**
+     * Appends a number with a fixed number of decimals, rounded half up like
+     * <code>String.format("%.2f", value)</code>. Values too large for the
+     * decimals fall back to {@link Double#toString}, which allocates.
+     *
+     * @param value    The number
+     * @param decimals Decimals, from 0 to {@link #MAX_DECIMALS}
+     *
+     * @return This buffer
+     */
+    public TextBuffer append(double value, int decimals) {
+        if (decimals < 0 || decimals > MAX_DECIMALS) {
+            throw new IllegalArgumentException("Decimals must be between 0 and " + MAX_DECIMALS + "!");
+        }
+        if (Double.isNaN(value)) {
+            return append("NaN");
+        }
+        long scale = POWERS_OF_TEN[decimals];
+        double scaled = Math.abs(value) * scale;
+        if (scaled >= Long.MAX_VALUE) {
+            return append(Double.toString(value));
+        }
+        long rounded = Math.round(scaled);
+        if (value < 0 && rounded != 0) {
+            append('-');
+        }
+        append(rounded / scale);
+        if (decimals > 0) {
+            append('.');
+            long fraction = rounded % scale;
+            ensureCapacity(length + decimals);
+            for (int i = length + decimals - 1; i >= length; i--) {
+                chars[i] = (char) ('0' + fraction % 10);
+                fraction /= 10;
+            }
+            length += decimals;
+        }
+        return this;
+    }
+
+    /**
+     * Appends a duration in milliseconds, for example "1.25 ms".
+     *
+     * @param seconds  Duration in seconds
+     * @param decimals Decimals of the milliseconds
+     *
+     * @return This buffer
+     */
+    public TextBuffer appendMillis(double seconds, int decimals) {
+        return append(seconds * 1000.0, decimals).append(" ms");
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(capacity, chars.length * 2));
+        }
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return chars[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return new String(chars, 0, length);
+    }
+}
@@ -0,0 +1,105 @@
+package me.redstoner2019.font;
+
+import me.redstoner2019.graphic.Color;
+import me.redstoner2019.graphic.RenderBackend;
+import me.redstoner2019.graphic.Texture;
+
+/**
+ * A text laid out once into positioned glyph quads. Drawing a run only adds
+ * the origin to the quads, the glyph lookups and line breaks are already
+ * done. The color is applied when the run gets drawn, so one run serves
+ * every color.
+ */
+public final class TextRun {
+
+    /** Number of floats per quad, two positions and two texture coordinates. */
+    private static final int COORDS = 8;
+
+    private final Font font;
+    private final String text;
+    /** Glyph generation of the font the run was laid out in. */
+    private final int generation;
+    /** Atlas page of every quad. */
+    private final Texture[] textures;
+
+    /** Quads relative to the origin as x1, y1, x2, y2, s1, t1, s2, t2. */
+    private final float[] quads;
+    private final int quadCount;
+
+    /** Bounds of all quads relative to the origin. */
+    private final float minX;
+    private final float minY;
+    private final float maxX;
+    private final float maxY;
+
+    TextRun(Font font, String text, int generation, Texture[] textures, float[] quads, int quadCount) {
+        this.font = font;
+        this.text = text;
+        this.generation = generation;
+        this.textures = textures;
+        this.quads = quads;
+        this.quadCount = quadCount;
+
+        float minX = 0f, minY = 0f, maxX = 0f, maxY = 0f;
+        for (int i = 0; i < quadCount * COORDS; i += COORDS) {
+            if (i == 0) {
+                minX = quads[0];
+                minY = quads[1];
+                maxX = quads[2];
+                maxY = quads[3];
+            }
+            minX = Math.min(minX, quads[i]);
+            minY = Math.min(minY, quads[i + 1]);
+            maxX = Math.max(maxX, quads[i + 2]);
+            maxY = Math.max(maxY, quads[i + 3]);
+        }
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+    }
+
+    /**
+     * Draws the run. Runs outside of the clip rect are skipped as a whole.
+     *
+     * @param renderer The renderer, it has to be drawing
+     * @param x        X position of the origin
+     * @param y        Y position of the origin
+     * @param scale    Factor the quads are scaled by around the origin
+     * @param c        The color to use
+     */
+    void draw(RenderBackend renderer, float x, float y, float scale, Color c) {
+        if (quadCount == 0 || renderer.isOutsideClip(x + minX * scale, y + minY * scale, x + maxX * scale, y + maxY * scale)) {
+            return;
+        }
+        for (int quad = 0, i = 0; quad < quadCount; quad++, i += COORDS) {
+            font.drawGlyph(renderer, textures[quad], x + quads[i] * scale, y + quads[i + 1] * scale,
+                    x + quads[i + 2] * scale, y + quads[i + 3] * scale,
+                    quads[i + 4], quads[i + 5], quads[i + 6], quads[i + 7], c);
+        }
+    }
+
+    public Font getFont() {
+        return font;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    int getGeneration() {
+        return generation;
+    }
+
+    public int getQuadCount() {
+        return quadCount;
+    }
+
+    public float getWidth() {
+        return maxX - minX;
+    }
+
+    public float getHeight() {
+        return maxY - minY;
+    }
+}
@@ -0,0 +1,119 @@
+package me.redstoner2019.font;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import me.redstoner2019.graphic.RenderBackend;
+
+/**
+ * Keeps the runs of recently drawn strings of a font. When the cache is
+ * full the least recently drawn run gets dropped.
+ */
+public class TextRunCache {
+
+    private final Map<String, TextRun> runs = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, TextRun> eldest) {
+            if (size() > capacity) {
+                evictions++;
+                return true;
+            }
+            return false;
+        }
+    };
+
+    private int capacity;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Creates a run cache.
+     *
+     * @param capacity Number of runs to keep
+     */
+    public TextRunCache(int capacity) {
+        this.capacity = checkCapacity(capacity);
+    }
+
+    /**
+     * Returns the run of a string, laying it out if it is not cached.
+     *
+     * @param font     The font the cache belongs to
+     * @param text     The text
+     * @param renderer Renderer that is drawing
+     *
+     * @return The run
+     */
+    TextRun get(Font font, String text, RenderBackend renderer) {
+        TextRun run = runs.get(text);
+        if (run != null && run.getGeneration() == font.getGeneration()) {
+            hits++;
+            return run;
+        }
+        /* Runs with evicted glyphs get laid out again */
+        misses++;
+        run = font.layout(text, renderer);
+        if (capacity > 0) {
+            runs.put(text, run);
+        }
+        return run;
+    }
+
+    /**
+     * Sets the number of runs to keep, 0 disables the cache.
+     *
+     * @param capacity Number of runs
+     */
+    public void setCapacity(int capacity) {
+        this.capacity = checkCapacity(capacity);
+        while (runs.size() > capacity) {
+            runs.remove(runs.keySet().iterator().next());
+            evictions++;
+        }
+    }
+
+    private static int checkCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Capacity must not be negative!");
+        }
+        return capacity;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int size() {
+        return runs.size();
+    }
+
+    /**
+     * Returns the number of strings that were found in the cache.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of strings that had to be laid out.
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of runs that were dropped to make room.
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Drops all runs, for example after the glyphs of the font changed.
+     */
+    public void clear() {
+        runs.clear();
+    }
+}
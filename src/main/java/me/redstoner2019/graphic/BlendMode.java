@@ -0,0 +1,37 @@
+package me.redstoner2019.graphic;
+
+import static org.lwjgl.opengl.GL11.GL_ONE;
+import static org.lwjgl.opengl.GL11.GL_ONE_MINUS_SRC_ALPHA;
+import static org.lwjgl.opengl.GL11.GL_SRC_ALPHA;
+
+/**
+ * Blend functions supported by the {@link Renderer}.
+ * <p>
+ * The alpha channel is always blended like premultiplied alpha, so drawing
+ * into a transparent texture leaves premultiplied colors with the right
+ * coverage. Such textures have to be drawn with {@link #PREMULTIPLIED}.
+ */
+public enum BlendMode {
+
+    /** Regular alpha blending. */
+    ALPHA(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA),
+    /** Adds the source color weighted by its alpha. */
+    ADDITIVE(GL_SRC_ALPHA, GL_ONE),
+    /** Alpha blending for colors that are already multiplied with alpha. */
+    PREMULTIPLIED(GL_ONE, GL_ONE_MINUS_SRC_ALPHA);
+
+    private final int sourceFactor;
+    private final int destinationFactor;
+
+    BlendMode(int sourceFactor, int destinationFactor) {
+        this.sourceFactor = sourceFactor;
+        this.destinationFactor = destinationFactor;
+    }
+
+    /**
+     * Sets the blend function of this mode.
+     */
+    public void apply() {
+        GLState.current().blendFuncSeparate(sourceFactor, destinationFactor, GL_ONE, GL_ONE_MINUS_SRC_ALPHA);
+    }
+}
@@ -0,0 +1,206 @@
+package me.redstoner2019.graphic;
+
+import java.util.Arrays;
+
+/**
+ * A stack of clip rects in pixels. Every pushed rect is intersected with
+ * the current one, the bottom of the stack is the viewport.
+ * <p>
+ * Quads are tested against the current rect before they get written, so
+ * quads outside of it cost nothing after the test. The quads are in the
+ * coordinates before the view, so the rect gets mapped back through the
+ * view for the test.
+ */
+final class ClipStack {
+
+    /** The quad is completely inside the clip rect. */
+    static final int INSIDE = 0;
+    /** The quad is completely outside the clip rect. */
+    static final int OUTSIDE = 1;
+    /** The quad crossed the edge and was cut to the clip rect. */
+    static final int TRIMMED = 2;
+
+    /** Rects as x1, y1, x2, y2, the current one is at the top. */
+    private int[] rects = new int[4 * 8];
+    private int depth;
+
+    /* The view maps quad coordinates to pixels by scale and offset */
+    private float scaleX = 1f;
+    private float scaleY = 1f;
+    private float offsetX;
+    private float offsetY;
+    /** false if the view can't be inverted as scale and offset, then nothing gets culled. */
+    private boolean culling = true;
+
+    /** Current rect in quad coordinates as x1, y1, x2, y2. */
+    private final float[] viewRect = new float[4];
+
+    /**
+     * Clears the stack and sets the viewport.
+     *
+     * @param x      Left edge of the viewport
+     * @param y      Bottom edge of the viewport
+     * @param width  Width of the viewport
+     * @param height Height of the viewport
+     */
+    void reset(int x, int y, int width, int height) {
+        depth = 0;
+        rects[0] = x;
+        rects[1] = y;
+        rects[2] = x + width;
+        rects[3] = y + height;
+    }
+
+    void push(int x, int y, int width, int height) {
+        if (width < 0 || height < 0) {
+            throw new IllegalArgumentException("Clip size must not be negative!");
+        }
+        if (4 * (depth + 2) > rects.length) {
+            rects = Arrays.copyOf(rects, rects.length * 2);
+        }
+        int top = 4 * depth;
+        int x1 = Math.max(x, rects[top]);
+        int y1 = Math.max(y, rects[top + 1]);
+        int x2 = Math.max(x1, Math.min(x + width, rects[top + 2]));
+        int y2 = Math.max(y1, Math.min(y + height, rects[top + 3]));
+
+        depth++;
+        rects[top + 4] = x1;
+        rects[top + 5] = y1;
+        rects[top + 6] = x2;
+        rects[top + 7] = y2;
+    }
+
+    void pop() {
+        if (depth == 0) {
+            throw new IllegalStateException("No clip rect to pop!");
+        }
+        depth--;
+    }
+
+    /**
+     * Sets the view the quads go through, as scale and offset per axis.
+     *
+     * @param scaleX  Scale of x, must not be 0
+     * @param scaleY  Scale of y, must not be 0
+     * @param offsetX Offset of x in pixels
+     * @param offsetY Offset of y in pixels
+     */
+    void setView(float scaleX, float scaleY, float offsetX, float offsetY) {
+        this.scaleX = scaleX;
+        this.scaleY = scaleY;
+        this.offsetX = offsetX;
+        this.offsetY = offsetY;
+        culling = true;
+    }
+
+    /**
+     * Stops culling, for views with rotation or perspective. The scissor
+     * test still clips.
+     */
+    void disableCulling() {
+        culling = false;
+    }
+
+    /**
+     * Maps the current rect back through the view.
+     */
+    private float[] getViewRect() {
+        int top = 4 * depth;
+        float x1 = (rects[top] - offsetX) / scaleX;
+        float x2 = (rects[top + 2] - offsetX) / scaleX;
+        float y1 = (rects[top + 1] - offsetY) / scaleY;
+        float y2 = (rects[top + 3] - offsetY) / scaleY;
+        viewRect[0] = Math.min(x1, x2);
+        viewRect[1] = Math.min(y1, y2);
+        viewRect[2] = Math.max(x1, x2);
+        viewRect[3] = Math.max(y1, y2);
+        return viewRect;
+    }
+
+    /**
+     * Returns the number of pushed rects.
+     */
+    int getDepth() {
+        return depth;
+    }
+
+    int getX() {
+        return rects[4 * depth];
+    }
+
+    int getY() {
+        return rects[4 * depth + 1];
+    }
+
+    int getWidth() {
+        return rects[4 * depth + 2] - rects[4 * depth];
+    }
+
+    int getHeight() {
+        return rects[4 * depth + 3] - rects[4 * depth + 1];
+    }
+
+    /**
+     * Tests a quad against the current rect and optionally cuts it. The
+     * texture coordinates of a cut quad are interpolated, so the visible
+     * part looks the same.
+     *
+     * @param quad x1, y1, x2, y2, s1, t1, s2, t2 of the quad, the
+     *             corners may be swapped to mirror it
+     * @param trim true to cut quads that cross the edge, false to leave
+     *             them for the scissor test
+     *
+     * @return {@link #INSIDE}, {@link #OUTSIDE} or {@link #TRIMMED}
+     */
+    int clip(float[] quad, boolean trim) {
+        if (!culling) {
+            return INSIDE;
+        }
+        float[] rect = getViewRect();
+        float clipX1 = rect[0];
+        float clipY1 = rect[1];
+        float clipX2 = rect[2];
+        float clipY2 = rect[3];
+
+        float x1 = quad[0], y1 = quad[1], x2 = quad[2], y2 = quad[3];
+        float minX = Math.min(x1, x2), maxX = Math.max(x1, x2);
+        float minY = Math.min(y1, y2), maxY = Math.max(y1, y2);
+        if (maxX <= clipX1 || minX >= clipX2 || maxY <= clipY1 || minY >= clipY2 || minX == maxX || minY == maxY) {
+            return OUTSIDE;
+        }
+        if (minX >= clipX1 && maxX <= clipX2 && minY >= clipY1 && maxY <= clipY2) {
+            return INSIDE;
+        }
+        if (!trim) {
+            return INSIDE;
+        }
+
+        /* Texture coordinates are linear in the position */
+        float ds = (quad[6] - quad[4]) / (x2 - x1);
+        float dt = (quad[7] - quad[5]) / (y2 - y1);
+        float s1 = quad[4], t1 = quad[5];
+        for (int i = 0; i < 4; i += 2) {
+            float x = Math.max(clipX1, Math.min(clipX2, quad[i]));
+            float y = Math.max(clipY1, Math.min(clipY2, quad[i + 1]));
+            quad[i + 4] = s1 + (x - x1) * ds;
+            quad[i + 5] = t1 + (y - y1) * dt;
+            quad[i] = x;
+            quad[i + 1] = y;
+        }
+        return TRIMMED;
+    }
+
+    /**
+     * Tests a bounding box against the current rect.
+     *
+     * @return true, if the box is completely outside, else false
+     */
+    boolean isOutside(float minX, float minY, float maxX, float maxY) {
+        if (!culling) {
+            return false;
+        }
+        float[] rect = getViewRect();
+        return maxX <= rect[0] || minX >= rect[2] || maxY <= rect[1] || minY >= rect[3];
+    }
+}
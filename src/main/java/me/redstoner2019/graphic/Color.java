@@ -20,6 +20,9 @@ public final class Color {
 
     private float alpha;
 
+    /** Color packed as ABGR, red is in the lowest byte. */
+    private int packed;
+
     public Color() {
         this(0f, 0f, 0f);
     }
@@ -58,6 +61,7 @@ public final class Color {
             red = 1f;
         }
         this.red = red;
+        pack();
     }
 
     public void setRed(int red) {
@@ -77,6 +81,7 @@ public final class Color {
             green = 1f;
         }
         this.green = green;
+        pack();
     }
 
     public void setGreen(int green) {
@@ -95,6 +100,7 @@ public final class Color {
             blue = 1f;
         }
         this.blue = blue;
+        pack();
     }
 
     public void setBlue(int blue) {
@@ -113,12 +119,45 @@ public final class Color {
             alpha = 1f;
         }
         this.alpha = alpha;
+        pack();
     }
 
     public void setAlpha(int alpha) {
         setAlpha(alpha / 255f);
     }
 
+    /**
+     * Returns the color packed as ABGR. Written as a little endian int this
+     * gives the bytes RGBA, which matches <code>GL_UNSIGNED_BYTE</code>
+     * color attributes.
+     *
+     * @return Packed color
+     */
+    public int getPacked() {
+        return packed;
+    }
+
+    /**
+     * Sets all components from a color packed as ABGR.
+     *
+     * @param abgr Packed color
+     */
+    void setPacked(int abgr) {
+        red = (abgr & 0xFF) / 255f;
+        green = ((abgr >>> 8) & 0xFF) / 255f;
+        blue = ((abgr >>> 16) & 0xFF) / 255f;
+        alpha = (abgr >>> 24) / 255f;
+        packed = abgr;
+    }
+
+    private void pack() {
+        int r = Math.round(red * 255f);
+        int g = Math.round(green * 255f);
+        int b = Math.round(blue * 255f);
+        int a = Math.round(alpha * 255f);
+        packed = (a << 24) | (b << 16) | (g << 8) | r;
+    }
+
     public Vector3f toVector3f() {
         return new Vector3f(red, green, blue);
     }
@@ -0,0 +1,183 @@
+package me.redstoner2019.graphic;
+
+import java.util.Arrays;
+
+/**
+ * Records quads for the deferred mode of the {@link Renderer}.
+ * <p>
+ * Every command gets a 64 bit sort key, from the highest to the lowest bits:
+ * layer (8 bits), shader (4 bits), texture (12 bits), blend mode (2 bits),
+ * depth (16 bits) and command index (22 bits). Sorting the keys groups the
+ * commands by state, while the command index keeps the submission order of
+ * commands with equal state.
+ */
+final class DrawQueue {
+
+    static final int MAX_LAYER = 0xFF;
+    static final int MAX_SHADERS = 1 << 4;
+    static final int MAX_COMMANDS = 1 << 22;
+
+    private static final int DEPTH_SHIFT = 22;
+    private static final int BLEND_SHIFT = 38;
+    private static final int TEXTURE_SHIFT = 40;
+    private static final int SHADER_SHIFT = 52;
+    private static final int LAYER_SHIFT = 56;
+
+    private static final long INDEX_MASK = MAX_COMMANDS - 1;
+
+    /** Number of floats per command, two positions and two texture coordinates. */
+    private static final int COORDS = 8;
+
+    private long[] keys = new long[256];
+    private long[] sorted = new long[256];
+    private final int[] counts = new int[257];
+
+    private float[] coords = new float[256 * COORDS];
+    private int[] colors = new int[256];
+    private int[] shapes = new int[256];
+    private Texture[] textures = new Texture[256];
+    private ShaderProgram[] programs = new ShaderProgram[256];
+    private BlendMode[] blends = new BlendMode[256];
+
+    private int size;
+
+    /**
+     * Records a quad.
+     *
+     * @param layer   Layer of the quad, 0 to {@link #MAX_LAYER}
+     * @param shader  Index of the program in the sort key
+     * @param program Program to draw the quad with
+     * @param texture Texture of the quad, or null for the texture bound to
+     *                texture unit 0
+     * @param blend   Blend mode of the quad
+     * @param depth   Depth of the quad, from 0 to 1
+     * @param color   Packed color of the quad
+     * @param shape   Packed {@link Shape} of the quad, or 0 for a textured
+     *                quad
+     */
+    void add(int layer, int shader, ShaderProgram program, Texture texture, BlendMode blend, float depth,
+             float x1, float y1, float x2, float y2, float s1, float t1, float s2, float t2, int color, int shape) {
+        if (size == keys.length) {
+            grow();
+        }
+
+        long textureBits = texture == null ? 0L : texture.getID() & 0xFFF;
+        long depthBits = (long) (depth * 0xFFFF) & 0xFFFF;
+        keys[size] = ((long) layer << LAYER_SHIFT)
+                | ((long) shader << SHADER_SHIFT)
+                | (textureBits << TEXTURE_SHIFT)
+                | ((long) blend.ordinal() << BLEND_SHIFT)
+                | (depthBits << DEPTH_SHIFT)
+                | size;
+
+        int offset = size * COORDS;
+        coords[offset] = x1;
+        coords[offset + 1] = y1;
+        coords[offset + 2] = x2;
+        coords[offset + 3] = y2;
+        coords[offset + 4] = s1;
+        coords[offset + 5] = t1;
+        coords[offset + 6] = s2;
+        coords[offset + 7] = t2;
+
+        colors[size] = color;
+        shapes[size] = shape;
+        textures[size] = texture;
+        programs[size] = program;
+        blends[size] = blend;
+        size++;
+    }
+
+    /**
+     * Sorts the recorded commands by their keys with a LSD radix sort. Passes
+     * where every key has the same byte are skipped.
+     */
+    void sort() {
+        long[] src = keys;
+        long[] dst = sorted;
+        for (int shift = 0; shift < Long.SIZE; shift += 8) {
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < size; i++) {
+                counts[(int) ((src[i] >>> shift) & 0xFF) + 1]++;
+            }
+            if (size == 0 || counts[(int) ((src[0] >>> shift) & 0xFF) + 1] == size) {
+                continue;
+            }
+            for (int i = 0; i < 256; i++) {
+                counts[i + 1] += counts[i];
+            }
+            for (int i = 0; i < size; i++) {
+                long key = src[i];
+                dst[counts[(int) ((key >>> shift) & 0xFF)]++] = key;
+            }
+            long[] tmp = src;
+            src = dst;
+            dst = tmp;
+        }
+        keys = src;
+        sorted = dst;
+    }
+
+    /**
+     * Returns the command at the specified position. After {@link #sort()}
+     * the commands are in key order.
+     *
+     * @param position Position in the queue
+     *
+     * @return Index of the command
+     */
+    int command(int position) {
+        return (int) (keys[position] & INDEX_MASK);
+    }
+
+    float coord(int command, int index) {
+        return coords[command * COORDS + index];
+    }
+
+    int color(int command) {
+        return colors[command];
+    }
+
+    int shape(int command) {
+        return shapes[command];
+    }
+
+    Texture texture(int command) {
+        return textures[command];
+    }
+
+    ShaderProgram program(int command) {
+        return programs[command];
+    }
+
+    BlendMode blend(int command) {
+        return blends[command];
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Removes all commands, the references get cleared so textures and
+     * programs are not kept alive by the queue.
+     */
+    void clear() {
+        Arrays.fill(textures, 0, size, null);
+        Arrays.fill(programs, 0, size, null);
+        Arrays.fill(blends, 0, size, null);
+        size = 0;
+    }
+
+    private void grow() {
+        int capacity = Math.min(keys.length * 2, MAX_COMMANDS);
+        keys = Arrays.copyOf(keys, capacity);
+        sorted = new long[capacity];
+        coords = Arrays.copyOf(coords, capacity * COORDS);
+        colors = Arrays.copyOf(colors, capacity);
+        shapes = Arrays.copyOf(shapes, capacity);
+        textures = Arrays.copyOf(textures, capacity);
+        programs = Arrays.copyOf(programs, capacity);
+        blends = Arrays.copyOf(blends, capacity);
+    }
+}
@@ -0,0 +1,146 @@
+package me.redstoner2019.graphic;
+
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.opengl.GL11.GL_COLOR_BUFFER_BIT;
+import static org.lwjgl.opengl.GL11.GL_LINEAR;
+import static org.lwjgl.opengl.GL11.GL_NEAREST;
+import static org.lwjgl.opengl.GL11.GL_RGBA;
+import static org.lwjgl.opengl.GL11.GL_RGBA8;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_2D;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_MAG_FILTER;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_MIN_FILTER;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_WRAP_S;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_WRAP_T;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_BYTE;
+import static org.lwjgl.opengl.GL11.glReadPixels;
+import static org.lwjgl.opengl.GL12.GL_CLAMP_TO_EDGE;
+import static org.lwjgl.opengl.GL30.GL_COLOR_ATTACHMENT0;
+import static org.lwjgl.opengl.GL30.GL_DRAW_FRAMEBUFFER;
+import static org.lwjgl.opengl.GL30.GL_FRAMEBUFFER;
+import static org.lwjgl.opengl.GL30.GL_FRAMEBUFFER_COMPLETE;
+import static org.lwjgl.opengl.GL30.GL_READ_FRAMEBUFFER;
+import static org.lwjgl.opengl.GL30.glBindFramebuffer;
+import static org.lwjgl.opengl.GL30.glBlitFramebuffer;
+import static org.lwjgl.opengl.GL30.glCheckFramebufferStatus;
+import static org.lwjgl.opengl.GL30.glDeleteFramebuffers;
+import static org.lwjgl.opengl.GL30.glFramebufferTexture2D;
+import static org.lwjgl.opengl.GL30.glGenFramebuffers;
+
+/**
+ * A framebuffer object with a RGBA color texture.
+ */
+public final class Framebuffer {
+
+    private final int id;
+    private final Texture texture;
+
+    private final int width;
+    private final int height;
+
+    /**
+     * Creates a framebuffer, it is left bound.
+     *
+     * @param width  Width in pixels
+     * @param height Height in pixels
+     */
+    public Framebuffer(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Framebuffer size must be positive!");
+        }
+        this.width = width;
+        this.height = height;
+
+        texture = new Texture();
+        texture.setWidth(width);
+        texture.setHeight(height);
+        texture.bind();
+        texture.setParameter(GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        texture.setParameter(GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+        texture.setParameter(GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+        texture.setParameter(GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        texture.uploadData(GL_RGBA8, width, height, GL_RGBA, null);
+
+        id = glGenFramebuffers();
+        bind();
+        glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, texture.getID(), 0);
+
+        int status = glCheckFramebufferStatus(GL_FRAMEBUFFER);
+        if (status != GL_FRAMEBUFFER_COMPLETE) {
+            delete();
+            throw new IllegalStateException("Framebuffer is incomplete, status 0x" + Integer.toHexString(status) + "!");
+        }
+    }
+
+    /**
+     * Binds the framebuffer for drawing and reading. The viewport isn't
+     * changed.
+     */
+    public void bind() {
+        GLState.current().bindFramebuffer(id);
+    }
+
+    /**
+     * Binds the default framebuffer.
+     */
+    public static void unbind() {
+        GLState.current().bindFramebuffer(0);
+    }
+
+    /**
+     * Reads the pixels of the framebuffer, the framebuffer is left bound.
+     * The rows start at the bottom.
+     *
+     * @param pixels Buffer for <code>width * height</code> RGBA pixels
+     */
+    public void readPixels(ByteBuffer pixels) {
+        bind();
+        glReadPixels(0, 0, width, height, GL_RGBA, GL_UNSIGNED_BYTE, pixels);
+    }
+
+    /**
+     * Copies the color of the framebuffer into another framebuffer of at
+     * least the same size, which is left bound. The scissor test has to be
+     * off.
+     *
+     * @param target ID of the target framebuffer, 0 for the default
+     *               framebuffer
+     */
+    public void blitTo(int target) {
+        glBindFramebuffer(GL_READ_FRAMEBUFFER, id);
+        glBindFramebuffer(GL_DRAW_FRAMEBUFFER, target);
+        glBlitFramebuffer(0, 0, width, height, 0, 0, width, height, GL_COLOR_BUFFER_BIT, GL_NEAREST);
+
+        /* The read binding differs now, so the cached binding is wrong */
+        GLState state = GLState.current();
+        state.forgetFramebuffer();
+        state.bindFramebuffer(target);
+    }
+
+    /**
+     * Returns the color texture, it can be drawn like any other texture.
+     *
+     * @return The color texture
+     */
+    public Texture getTexture() {
+        return texture;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getID() {
+        return id;
+    }
+
+    public void delete() {
+        glDeleteFramebuffers(id);
+        GLState.current().framebufferDeleted(id);
+        texture.delete();
+    }
+}
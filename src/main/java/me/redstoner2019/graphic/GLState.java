@@ -0,0 +1,462 @@
+package me.redstoner2019.graphic;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+
+import static org.lwjgl.opengl.GL11.GL_BLEND;
+import static org.lwjgl.opengl.GL11.GL_SCISSOR_TEST;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_2D;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_BINDING_2D;
+import static org.lwjgl.opengl.GL11.glBindTexture;
+import static org.lwjgl.opengl.GL11.glBlendFunc;
+import static org.lwjgl.opengl.GL11.glDisable;
+import static org.lwjgl.opengl.GL11.glEnable;
+import static org.lwjgl.opengl.GL11.glGetInteger;
+import static org.lwjgl.opengl.GL11.glScissor;
+import static org.lwjgl.opengl.GL13.GL_TEXTURE0;
+import static org.lwjgl.opengl.GL13.glActiveTexture;
+import static org.lwjgl.opengl.GL14.glBlendFuncSeparate;
+import static org.lwjgl.opengl.GL15.GL_ARRAY_BUFFER;
+import static org.lwjgl.opengl.GL15.GL_ELEMENT_ARRAY_BUFFER;
+import static org.lwjgl.opengl.GL15.glBindBuffer;
+import static org.lwjgl.opengl.GL20.GL_MAX_COMBINED_TEXTURE_IMAGE_UNITS;
+import static org.lwjgl.opengl.GL20.glUseProgram;
+import static org.lwjgl.opengl.GL21.GL_PIXEL_PACK_BUFFER;
+import static org.lwjgl.opengl.GL21.GL_PIXEL_UNPACK_BUFFER;
+import static org.lwjgl.opengl.GL30.GL_FRAMEBUFFER;
+import static org.lwjgl.opengl.GL30.GL_FRAMEBUFFER_BINDING;
+import static org.lwjgl.opengl.GL30.glBindBufferBase;
+import static org.lwjgl.opengl.GL30.glBindFramebuffer;
+import static org.lwjgl.opengl.GL30.glBindVertexArray;
+import static org.lwjgl.opengl.GL31.GL_COPY_READ_BUFFER;
+import static org.lwjgl.opengl.GL31.GL_COPY_WRITE_BUFFER;
+import static org.lwjgl.opengl.GL31.GL_TEXTURE_BUFFER;
+import static org.lwjgl.opengl.GL31.GL_UNIFORM_BUFFER;
+
+/**
+ * Shadow copy of the GL state of one context.
+ * <p>
+ * The wrapper classes route their binds through the state of the current
+ * context, so binding something that is bound already doesn't reach the
+ * driver. Uniform uploads skipped by {@link ShaderProgram} are counted here
+ * as well. Code that changes the state with raw GL calls has to call
+ * {@link #invalidate()} afterwards.
+ */
+public final class GLState {
+
+    /** Value of a binding that isn't known. */
+    private static final int UNKNOWN = -1;
+
+    /** Buffer targets that are tracked, the index is used in the bindings. */
+    private static final int[] BUFFER_TARGETS = {
+        GL_ARRAY_BUFFER, GL_ELEMENT_ARRAY_BUFFER, GL_UNIFORM_BUFFER, GL_PIXEL_PACK_BUFFER,
+        GL_PIXEL_UNPACK_BUFFER, GL_COPY_READ_BUFFER, GL_COPY_WRITE_BUFFER, GL_TEXTURE_BUFFER
+    };
+    private static final int ELEMENT_INDEX = 1;
+
+    private static final Map<GLCapabilities, GLState> STATES = new WeakHashMap<>();
+    private static final ThreadLocal<GLState> CURRENT = new ThreadLocal<>();
+
+    private final WeakReference<GLCapabilities> capabilities;
+
+    private int program;
+    private int framebuffer;
+    private int vertexArray;
+    private final int[] buffers = new int[BUFFER_TARGETS.length];
+    private int activeUnit;
+    private final int[] textures;
+
+    private int blend;
+    private int blendSource;
+    private int blendDestination;
+    private int blendSourceAlpha;
+    private int blendDestinationAlpha;
+
+    private int scissorTest;
+    private int scissorX;
+    private int scissorY;
+    private int scissorWidth;
+    private int scissorHeight;
+
+    private long issued;
+    private long skipped;
+
+    private GLState(GLCapabilities capabilities) {
+        this.capabilities = new WeakReference<>(capabilities);
+        textures = new int[glGetInteger(GL_MAX_COMBINED_TEXTURE_IMAGE_UNITS)];
+        invalidate();
+    }
+
+    /**
+     * Returns the state of the context that is current on this thread.
+     *
+     * @return State of the current context
+     */
+    public static GLState current() {
+        GLCapabilities caps = GL.getCapabilities();
+        GLState state = CURRENT.get();
+        if (state == null || state.capabilities.get() != caps) {
+            synchronized (STATES) {
+                state = STATES.computeIfAbsent(caps, GLState::new);
+            }
+            CURRENT.set(state);
+        }
+        return state;
+    }
+
+    /**
+     * Forgets every tracked value, the next change of each state reaches the
+     * driver again.
+     */
+    public void invalidate() {
+        program = UNKNOWN;
+        framebuffer = UNKNOWN;
+        vertexArray = UNKNOWN;
+        Arrays.fill(buffers, UNKNOWN);
+        activeUnit = UNKNOWN;
+        Arrays.fill(textures, UNKNOWN);
+        blend = UNKNOWN;
+        blendSource = UNKNOWN;
+        blendDestination = UNKNOWN;
+        blendSourceAlpha = UNKNOWN;
+        blendDestinationAlpha = UNKNOWN;
+        scissorTest = UNKNOWN;
+        scissorX = UNKNOWN;
+    }
+
+    public void useProgram(int id) {
+        if (program == id) {
+            skipped++;
+            return;
+        }
+        glUseProgram(id);
+        program = id;
+        issued++;
+    }
+
+    /**
+     * Returns the bound framebuffer, it gets queried if it isn't known.
+     *
+     * @return ID of the framebuffer, 0 for the default framebuffer
+     */
+    public int getFramebuffer() {
+        if (framebuffer == UNKNOWN) {
+            framebuffer = glGetInteger(GL_FRAMEBUFFER_BINDING);
+        }
+        return framebuffer;
+    }
+
+    /**
+     * Binds a framebuffer for drawing and reading.
+     *
+     * @param id ID of the framebuffer, 0 for the default framebuffer
+     */
+    public void bindFramebuffer(int id) {
+        if (framebuffer == id) {
+            skipped++;
+            return;
+        }
+        glBindFramebuffer(GL_FRAMEBUFFER, id);
+        framebuffer = id;
+        issued++;
+    }
+
+    /**
+     * Binds a vertex array. The element array buffer binding belongs to the
+     * vertex array, so it is unknown afterwards.
+     *
+     * @param id ID of the vertex array
+     */
+    public void bindVertexArray(int id) {
+        if (vertexArray == id) {
+            skipped++;
+            return;
+        }
+        glBindVertexArray(id);
+        vertexArray = id;
+        buffers[ELEMENT_INDEX] = UNKNOWN;
+        issued++;
+    }
+
+    public void bindBuffer(int target, int id) {
+        int index = bufferIndex(target);
+        if (index < 0) {
+            glBindBuffer(target, id);
+            issued++;
+            return;
+        }
+        if (buffers[index] == id) {
+            skipped++;
+            return;
+        }
+        glBindBuffer(target, id);
+        buffers[index] = id;
+        issued++;
+    }
+
+    /**
+     * Binds a buffer to an indexed binding point. Indexed bindings aren't
+     * tracked, but the generic binding of the target changes as well.
+     *
+     * @param target Indexed target
+     * @param index  Index of the binding point
+     * @param id     ID of the buffer
+     */
+    public void bindBufferBase(int target, int index, int id) {
+        glBindBufferBase(target, index, id);
+        int generic = bufferIndex(target);
+        if (generic >= 0) {
+            buffers[generic] = id;
+        }
+        issued++;
+    }
+
+    /**
+     * Selects the active texture unit.
+     *
+     * @param unit Index of the texture unit
+     */
+    public void activeTexture(int unit) {
+        if (activeUnit == unit) {
+            skipped++;
+            return;
+        }
+        glActiveTexture(GL_TEXTURE0 + unit);
+        activeUnit = unit;
+        issued++;
+    }
+
+    /**
+     * Binds a 2D texture to the specified texture unit. The active texture
+     * unit only changes if the texture isn't bound there already.
+     *
+     * @param unit Index of the texture unit
+     * @param id   ID of the texture
+     */
+    public void bindTexture(int unit, int id) {
+        if (textures[unit] == id) {
+            skipped++;
+            return;
+        }
+        activeTexture(unit);
+        glBindTexture(GL_TEXTURE_2D, id);
+        textures[unit] = id;
+        issued++;
+    }
+
+    /**
+     * Returns the 2D texture bound to a texture unit, it gets queried if it
+     * isn't known.
+     *
+     * @param unit Index of the texture unit
+     *
+     * @return ID of the texture
+     */
+    public int getTexture(int unit) {
+        if (textures[unit] == UNKNOWN) {
+            activeTexture(unit);
+            textures[unit] = glGetInteger(GL_TEXTURE_BINDING_2D);
+        }
+        return textures[unit];
+    }
+
+    /**
+     * Binds a 2D texture to the active texture unit.
+     *
+     * @param id ID of the texture
+     */
+    public void bindTexture(int id) {
+        if (activeUnit == UNKNOWN) {
+            activeTexture(0);
+        }
+        bindTexture(activeUnit, id);
+    }
+
+    public void setBlend(boolean enabled) {
+        int value = enabled ? 1 : 0;
+        if (blend == value) {
+            skipped++;
+            return;
+        }
+        if (enabled) {
+            glEnable(GL_BLEND);
+        } else {
+            glDisable(GL_BLEND);
+        }
+        blend = value;
+        issued++;
+    }
+
+    public void blendFunc(int source, int destination) {
+        if (blendSource == source && blendDestination == destination
+                && blendSourceAlpha == source && blendDestinationAlpha == destination) {
+            skipped++;
+            return;
+        }
+        glBlendFunc(source, destination);
+        blendSource = source;
+        blendDestination = destination;
+        blendSourceAlpha = source;
+        blendDestinationAlpha = destination;
+        issued++;
+    }
+
+    public void blendFuncSeparate(int source, int destination, int sourceAlpha, int destinationAlpha) {
+        if (blendSource == source && blendDestination == destination
+                && blendSourceAlpha == sourceAlpha && blendDestinationAlpha == destinationAlpha) {
+            skipped++;
+            return;
+        }
+        glBlendFuncSeparate(source, destination, sourceAlpha, destinationAlpha);
+        blendSource = source;
+        blendDestination = destination;
+        blendSourceAlpha = sourceAlpha;
+        blendDestinationAlpha = destinationAlpha;
+        issued++;
+    }
+
+    public void setScissorTest(boolean enabled) {
+        int value = enabled ? 1 : 0;
+        if (scissorTest == value) {
+            skipped++;
+            return;
+        }
+        if (enabled) {
+            glEnable(GL_SCISSOR_TEST);
+        } else {
+            glDisable(GL_SCISSOR_TEST);
+        }
+        scissorTest = value;
+        issued++;
+    }
+
+    public void scissor(int x, int y, int width, int height) {
+        if (scissorX == x && scissorY == y && scissorWidth == width && scissorHeight == height) {
+            skipped++;
+            return;
+        }
+        glScissor(x, y, width, height);
+        scissorX = x;
+        scissorY = y;
+        scissorWidth = width;
+        scissorHeight = height;
+        issued++;
+    }
+
+    /**
+     * Forgets a deleted program. A deleted program stays in use until
+     * another one is used, so the binding becomes unknown.
+     *
+     * @param id ID of the deleted program
+     */
+    public void programDeleted(int id) {
+        if (program == id) {
+            program = UNKNOWN;
+        }
+    }
+
+    /**
+     * Forgets the framebuffer binding, for code that binds the read and draw
+     * framebuffers separately.
+     */
+    public void forgetFramebuffer() {
+        framebuffer = UNKNOWN;
+    }
+
+    /**
+     * Forgets a deleted framebuffer, GL falls back to the default
+     * framebuffer.
+     *
+     * @param id ID of the deleted framebuffer
+     */
+    public void framebufferDeleted(int id) {
+        if (framebuffer == id) {
+            framebuffer = 0;
+        }
+    }
+
+    /**
+     * Forgets a deleted vertex array, GL falls back to vertex array 0.
+     *
+     * @param id ID of the deleted vertex array
+     */
+    public void vertexArrayDeleted(int id) {
+        if (vertexArray == id) {
+            vertexArray = 0;
+            buffers[ELEMENT_INDEX] = UNKNOWN;
+        }
+    }
+
+    /**
+     * Forgets a deleted buffer, GL unbinds it from every target.
+     *
+     * @param id ID of the deleted buffer
+     */
+    public void bufferDeleted(int id) {
+        for (int i = 0; i < buffers.length; i++) {
+            if (buffers[i] == id) {
+                buffers[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * Forgets a deleted texture, GL unbinds it from every texture unit.
+     *
+     * @param id ID of the deleted texture
+     */
+    public void textureDeleted(int id) {
+        for (int i = 0; i < textures.length; i++) {
+            if (textures[i] == id) {
+                textures[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of state changes that reached the driver since the
+     * last {@link #resetCounters()}.
+     *
+     * @return Number of issued GL calls
+     */
+    public long getIssuedCalls() {
+        return issued;
+    }
+
+    /**
+     * Returns the number of state changes that were skipped because the
+     * state was set already.
+     *
+     * @return Number of skipped GL calls
+     */
+    public long getSkippedCalls() {
+        return skipped;
+    }
+
+    void countIssued() {
+        issued++;
+    }
+
+    void countSkipped() {
+        skipped++;
+    }
+
+    public void resetCounters() {
+        issued = 0L;
+        skipped = 0L;
+    }
+
+    private static int bufferIndex(int target) {
+        for (int i = 0; i < BUFFER_TARGETS.length; i++) {
+            if (BUFFER_TARGETS[i] == target) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,289 @@
+package me.redstoner2019.graphic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+
+import static org.lwjgl.opengl.GL15.GL_QUERY_RESULT;
+import static org.lwjgl.opengl.GL15.GL_QUERY_RESULT_AVAILABLE;
+import static org.lwjgl.opengl.GL15.glDeleteQueries;
+import static org.lwjgl.opengl.GL15.glGenQueries;
+import static org.lwjgl.opengl.GL15.glGetQueryObjecti;
+import static org.lwjgl.opengl.GL33.GL_TIMESTAMP;
+import static org.lwjgl.opengl.GL33.glGetQueryObjecti64;
+import static org.lwjgl.opengl.GL33.glQueryCounter;
+
+/**
+ * Measures the GPU and CPU time of named scopes.
+ * <p>
+ * Every scope writes a <code>GL_TIMESTAMP</code> query at its begin and end,
+ * so scopes can be nested. The queries of a frame are read back some frames
+ * later, once the GPU has reached them, so the profiler never waits for the
+ * GPU. {@link #FRAMES} frames are in flight, if the oldest one still isn't
+ * done when its queries are needed again its results get dropped.
+ * <p>
+ * Without timer queries only the CPU times are measured.
+ */
+public class GpuProfiler {
+
+    /** Number of frames whose queries can be in flight. */
+    public static final int FRAMES = 4;
+    /** Maximum number of measured scopes per frame. */
+    public static final int MAX_RECORDS = 256;
+    /** Maximum nesting depth of scopes. */
+    private static final int MAX_DEPTH = 32;
+
+    private final boolean supported;
+
+    private final List<String> names = new ArrayList<>();
+
+    /** Two timestamp queries per record, one row per frame. */
+    private final int[][] queries = new int[FRAMES][MAX_RECORDS * 2];
+    /** Scope of each record. */
+    private final int[][] recordScopes = new int[FRAMES][MAX_RECORDS];
+    /** CPU time of each record in nanoseconds. */
+    private final long[][] recordCpu = new long[FRAMES][MAX_RECORDS];
+    private final int[] recordCounts = new int[FRAMES];
+    /** Query that was written last in each frame, or 0. */
+    private final int[] lastQueries = new int[FRAMES];
+    private final boolean[] pending = new boolean[FRAMES];
+
+    private final int[] stack = new int[MAX_DEPTH];
+    private final long[] stackStart = new long[MAX_DEPTH];
+    private int depth;
+
+    private int frame;
+    private boolean inFrame;
+
+    private long[] gpuTimes = new long[8];
+    private long[] cpuTimes = new long[8];
+    private int droppedFrames;
+    private long resolvedFrames;
+
+    /**
+     * Creates a profiler for the current context.
+     */
+    public GpuProfiler() {
+        GLCapabilities caps = GL.getCapabilities();
+        supported = caps.OpenGL33 || caps.GL_ARB_timer_query;
+        if (supported) {
+            for (int i = 0; i < FRAMES; i++) {
+                glGenQueries(queries[i]);
+            }
+        }
+    }
+
+    /**
+     * Checks if the context supports timer queries.
+     *
+     * @return true, if GPU times are measured, else false
+     */
+    public boolean isSupported() {
+        return supported;
+    }
+
+    /**
+     * Returns the ID of a scope, the scope gets registered on the first call.
+     * Look the ID up once and keep it, the lookup is a linear search.
+     *
+     * @param name Name of the scope
+     *
+     * @return ID of the scope
+     */
+    public int scope(String name) {
+        int id = names.indexOf(name);
+        if (id >= 0) {
+            return id;
+        }
+        names.add(name);
+        if (names.size() > gpuTimes.length) {
+            gpuTimes = Arrays.copyOf(gpuTimes, gpuTimes.length * 2);
+            cpuTimes = Arrays.copyOf(cpuTimes, cpuTimes.length * 2);
+        }
+        return names.size() - 1;
+    }
+
+    public String getName(int scope) {
+        return names.get(scope);
+    }
+
+    public int getScopeCount() {
+        return names.size();
+    }
+
+    /**
+     * Starts a frame. Scopes outside of a frame are ignored.
+     */
+    public void beginFrame() {
+        if (inFrame) {
+            throw new IllegalStateException("Profiler frame already started!");
+        }
+        if (pending[frame]) {
+            /* The GPU is more than FRAMES frames behind, don't wait for it */
+            pending[frame] = false;
+            droppedFrames++;
+        }
+        recordCounts[frame] = 0;
+        lastQueries[frame] = 0;
+        depth = 0;
+        inFrame = true;
+    }
+
+    /**
+     * Ends the frame and reads back the results of every finished frame.
+     */
+    public void endFrame() {
+        if (!inFrame) {
+            throw new IllegalStateException("Profiler frame wasn't started!");
+        }
+        if (depth != 0) {
+            throw new IllegalStateException("Profiler scope wasn't ended!");
+        }
+        inFrame = false;
+        pending[frame] = true;
+        frame = (frame + 1) % FRAMES;
+
+        /* Oldest frames first, stop at the first one the GPU hasn't finished */
+        for (int i = 0; i < FRAMES; i++) {
+            int index = (frame + i) % FRAMES;
+            if (!pending[index]) {
+                continue;
+            }
+            if (!isAvailable(index)) {
+                break;
+            }
+            resolve(index);
+            pending[index] = false;
+        }
+    }
+
+    /**
+     * Begins a scope.
+     *
+     * @param scope ID of the scope, see {@link #scope(String)}
+     */
+    public void begin(int scope) {
+        if (!inFrame) {
+            return;
+        }
+        if (depth == MAX_DEPTH) {
+            throw new IllegalStateException("Profiler scopes are nested too deep!");
+        }
+        int record = recordCounts[frame];
+        if (record < MAX_RECORDS) {
+            recordCounts[frame]++;
+            recordScopes[frame][record] = scope;
+            if (supported) {
+                lastQueries[frame] = queries[frame][record * 2];
+                glQueryCounter(lastQueries[frame], GL_TIMESTAMP);
+            }
+        } else {
+            /* Out of queries, the scope still has to be ended */
+            record = -1;
+        }
+        stack[depth] = record;
+        stackStart[depth] = System.nanoTime();
+        depth++;
+    }
+
+    /**
+     * Ends the innermost scope.
+     */
+    public void end() {
+        if (!inFrame) {
+            return;
+        }
+        if (depth == 0) {
+            throw new IllegalStateException("No profiler scope to end!");
+        }
+        depth--;
+        int record = stack[depth];
+        if (record < 0) {
+            return;
+        }
+        recordCpu[frame][record] = System.nanoTime() - stackStart[depth];
+        if (supported) {
+            lastQueries[frame] = queries[frame][record * 2 + 1];
+            glQueryCounter(lastQueries[frame], GL_TIMESTAMP);
+        }
+    }
+
+    /**
+     * Returns the GPU time of a scope in the last frame that was read back.
+     * Scopes that were entered more than once get summed up.
+     *
+     * @param scope ID of the scope
+     *
+     * @return GPU time in milliseconds, 0 without timer queries
+     */
+    public double getGpuTimeMillis(int scope) {
+        return gpuTimes[scope] / 1_000_000.0;
+    }
+
+    /**
+     * Returns the CPU time of a scope in the same frame as
+     * {@link #getGpuTimeMillis(int)}.
+     *
+     * @param scope ID of the scope
+     *
+     * @return CPU time in milliseconds
+     */
+    public double getCpuTimeMillis(int scope) {
+        return cpuTimes[scope] / 1_000_000.0;
+    }
+
+    /**
+     * Returns the number of frames whose results were dropped because the GPU
+     * didn't finish them in time.
+     *
+     * @return Number of dropped frames
+     */
+    public int getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * Returns the number of frames whose results were read back.
+     *
+     * @return Number of read back frames
+     */
+    public long getResolvedFrames() {
+        return resolvedFrames;
+    }
+
+    public void delete() {
+        if (supported) {
+            for (int i = 0; i < FRAMES; i++) {
+                glDeleteQueries(queries[i]);
+            }
+        }
+    }
+
+    /**
+     * Checks if the GPU has written the last query of a frame, the queries
+     * before it are done as well then.
+     */
+    private boolean isAvailable(int index) {
+        int query = lastQueries[index];
+        return query == 0 || glGetQueryObjecti(query, GL_QUERY_RESULT_AVAILABLE) != 0;
+    }
+
+    private void resolve(int index) {
+        Arrays.fill(gpuTimes, 0L);
+        Arrays.fill(cpuTimes, 0L);
+        int[] frameQueries = queries[index];
+        for (int i = 0; i < recordCounts[index]; i++) {
+            int scope = recordScopes[index][i];
+            cpuTimes[scope] += recordCpu[index][i];
+            if (supported) {
+                long begin = glGetQueryObjecti64(frameQueries[i * 2], GL_QUERY_RESULT);
+                long end = glGetQueryObjecti64(frameQueries[i * 2 + 1], GL_QUERY_RESULT);
+                gpuTimes[scope] += end - begin;
+            }
+        }
+        resolvedFrames++;
+    }
+}
@@ -0,0 +1,175 @@
+package me.redstoner2019.graphic;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.egl.EGL;
+import org.lwjgl.egl.EGLCapabilities;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+import org.lwjgl.system.Configuration;
+import org.lwjgl.system.FunctionProvider;
+import org.lwjgl.system.MemoryStack;
+
+import static org.lwjgl.egl.EGL10.EGL_EXTENSIONS;
+import static org.lwjgl.egl.EGL10.EGL_NONE;
+import static org.lwjgl.egl.EGL10.EGL_NO_CONTEXT;
+import static org.lwjgl.egl.EGL10.EGL_NO_DISPLAY;
+import static org.lwjgl.egl.EGL10.EGL_NO_SURFACE;
+import static org.lwjgl.egl.EGL10.eglChooseConfig;
+import static org.lwjgl.egl.EGL10.eglCreateContext;
+import static org.lwjgl.egl.EGL10.eglDestroyContext;
+import static org.lwjgl.egl.EGL10.eglGetDisplay;
+import static org.lwjgl.egl.EGL10.eglGetError;
+import static org.lwjgl.egl.EGL10.eglGetProcAddress;
+import static org.lwjgl.egl.EGL10.eglInitialize;
+import static org.lwjgl.egl.EGL10.eglMakeCurrent;
+import static org.lwjgl.egl.EGL10.eglQueryString;
+import static org.lwjgl.egl.EGL10.eglTerminate;
+import static org.lwjgl.egl.EGL12.EGL_RENDERABLE_TYPE;
+import static org.lwjgl.egl.EGL12.eglBindAPI;
+import static org.lwjgl.egl.EGL14.EGL_DEFAULT_DISPLAY;
+import static org.lwjgl.egl.EGL14.EGL_OPENGL_API;
+import static org.lwjgl.egl.EGL14.EGL_OPENGL_BIT;
+import static org.lwjgl.egl.EGL15.EGL_CONTEXT_MAJOR_VERSION;
+import static org.lwjgl.egl.EGL15.EGL_CONTEXT_MINOR_VERSION;
+import static org.lwjgl.egl.EGL15.EGL_CONTEXT_OPENGL_CORE_PROFILE_BIT;
+import static org.lwjgl.egl.EGL15.EGL_CONTEXT_OPENGL_PROFILE_MASK;
+import static org.lwjgl.egl.EGL15.eglGetPlatformDisplay;
+import static org.lwjgl.egl.EXTPlatformBase.eglGetPlatformDisplayEXT;
+
+/**
+ * An OpenGL 3.3 core context without a window, created with EGL.
+ * <p>
+ * The context has no default framebuffer, so everything has to be drawn
+ * into a {@link Framebuffer}. If the EGL implementation supports
+ * <code>EGL_MESA_platform_surfaceless</code> no display server is needed at
+ * all, that includes Mesa's llvmpipe software renderer.
+ * <p>
+ * The OpenGL functions get loaded through EGL, so windows and headless
+ * contexts can't be mixed in one process.
+ */
+public final class HeadlessContext {
+
+    /** Platform of <code>EGL_MESA_platform_surfaceless</code>. */
+    private static final int EGL_PLATFORM_SURFACELESS_MESA = 0x31DD;
+
+    private final long display;
+    private final long context;
+    private final GLCapabilities capabilities;
+
+    /**
+     * Creates the context and makes it current on this thread.
+     */
+    public HeadlessContext() {
+        /* GL must not load the GLX library on its own */
+        Configuration.OPENGL_EXPLICIT_INIT.set(true);
+
+        display = getDisplay();
+        if (display == EGL_NO_DISPLAY) {
+            throw new IllegalStateException("Failed to get an EGL display, error 0x" + Integer.toHexString(eglGetError()) + "!");
+        }
+
+        EGLCapabilities egl;
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            IntBuffer major = stack.mallocInt(1);
+            IntBuffer minor = stack.mallocInt(1);
+            if (!eglInitialize(display, major, minor)) {
+                throw new IllegalStateException("Failed to initialize EGL, error 0x" + Integer.toHexString(eglGetError()) + "!");
+            }
+            egl = EGL.createDisplayCapabilities(display, major.get(0), minor.get(0));
+        }
+        if (!egl.EGL_KHR_surfaceless_context) {
+            eglTerminate(display);
+            throw new IllegalStateException("EGL doesn't support surfaceless contexts!");
+        }
+        if (!egl.EGL_KHR_get_all_proc_addresses && !egl.EGL_KHR_client_get_all_proc_addresses) {
+            eglTerminate(display);
+            throw new IllegalStateException("EGL can't load the core OpenGL functions!");
+        }
+
+        if (!eglBindAPI(EGL_OPENGL_API)) {
+            eglTerminate(display);
+            throw new IllegalStateException("EGL doesn't support desktop OpenGL!");
+        }
+
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            IntBuffer configAttributes = stack.ints(EGL_RENDERABLE_TYPE, EGL_OPENGL_BIT, EGL_NONE);
+            PointerBuffer configs = stack.mallocPointer(1);
+            IntBuffer numConfigs = stack.mallocInt(1);
+            if (!eglChooseConfig(display, configAttributes, configs, numConfigs) || numConfigs.get(0) == 0) {
+                eglTerminate(display);
+                throw new IllegalStateException("No EGL config supports OpenGL!");
+            }
+
+            IntBuffer contextAttributes = stack.ints(
+                    EGL_CONTEXT_MAJOR_VERSION, 3,
+                    EGL_CONTEXT_MINOR_VERSION, 3,
+                    EGL_CONTEXT_OPENGL_PROFILE_MASK, EGL_CONTEXT_OPENGL_CORE_PROFILE_BIT,
+                    EGL_NONE);
+            context = eglCreateContext(display, configs.get(0), EGL_NO_CONTEXT, contextAttributes);
+        }
+        if (context == EGL_NO_CONTEXT) {
+            eglTerminate(display);
+            throw new IllegalStateException("Failed to create an OpenGL 3.3 context, error 0x" + Integer.toHexString(eglGetError()) + "!");
+        }
+
+        if (!eglMakeCurrent(display, EGL_NO_SURFACE, EGL_NO_SURFACE, context)) {
+            delete();
+            throw new IllegalStateException("Failed to make the context current!");
+        }
+
+        if (GL.getFunctionProvider() != null) {
+            GL.destroy();
+        }
+        GL.create(new FunctionProvider() {
+            @Override
+            public long getFunctionAddress(ByteBuffer functionName) {
+                return eglGetProcAddress(functionName);
+            }
+        });
+        capabilities = GL.createCapabilities();
+    }
+
+    /**
+     * Makes the context current on this thread.
+     */
+    public void makeCurrent() {
+        if (!eglMakeCurrent(display, EGL_NO_SURFACE, EGL_NO_SURFACE, context)) {
+            throw new IllegalStateException("Failed to make the context current!");
+        }
+        GL.setCapabilities(capabilities);
+    }
+
+    public GLCapabilities getCapabilities() {
+        return capabilities;
+    }
+
+    /**
+     * Destroys the context and terminates its display.
+     */
+    public void delete() {
+        eglMakeCurrent(display, EGL_NO_SURFACE, EGL_NO_SURFACE, EGL_NO_CONTEXT);
+        eglDestroyContext(display, context);
+        eglTerminate(display);
+    }
+
+    /**
+     * Returns the surfaceless display if available, otherwise the default
+     * display.
+     */
+    private static long getDisplay() {
+        EGLCapabilities client = EGL.getCapabilities();
+        String extensions = eglQueryString(EGL_NO_DISPLAY, EGL_EXTENSIONS);
+        if (extensions != null && extensions.contains("EGL_MESA_platform_surfaceless")) {
+            if (client.EGL15) {
+                return eglGetPlatformDisplay(EGL_PLATFORM_SURFACELESS_MESA, EGL_DEFAULT_DISPLAY, (PointerBuffer) null);
+            }
+            if (client.EGL_EXT_platform_base) {
+                return eglGetPlatformDisplayEXT(EGL_PLATFORM_SURFACELESS_MESA, EGL_DEFAULT_DISPLAY, (IntBuffer) null);
+            }
+        }
+        return eglGetDisplay(EGL_DEFAULT_DISPLAY);
+    }
+}
@@ -0,0 +1,162 @@
+package me.redstoner2019.graphic;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+import org.lwjgl.system.MemoryStack;
+
+import static org.lwjgl.opengl.GL11.GL_FLOAT;
+import static org.lwjgl.opengl.GL11.GL_TRIANGLE_STRIP;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_BYTE;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_SHORT;
+import static org.lwjgl.opengl.GL15.GL_ARRAY_BUFFER;
+import static org.lwjgl.opengl.GL15.GL_STATIC_DRAW;
+import static org.lwjgl.opengl.GL30.GL_HALF_FLOAT;
+import static org.lwjgl.opengl.GL31.glDrawArraysInstanced;
+
+/**
+ * Draws sprites as instances of a unit quad. Every sprite is one 32 byte
+ * instance record instead of four full vertices:
+ * <ul>
+ * <li>position, 2 floats</li>
+ * <li>size, 2 half floats</li>
+ * <li>rotation in radians, 1 float</li>
+ * <li>texture region, 4 normalized unsigned shorts</li>
+ * <li>color, 4 normalized unsigned bytes</li>
+ * <li>parameters, 4 unsigned bytes, the first one is the texture slot</li>
+ * </ul>
+ */
+final class InstancedSpriteBatch {
+
+    /** Size of an instance record in bytes. */
+    static final int INSTANCE_SIZE = 32;
+    /** Maximum number of instances per draw call. */
+    private static final int MAX_INSTANCES = 16384;
+
+    /** Names of the attributes, the index is the attribute location. */
+    private static final String[] ATTRIBUTES = {
+        "corner", "instancePosition", "instanceSize", "instanceRotation",
+        "instanceRegion", "instanceColor", "instanceParams"
+    };
+
+    private final ShaderProgram program;
+    private final VertexArrayObject vao;
+    private final VertexBufferObject quad;
+    private final StreamingVertexBuffer instances;
+
+    private ByteBuffer buffer;
+    private int numInstances;
+
+    /**
+     * Creates the batch.
+     *
+     * @param program Linked program with the sprite shaders, see
+     *                {@link #bindAttributeLocations(ShaderProgram)}
+     */
+    InstancedSpriteBatch(ShaderProgram program) {
+        this.program = program;
+
+        vao = new VertexArrayObject();
+        vao.bind();
+
+        /* Unit quad as triangle strip */
+        quad = new VertexBufferObject();
+        quad.bind(GL_ARRAY_BUFFER);
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            FloatBuffer corners = stack.floats(0f, 0f, 1f, 0f, 0f, 1f, 1f, 1f);
+            quad.uploadData(GL_ARRAY_BUFFER, corners, GL_STATIC_DRAW);
+        }
+        program.enableVertexAttribute(0);
+        program.pointVertexAttribute(0, 2, 0, 0);
+
+        instances = new StreamingVertexBuffer(MAX_INSTANCES * INSTANCE_SIZE);
+        for (int i = 1; i < ATTRIBUTES.length; i++) {
+            program.enableVertexAttribute(i);
+            program.setVertexAttributeDivisor(i, 1);
+        }
+        buffer = instances.getBuffer();
+    }
+
+    /**
+     * Binds the attribute locations of the instance layout.
+     *
+     * @param program Program that is not linked yet
+     */
+    static void bindAttributeLocations(ShaderProgram program) {
+        for (int i = 0; i < ATTRIBUTES.length; i++) {
+            program.bindAttributeLocation(i, ATTRIBUTES[i]);
+        }
+    }
+
+    /**
+     * Checks if there is room for another instance in the current region of
+     * the instance buffer.
+     *
+     * @return true, if another instance fits, else false
+     */
+    boolean hasRoom() {
+        return buffer.remaining() >= INSTANCE_SIZE;
+    }
+
+    /**
+     * Moves the instance buffer on to its next region. Pending instances
+     * have to be drawn before.
+     */
+    void advance() {
+        instances.advance();
+        buffer = instances.getBuffer();
+    }
+
+    void add(float x, float y, float width, float height, float s1, float t1, float s2, float t2,
+             int color, float rotation, int slot) {
+        buffer.putFloat(x).putFloat(y);
+        buffer.putShort(Float.floatToFloat16(width)).putShort(Float.floatToFloat16(height));
+        buffer.putFloat(rotation);
+        buffer.putShort(VertexFormat.unorm16(s1)).putShort(VertexFormat.unorm16(t1));
+        buffer.putShort(VertexFormat.unorm16(s2)).putShort(VertexFormat.unorm16(t2));
+        buffer.putInt(color);
+        buffer.putInt(slot);
+        numInstances++;
+    }
+
+    int getNumInstances() {
+        return numInstances;
+    }
+
+    /**
+     * Draws the pending instances. The instance attributes get pointed at the
+     * committed range, because GL 3.3 has no base instance.
+     *
+     * @return Number of drawn instances
+     */
+    int draw() {
+        if (numInstances == 0) {
+            return 0;
+        }
+        long offset = instances.commit();
+
+        vao.bind();
+        instances.bind(GL_ARRAY_BUFFER);
+        int offsetBytes = (int) offset;
+        program.pointVertexAttribute(1, 2, GL_FLOAT, false, INSTANCE_SIZE, offsetBytes);
+        program.pointVertexAttribute(2, 2, GL_HALF_FLOAT, false, INSTANCE_SIZE, offsetBytes + 8);
+        program.pointVertexAttribute(3, 1, GL_FLOAT, false, INSTANCE_SIZE, offsetBytes + 12);
+        program.pointVertexAttribute(4, 4, GL_UNSIGNED_SHORT, true, INSTANCE_SIZE, offsetBytes + 16);
+        program.pointVertexAttribute(5, 4, GL_UNSIGNED_BYTE, true, INSTANCE_SIZE, offsetBytes + 24);
+        program.pointIntegerVertexAttribute(6, 4, GL_UNSIGNED_BYTE, INSTANCE_SIZE, offsetBytes + 28);
+
+        program.use();
+        glDrawArraysInstanced(GL_TRIANGLE_STRIP, 0, 4, numInstances);
+
+        int drawn = numInstances;
+        numInstances = 0;
+        return drawn;
+    }
+
+    void delete() {
+        vao.delete();
+        quad.delete();
+        instances.delete();
+        program.delete();
+    }
+}
@@ -0,0 +1,254 @@
+package me.redstoner2019.graphic;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Framebuffers that hold pre-rendered layers, for example of component
+ * subtrees that rarely change.
+ * <p>
+ * Every layer belongs to an owner. The layers share a budget of video
+ * memory, if a new layer doesn't fit the least recently used layers get
+ * evicted. Owners have to check {@link Layer#isValid()} every frame, because
+ * an evicted layer comes back empty.
+ */
+public class LayerCache {
+
+    /** Bytes per pixel of a layer. */
+    private static final int PIXEL_SIZE = 4;
+
+    private final Map<Object, Layer> layers = new HashMap<>();
+    /** Counts the requests, the layers remember when they were used last. */
+    private long clock;
+
+    private long budget;
+    private long usedBytes;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Creates a cache.
+     *
+     * @param budget Video memory the layers may use, in bytes
+     */
+    public LayerCache(long budget) {
+        this.budget = checkBudget(budget);
+    }
+
+    /**
+     * Returns the layer of an owner. If the owner has no layer of that size
+     * a new one gets created, which is not valid until it got drawn.
+     *
+     * @param owner  Owner of the layer
+     * @param width  Width in pixels
+     * @param height Height in pixels
+     *
+     * @return The layer, or null if it is larger than the whole budget
+     */
+    public Layer acquire(Object owner, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Layer size must be positive!");
+        }
+        Layer layer = layers.get(owner);
+        if (layer != null) {
+            if (layer.getWidth() == width && layer.getHeight() == height) {
+                hits++;
+                layer.lastUse = ++clock;
+                return layer;
+            }
+            release(owner);
+        }
+
+        long bytes = (long) width * height * PIXEL_SIZE;
+        if (bytes > budget) {
+            return null;
+        }
+        evict(budget - bytes);
+
+        misses++;
+        /* Creating the framebuffer binds it */
+        GLState state = GLState.current();
+        int bound = state.getFramebuffer();
+        layer = new Layer(new Framebuffer(width, height));
+        state.bindFramebuffer(bound);
+        layer.lastUse = ++clock;
+        layers.put(owner, layer);
+        usedBytes += bytes;
+        return layer;
+    }
+
+    /**
+     * Checks if an owner has a layer of the specified size, without counting
+     * it as use.
+     *
+     * @param owner  Owner of the layer
+     * @param width  Width in pixels
+     * @param height Height in pixels
+     *
+     * @return true, if {@link #acquire(Object, int, int)} would neither
+     *         create nor evict a layer, else false
+     */
+    public boolean contains(Object owner, int width, int height) {
+        Layer layer = layers.get(owner);
+        return layer != null && layer.getWidth() == width && layer.getHeight() == height;
+    }
+
+    /**
+     * Deletes the layer of an owner.
+     *
+     * @param owner Owner of the layer
+     */
+    public void release(Object owner) {
+        Layer layer = layers.remove(owner);
+        if (layer != null) {
+            usedBytes -= layer.getBytes();
+            layer.delete();
+        }
+    }
+
+    /**
+     * Sets the budget, layers that don't fit anymore get evicted.
+     *
+     * @param budget Video memory the layers may use, in bytes
+     */
+    public void setBudget(long budget) {
+        this.budget = checkBudget(budget);
+        evict(budget);
+    }
+
+    private static long checkBudget(long budget) {
+        if (budget < 0) {
+            throw new IllegalArgumentException("Budget must not be negative!");
+        }
+        return budget;
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public int getLayerCount() {
+        return layers.size();
+    }
+
+    /**
+     * Returns the number of requests that found their layer.
+     *
+     * @return Number of hits
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of requests that had to create a layer.
+     *
+     * @return Number of misses
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of layers that were evicted to stay in the budget.
+     *
+     * @return Number of evictions
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Deletes all layers.
+     */
+    public void delete() {
+        for (Layer layer : layers.values()) {
+            layer.delete();
+        }
+        layers.clear();
+        usedBytes = 0;
+    }
+
+    /**
+     * Evicts the least recently used layers until at most the specified
+     * memory is used.
+     */
+    private void evict(long limit) {
+        while (usedBytes > limit && !layers.isEmpty()) {
+            /* Evictions only happen on misses, so a scan is cheap enough */
+            Iterator<Layer> iterator = layers.values().iterator();
+            Layer oldest = iterator.next();
+            while (iterator.hasNext()) {
+                Layer layer = iterator.next();
+                if (layer.lastUse < oldest.lastUse) {
+                    oldest = layer;
+                }
+            }
+            layers.values().remove(oldest);
+            usedBytes -= oldest.getBytes();
+            oldest.delete();
+            evictions++;
+        }
+    }
+
+    /**
+     * A framebuffer with the contents of one layer.
+     */
+    public static class Layer {
+
+        private final Framebuffer framebuffer;
+        private boolean valid;
+        private long lastUse;
+
+        private Layer(Framebuffer framebuffer) {
+            this.framebuffer = framebuffer;
+        }
+
+        public Framebuffer getFramebuffer() {
+            return framebuffer;
+        }
+
+        public Texture getTexture() {
+            return framebuffer.getTexture();
+        }
+
+        public int getWidth() {
+            return framebuffer.getWidth();
+        }
+
+        public int getHeight() {
+            return framebuffer.getHeight();
+        }
+
+        /**
+         * Checks if the layer has been drawn since it was created.
+         *
+         * @return true, if the contents are valid, else false
+         */
+        public boolean isValid() {
+            return valid;
+        }
+
+        /**
+         * Marks the contents as drawn.
+         */
+        public void validate() {
+            valid = true;
+        }
+
+        private long getBytes() {
+            return (long) getWidth() * getHeight() * PIXEL_SIZE;
+        }
+
+        private void delete() {
+            framebuffer.delete();
+        }
+    }
+}
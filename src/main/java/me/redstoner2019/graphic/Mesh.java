@@ -0,0 +1,235 @@
+package me.redstoner2019.graphic;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import me.redstoner2019.math.Matrix4f;
+import org.lwjgl.system.MemoryUtil;
+
+import static org.lwjgl.opengl.GL11.GL_TRIANGLES;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_SHORT;
+import static org.lwjgl.opengl.GL15.GL_ARRAY_BUFFER;
+import static org.lwjgl.opengl.GL15.GL_ELEMENT_ARRAY_BUFFER;
+import static org.lwjgl.opengl.GL15.GL_STATIC_DRAW;
+import static org.lwjgl.opengl.GL32.glDrawElementsBaseVertex;
+
+/**
+ * Quads captured by a {@link Renderer} into their own vertex buffer, so
+ * static geometry gets uploaded once and can be drawn again with a single
+ * draw call per part.
+ * <p>
+ * A mesh is split into parts wherever the captured batch would have been
+ * flushed, every part remembers the program, blend mode and textures it was
+ * captured with.
+ */
+public class Mesh {
+
+    private final VertexArrayObject vao;
+    private final VertexBufferObject vbo;
+
+    private final int[] firstVertices;
+    private final int[] vertexCounts;
+    private final ShaderProgram[] programs;
+    private final BlendMode[] blends;
+    private final Texture[][] textures;
+    /** Revisions of the textures when they were captured. */
+    private final int[][] revisions;
+    private final int numQuads;
+
+    private Matrix4f model = new Matrix4f();
+    private float modelX;
+    private float modelY;
+
+    private Mesh(Builder builder, VertexBufferObject quadIndices, ShaderProgram attributeProgram) {
+        int parts = builder.firstVertices.size();
+        firstVertices = new int[parts];
+        vertexCounts = new int[parts];
+        for (int i = 0; i < parts; i++) {
+            firstVertices[i] = builder.firstVertices.get(i);
+            vertexCounts[i] = builder.vertexCounts.get(i);
+        }
+        programs = builder.programs.toArray(new ShaderProgram[0]);
+        blends = builder.blends.toArray(new BlendMode[0]);
+        textures = builder.textures.toArray(new Texture[0][]);
+        revisions = builder.revisions.toArray(new int[0][]);
+        numQuads = builder.numVertices / 4;
+
+        vao = new VertexArrayObject();
+        vao.bind();
+        vbo = new VertexBufferObject();
+        vbo.bind(GL_ARRAY_BUFFER);
+        ByteBuffer data = builder.buffer.duplicate();
+        data.flip();
+        vbo.uploadData(GL_ARRAY_BUFFER, data, GL_STATIC_DRAW);
+        quadIndices.bind(GL_ELEMENT_ARRAY_BUFFER);
+        builder.format.specifyVertexAttributes(attributeProgram);
+    }
+
+    /**
+     * Returns the number of parts, each part needs one draw call.
+     *
+     * @return Number of parts
+     */
+    public int getPartCount() {
+        return firstVertices.length;
+    }
+
+    /**
+     * Returns the number of captured quads.
+     *
+     * @return Number of quads
+     */
+    public int getQuadCount() {
+        return numQuads;
+    }
+
+    ShaderProgram getProgram(int part) {
+        return programs[part];
+    }
+
+    BlendMode getBlend(int part) {
+        return blends[part];
+    }
+
+    /**
+     * Returns the textures of the slots of a part, the index is the slot.
+     * Slot 0 is always null.
+     */
+    Texture[] getTextures(int part) {
+        return textures[part];
+    }
+
+    /**
+     * Checks if a texture of the mesh got replaced since it was captured,
+     * then the mesh shows the wrong pixels and has to be captured again.
+     *
+     * @return true, if the mesh is stale
+     */
+    public boolean isStale() {
+        for (int part = 0; part < textures.length; part++) {
+            for (int slot = 0; slot < textures[part].length; slot++) {
+                Texture texture = textures[part][slot];
+                if (texture != null && texture.getRevision() != revisions[part][slot]) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns a model matrix that moves the mesh to a position. The matrix
+     * is only rebuilt when the position changes.
+     */
+    Matrix4f getModel(float x, float y) {
+        if (x != modelX || y != modelY) {
+            model = Matrix4f.translate(x, y, 0f);
+            modelX = x;
+            modelY = y;
+        }
+        return model;
+    }
+
+    /**
+     * Draws a part, its program and textures have to be bound already.
+     *
+     * @param part The part
+     */
+    void draw(int part) {
+        vao.bind();
+        glDrawElementsBaseVertex(GL_TRIANGLES, vertexCounts[part] / 4 * 6, GL_UNSIGNED_SHORT, 0L, firstVertices[part]);
+    }
+
+    public void delete() {
+        vao.delete();
+        vbo.delete();
+    }
+
+    /**
+     * Collects the vertices while a mesh gets captured.
+     */
+    static final class Builder {
+
+        private final VertexFormat format;
+        private ByteBuffer buffer;
+        private int numVertices;
+
+        private final List<Integer> firstVertices = new ArrayList<>();
+        private final List<Integer> vertexCounts = new ArrayList<>();
+        private final List<ShaderProgram> programs = new ArrayList<>();
+        private final List<BlendMode> blends = new ArrayList<>();
+        private final List<Texture[]> textures = new ArrayList<>();
+        private final List<int[]> revisions = new ArrayList<>();
+
+        Builder(VertexFormat format, int initialVertices) {
+            this.format = format;
+            buffer = MemoryUtil.memAlloc(initialVertices * format.getSize());
+        }
+
+        /**
+         * Returns the buffer to write the vertices into, it grows if there
+         * is less room than requested.
+         *
+         * @param bytes Bytes that have to fit
+         *
+         * @return The buffer
+         */
+        ByteBuffer ensureCapacity(int bytes) {
+            if (buffer.remaining() < bytes) {
+                buffer = MemoryUtil.memRealloc(buffer, Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+            }
+            return buffer;
+        }
+
+        /**
+         * Ends a part of the mesh.
+         *
+         * @param program  Program of the part
+         * @param blend    Blend mode of the part
+         * @param slots    Texture slots of the part
+         * @param numSlots Number of used slots
+         * @param vertices Number of vertices written since the last part
+         */
+        void addPart(ShaderProgram program, BlendMode blend, Texture[] slots, int numSlots, int vertices) {
+            firstVertices.add(numVertices);
+            vertexCounts.add(vertices);
+            programs.add(program);
+            blends.add(blend);
+            Texture[] partTextures = Arrays.copyOf(slots, numSlots);
+            int[] partRevisions = new int[numSlots];
+            for (int slot = 0; slot < numSlots; slot++) {
+                if (partTextures[slot] != null) {
+                    partRevisions[slot] = partTextures[slot].getRevision();
+                }
+            }
+            textures.add(partTextures);
+            revisions.add(partRevisions);
+            numVertices += vertices;
+        }
+
+        /**
+         * Uploads the vertices and frees the buffer.
+         *
+         * @param quadIndices      Element buffer with the quad indices
+         * @param attributeProgram Program to get the attribute locations from
+         *
+         * @return The mesh
+         */
+        Mesh build(VertexBufferObject quadIndices, ShaderProgram attributeProgram) {
+            Mesh mesh = new Mesh(this, quadIndices, attributeProgram);
+            MemoryUtil.memFree(buffer);
+            buffer = null;
+            return mesh;
+        }
+
+        /**
+         * Frees the buffer without creating a mesh.
+         */
+        void discard() {
+            MemoryUtil.memFree(buffer);
+            buffer = null;
+        }
+    }
+}
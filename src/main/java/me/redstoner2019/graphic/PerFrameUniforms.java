@@ -0,0 +1,85 @@
+package me.redstoner2019.graphic;
+
+import java.nio.FloatBuffer;
+
+import me.redstoner2019.math.Matrix4f;
+import org.lwjgl.system.MemoryUtil;
+
+import static org.lwjgl.opengl.GL15.GL_DYNAMIC_DRAW;
+import static org.lwjgl.opengl.GL31.GL_UNIFORM_BUFFER;
+
+/**
+ * Uniform buffer with the values that are the same for every program of a
+ * frame. Programs declare it as
+ * <pre>
+ * layout(std140) uniform PerFrame {
+ *     mat4 projection;
+ *     mat4 view;
+ * };
+ * </pre>
+ * and get connected with {@link #bind(ShaderProgram)}, so changing the
+ * projection is one buffer write no matter how many programs use it.
+ */
+public class PerFrameUniforms {
+
+    /** Name of the uniform block in the shaders. */
+    public static final String BLOCK_NAME = "PerFrame";
+    /** Uniform buffer binding point of the block. */
+    public static final int BINDING = 0;
+
+    /** Offsets of the members in floats, std140 puts the matrices back to back. */
+    private static final int PROJECTION_OFFSET = 0;
+    private static final int VIEW_OFFSET = 16;
+    private static final int SIZE = 32;
+
+    private final VertexBufferObject ubo;
+    private final FloatBuffer buffer;
+
+    /**
+     * Creates the buffer with identity matrices and binds it to
+     * {@link #BINDING}.
+     */
+    public PerFrameUniforms() {
+        buffer = MemoryUtil.memAllocFloat(16);
+
+        ubo = new VertexBufferObject();
+        ubo.bind(GL_UNIFORM_BUFFER);
+        ubo.uploadData(GL_UNIFORM_BUFFER, (long) SIZE * Float.BYTES, GL_DYNAMIC_DRAW);
+        ubo.bindBase(GL_UNIFORM_BUFFER, BINDING);
+
+        Matrix4f identity = new Matrix4f();
+        write(PROJECTION_OFFSET, identity);
+        write(VIEW_OFFSET, identity);
+    }
+
+    /**
+     * Connects the block of a linked program to this buffer.
+     *
+     * @param program The program
+     *
+     * @return true, if the program declares the block, else false
+     */
+    public boolean bind(ShaderProgram program) {
+        return program.bindUniformBlock(BLOCK_NAME, BINDING);
+    }
+
+    public void setProjection(Matrix4f projection) {
+        write(PROJECTION_OFFSET, projection);
+    }
+
+    public void setView(Matrix4f view) {
+        write(VIEW_OFFSET, view);
+    }
+
+    public void delete() {
+        ubo.delete();
+        MemoryUtil.memFree(buffer);
+    }
+
+    private void write(int offset, Matrix4f matrix) {
+        buffer.clear();
+        matrix.toBuffer(buffer);
+        ubo.bind(GL_UNIFORM_BUFFER);
+        ubo.uploadSubData(GL_UNIFORM_BUFFER, (long) offset * Float.BYTES, buffer);
+    }
+}
@@ -0,0 +1,334 @@
+package me.redstoner2019.graphic;
+
+import java.nio.ByteBuffer;
+
+import me.redstoner2019.font.Font;
+
+/**
+ * Drawing operations that every renderer supports, whether it draws with
+ * OpenGL like the {@link Renderer} or on the CPU like the
+ * {@link SoftwareRenderer}.
+ * <p>
+ * Coordinates are in pixels with the origin at the bottom left.
+ */
+public interface RenderBackend {
+
+    /**
+     * Begin rendering.
+     */
+    void begin();
+
+    /**
+     * End rendering, everything drawn since {@link #begin()} is visible
+     * afterwards.
+     */
+    void end();
+
+    /**
+     * Draws the quads submitted so far.
+     */
+    void flush();
+
+    /**
+     * Draws the quads submitted so far, including the ones a deferred mode
+     * still holds back. Needed before a texture the pending quads sample
+     * gets overwritten.
+     */
+    default void flushAll() {
+        flush();
+    }
+
+    /**
+     * Checks if the renderer is between {@link #begin()} and {@link #end()}.
+     *
+     * @return true, if the renderer is drawing, else false
+     */
+    boolean isDrawing();
+
+    /**
+     * Clears the render target.
+     */
+    void clear();
+
+    /**
+     * Draws a texture region on specified coordinates.
+     *
+     * @param texture The texture to draw from
+     * @param x1      Bottom left x position
+     * @param y1      Bottom left y position
+     * @param x2      Top right x position
+     * @param y2      Top right y position
+     * @param s1      Bottom left s coordinate
+     * @param t1      Bottom left t coordinate
+     * @param s2      Top right s coordinate
+     * @param t2      Top right t coordinate
+     * @param c       The color to use
+     */
+    void drawTextureRegion(Texture texture, float x1, float y1, float x2, float y2, float s1, float t1, float s2, float t2, Color c);
+
+    /**
+     * Draws a region of a texture that stores a distance field in its alpha
+     * channel, like the glyphs of a distance field font. The edge is
+     * reconstructed at the scale the quad is drawn at.
+     *
+     * @param texture The texture to draw from
+     * @param x1      Bottom left x position
+     * @param y1      Bottom left y position
+     * @param x2      Top right x position
+     * @param y2      Top right y position
+     * @param s1      Bottom left s coordinate
+     * @param t1      Bottom left t coordinate
+     * @param s2      Top right s coordinate
+     * @param t2      Top right t coordinate
+     * @param spread  Distance in texels that maps to the full alpha range
+     * @param c       The color to use
+     */
+    void drawDistanceField(Texture texture, float x1, float y1, float x2, float y2, float s1, float t1, float s2, float t2, float spread, Color c);
+
+    /**
+     * Fills a rectangle with a solid color.
+     *
+     * @param x1 Bottom left x position
+     * @param y1 Bottom left y position
+     * @param x2 Top right x position
+     * @param y2 Top right y position
+     * @param c  The color to use
+     */
+    void fillRect(float x1, float y1, float x2, float y2, Color c);
+
+    /**
+     * Draws a shape as one quad, its edges are antialiased.
+     *
+     * @param shape  The shape
+     * @param x1     Bottom left x position of the quad
+     * @param y1     Bottom left y position of the quad
+     * @param x2     Top right x position of the quad
+     * @param y2     Top right y position of the quad
+     * @param radius Corner radius in pixels, up to {@link Shape#MAX_PARAMETER}
+     * @param size   Border width or blur size in pixels, 0 to fill
+     * @param c      The color to use
+     */
+    void drawShape(Shape shape, float x1, float y1, float x2, float y2, float radius, float size, Color c);
+
+    /**
+     * Restricts drawing to a rect, intersected with the current clip rect.
+     * Every push needs a {@link #popClip()} before {@link #end()}.
+     *
+     * @param x      Left edge in pixels
+     * @param y      Bottom edge in pixels
+     * @param width  Width in pixels
+     * @param height Height in pixels
+     */
+    void pushClip(int x, int y, int width, int height);
+
+    /**
+     * Restores the clip rect that was current before the last
+     * {@link #pushClip(int, int, int, int)}.
+     */
+    void popClip();
+
+    /**
+     * Checks if a rect is completely outside the current clip rect, so
+     * callers can skip whole runs of quads.
+     *
+     * @param x1 Bottom left x position
+     * @param y1 Bottom left y position
+     * @param x2 Top right x position
+     * @param y2 Top right y position
+     *
+     * @return true, if nothing of the rect would be visible, else false
+     */
+    boolean isOutsideClip(float x1, float y1, float x2, float y2);
+
+    /**
+     * Creates a texture this renderer can draw.
+     *
+     * @param width  Width of the texture
+     * @param height Height of the texture
+     * @param data   RGBA pixels, the first row is at <code>t = 0</code>
+     *
+     * @return The texture
+     */
+    Texture createTexture(int width, int height, ByteBuffer data);
+
+    /**
+     * Returns the counters of this renderer.
+     *
+     * @return Render statistics
+     */
+    RenderStats getStats();
+
+    /**
+     * Returns the profiler of this renderer.
+     *
+     * @return The profiler, or null if the renderer isn't profiled
+     */
+    default GpuProfiler getProfiler() {
+        return null;
+    }
+
+    /**
+     * Draws a texture on specified coordinates.
+     *
+     * @param texture The texture to draw
+     * @param x       X position of the texture
+     * @param y       Y position of the texture
+     */
+    default void drawTexture(Texture texture, float x, float y) {
+        drawTexture(texture, x, y, Color.WHITE);
+    }
+
+    /**
+     * Draws a texture on specified coordinates and with specified color.
+     *
+     * @param texture The texture to draw
+     * @param x       X position of the texture
+     * @param y       Y position of the texture
+     * @param c       The color to use
+     */
+    default void drawTexture(Texture texture, float x, float y, Color c) {
+        /* Vertex positions */
+        float x1 = x;
+        float y1 = y;
+        float x2 = x1 + texture.getWidth();
+        float y2 = y1 + texture.getHeight();
+
+        /* Texture coordinates */
+        float s1 = 0f;
+        float t1 = 0f;
+        float s2 = 1f;
+        float t2 = 1f;
+
+        drawTextureRegion(texture, x1, y1, x2, y2, s1, t1, s2, t2, c);
+    }
+
+    /**
+     * Draws a texture region on specified coordinates.
+     *
+     * @param texture   The texture to draw from
+     * @param x         X position of the texture
+     * @param y         Y position of the texture
+     * @param regX      X position of the texture region
+     * @param regY      Y position of the texture region
+     * @param regWidth  Width of the texture region
+     * @param regHeight Height of the texture region
+     */
+    default void drawTextureRegion(Texture texture, float x, float y, float regX, float regY, float regWidth, float regHeight) {
+        drawTextureRegion(texture, x, y, regX, regY, regWidth, regHeight, Color.WHITE);
+    }
+
+    /**
+     * Draws a texture region on specified coordinates.
+     *
+     * @param texture   The texture to draw from
+     * @param x         X position of the texture
+     * @param y         Y position of the texture
+     * @param regX      X position of the texture region
+     * @param regY      Y position of the texture region
+     * @param regWidth  Width of the texture region
+     * @param regHeight Height of the texture region
+     * @param c         The color to use
+     */
+    default void drawTextureRegion(Texture texture, float x, float y, float regX, float regY, float regWidth, float regHeight, Color c) {
+        /* Vertex positions */
+        float x1 = x;
+        float y1 = y;
+        float x2 = x + regWidth;
+        float y2 = y + regHeight;
+
+        /* Texture coordinates */
+        float s1 = regX / texture.getWidth();
+        float t1 = regY / texture.getHeight();
+        float s2 = (regX + regWidth) / texture.getWidth();
+        float t2 = (regY + regHeight) / texture.getHeight();
+
+        drawTextureRegion(texture, x1, y1, x2, y2, s1, t1, s2, t2, c);
+    }
+
+    /**
+     * Fills a rect with rounded corners.
+     *
+     * @param x1     Bottom left x position
+     * @param y1     Bottom left y position
+     * @param x2     Top right x position
+     * @param y2     Top right y position
+     * @param radius Corner radius in pixels
+     * @param c      The color to use
+     */
+    default void fillRoundedRect(float x1, float y1, float x2, float y2, float radius, Color c) {
+        drawShape(Shape.ROUNDED_RECT, x1, y1, x2, y2, radius, 0f, c);
+    }
+
+    /**
+     * Draws the border of a rect with rounded corners, the border is inside
+     * the rect.
+     *
+     * @param x1          Bottom left x position
+     * @param y1          Bottom left y position
+     * @param x2          Top right x position
+     * @param y2          Top right y position
+     * @param radius      Corner radius in pixels
+     * @param borderWidth Width of the border in pixels
+     * @param c           The color to use
+     */
+    default void drawRoundedRect(float x1, float y1, float x2, float y2, float radius, float borderWidth, Color c) {
+        drawShape(Shape.ROUNDED_RECT, x1, y1, x2, y2, radius, borderWidth, c);
+    }
+
+    /**
+     * Fills a circle.
+     *
+     * @param x      X position of the center
+     * @param y      Y position of the center
+     * @param radius Radius in pixels
+     * @param c      The color to use
+     */
+    default void fillCircle(float x, float y, float radius, Color c) {
+        drawShape(Shape.ELLIPSE, x - radius, y - radius, x + radius, y + radius, 0f, 0f, c);
+    }
+
+    /**
+     * Draws the border of a circle, the border is inside the circle.
+     *
+     * @param x           X position of the center
+     * @param y           Y position of the center
+     * @param radius      Radius in pixels
+     * @param borderWidth Width of the border in pixels
+     * @param c           The color to use
+     */
+    default void drawCircle(float x, float y, float radius, float borderWidth, Color c) {
+        drawShape(Shape.ELLIPSE, x - radius, y - radius, x + radius, y + radius, 0f, borderWidth, c);
+    }
+
+    /**
+     * Draws the blurred shadow of a rect with rounded corners. The shadow
+     * reaches the blur size out of the rect, it should be drawn before the
+     * rect itself.
+     *
+     * @param x1     Bottom left x position of the rect
+     * @param y1     Bottom left y position of the rect
+     * @param x2     Top right x position of the rect
+     * @param y2     Top right y position of the rect
+     * @param radius Corner radius in pixels
+     * @param blur   Blur size in pixels
+     * @param c      The color to use
+     */
+    default void drawShadow(float x1, float y1, float x2, float y2, float radius, float blur, Color c) {
+        drawShape(Shape.SHADOW, Math.min(x1, x2) - blur, Math.min(y1, y2) - blur,
+                Math.max(x1, x2) + blur, Math.max(y1, y2) + blur, radius, blur, c);
+    }
+
+    /**
+     * Draw text at the specified position and color with a font. The font
+     * has to be created for this renderer.
+     *
+     * @param text Text to draw
+     * @param x    X coordinate of the text position
+     * @param y    Y coordinate of the text position
+     * @param c    Color to use
+     * @param font Font to use
+     */
+    default void drawText(CharSequence text, float x, float y, Color c, Font font) {
+        font.drawText(this, text, x, y, c);
+    }
+}
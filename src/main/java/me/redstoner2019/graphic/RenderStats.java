@@ -0,0 +1,254 @@
+package me.redstoner2019.graphic;
+
+import java.util.Arrays;
+
+/**
+ * Counters of the work done by a {@link Renderer}.
+ * <p>
+ * The counters accumulate until {@link #endFrame()} gets called, which moves
+ * them into a rolling history of the last frames. Reading the stats through
+ * {@link #snapshot(Snapshot)} and {@link #getHistory(Counter, long[])}
+ * doesn't allocate, so it can be done every frame.
+ */
+public class RenderStats {
+
+    /** Number of frames kept in the history. */
+    public static final int HISTORY_SIZE = 120;
+
+    /**
+     * The counters.
+     */
+    public enum Counter {
+        /** Issued draw calls. */
+        DRAW_CALLS,
+        /** Flushes of a batch that had something to draw. */
+        FLUSHES,
+        /** Flushes because the streaming buffer region was full. */
+        FLUSHES_BUFFER_FULL,
+        /** Flushes because all texture slots were taken. */
+        FLUSHES_TEXTURE_CHANGE,
+        /** Flushes because of a program, blend mode or path change. */
+        FLUSHES_STATE_CHANGE,
+        /** Flushes at the end of a batch. */
+        FLUSHES_END,
+        /** Flushes requested by calling {@link Renderer#flush()}. */
+        FLUSHES_EXPLICIT,
+        /** Batched quads. */
+        QUADS,
+        /** Quads and sprites dropped because they were outside the clip rect. */
+        CULLED,
+        /** Quads cut to the clip rect because they crossed its edge. */
+        TRIMMED,
+        /** Instanced sprites. */
+        SPRITES,
+        /** Vertices handed to the GPU, an instance counts as four. */
+        VERTICES,
+        /** Bytes of vertex and instance data handed to the GPU. */
+        BYTES_UPLOADED,
+        /** Texture binds. */
+        TEXTURE_BINDS,
+        /** Program binds. */
+        PROGRAM_BINDS,
+        /** Texture switches that stayed inside a batch. */
+        BATCHED_TEXTURE_SWITCHES,
+        /** Time spent in flushes, in nanoseconds. */
+        FLUSH_TIME
+    }
+
+    /**
+     * Reasons for a flush.
+     */
+    public enum FlushCause {
+        BUFFER_FULL(Counter.FLUSHES_BUFFER_FULL),
+        TEXTURE_CHANGE(Counter.FLUSHES_TEXTURE_CHANGE),
+        STATE_CHANGE(Counter.FLUSHES_STATE_CHANGE),
+        END(Counter.FLUSHES_END),
+        EXPLICIT(Counter.FLUSHES_EXPLICIT);
+
+        private final Counter counter;
+
+        FlushCause(Counter counter) {
+            this.counter = counter;
+        }
+    }
+
+    private static final Counter[] COUNTERS = Counter.values();
+
+    /** Counters of the current frame. */
+    private final long[] current = new long[COUNTERS.length];
+    /** Counters of the last frames, one row per frame. */
+    private final long[][] history = new long[HISTORY_SIZE][COUNTERS.length];
+    private int historyHead;
+    private int historySize;
+
+    /**
+     * Resets the counters of the current frame to zero.
+     */
+    public void reset() {
+        Arrays.fill(current, 0L);
+    }
+
+    /**
+     * Ends the current frame. Its counters get moved into the history and
+     * the counters start again at zero.
+     */
+    public void endFrame() {
+        System.arraycopy(current, 0, history[historyHead], 0, current.length);
+        historyHead = (historyHead + 1) % HISTORY_SIZE;
+        historySize = Math.min(historySize + 1, HISTORY_SIZE);
+        reset();
+    }
+
+    void add(Counter counter, long amount) {
+        current[counter.ordinal()] += amount;
+    }
+
+    void countDrawCall() {
+        current[Counter.DRAW_CALLS.ordinal()]++;
+    }
+
+    void countFlush(FlushCause cause, long nanos) {
+        current[Counter.FLUSHES.ordinal()]++;
+        current[cause.counter.ordinal()]++;
+        current[Counter.FLUSH_TIME.ordinal()] += nanos;
+    }
+
+    void countUpload(int vertices, int bytes) {
+        current[Counter.VERTICES.ordinal()] += vertices;
+        current[Counter.BYTES_UPLOADED.ordinal()] += bytes;
+    }
+
+    void countQuad() {
+        current[Counter.QUADS.ordinal()]++;
+    }
+
+    void countCulled() {
+        current[Counter.CULLED.ordinal()]++;
+    }
+
+    void countTrimmed() {
+        current[Counter.TRIMMED.ordinal()]++;
+    }
+
+    void countSprite() {
+        current[Counter.SPRITES.ordinal()]++;
+    }
+
+    void countTextureBind() {
+        current[Counter.TEXTURE_BINDS.ordinal()]++;
+    }
+
+    void countProgramBind() {
+        current[Counter.PROGRAM_BINDS.ordinal()]++;
+    }
+
+    void countBatchedTextureSwitch() {
+        current[Counter.BATCHED_TEXTURE_SWITCHES.ordinal()]++;
+    }
+
+    /**
+     * Returns a counter of the current frame.
+     *
+     * @param counter The counter
+     *
+     * @return Value of the counter
+     */
+    public long get(Counter counter) {
+        return current[counter.ordinal()];
+    }
+
+    /**
+     * Copies the counters of the last finished frame into a snapshot.
+     *
+     * @param into Snapshot to fill
+     *
+     * @return The filled snapshot
+     */
+    public Snapshot snapshot(Snapshot into) {
+        if (historySize == 0) {
+            Arrays.fill(into.values, 0L);
+        } else {
+            int last = (historyHead + HISTORY_SIZE - 1) % HISTORY_SIZE;
+            System.arraycopy(history[last], 0, into.values, 0, into.values.length);
+        }
+        return into;
+    }
+
+    /**
+     * Copies the history of a counter, from the oldest to the newest frame.
+     *
+     * @param counter The counter
+     * @param into    Array to fill, at most {@link #HISTORY_SIZE} values are
+     *                used
+     *
+     * @return Number of copied frames
+     */
+    public int getHistory(Counter counter, long[] into) {
+        int count = Math.min(historySize, into.length);
+        int start = (historyHead + HISTORY_SIZE - count) % HISTORY_SIZE;
+        for (int i = 0; i < count; i++) {
+            into[i] = history[(start + i) % HISTORY_SIZE][counter.ordinal()];
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of issued draw calls.
+     *
+     * @return Number of draw calls
+     */
+    public int getDrawCalls() {
+        return (int) get(Counter.DRAW_CALLS);
+    }
+
+    /**
+     * Returns the number of batched quads.
+     *
+     * @return Number of quads
+     */
+    public int getQuads() {
+        return (int) get(Counter.QUADS);
+    }
+
+    /**
+     * Returns the number of instanced sprites.
+     *
+     * @return Number of sprites
+     */
+    public int getSprites() {
+        return (int) get(Counter.SPRITES);
+    }
+
+    /**
+     * Returns the number of texture switches that stayed inside a batch
+     * because both textures had a texture slot. Each of them used to cost a
+     * flush and therefore a draw call.
+     *
+     * @return Number of draw calls saved by the texture slots
+     */
+    public int getBatchedTextureSwitches() {
+        return (int) get(Counter.BATCHED_TEXTURE_SWITCHES);
+    }
+
+    /**
+     * Counters of one frame. Create it once and refill it with
+     * {@link RenderStats#snapshot(Snapshot)}.
+     */
+    public static final class Snapshot {
+
+        private final long[] values = new long[COUNTERS.length];
+
+        public long get(Counter counter) {
+            return values[counter.ordinal()];
+        }
+
+        /**
+         * Returns the time spent in flushes.
+         *
+         * @return Flush time in milliseconds
+         */
+        public double getFlushTimeMillis() {
+            return values[Counter.FLUSH_TIME.ordinal()] / 1_000_000.0;
+        }
+    }
+}
@@ -3,53 +3,179 @@ package me.redstoner2019.graphic;
 import java.awt.FontFormatException;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.nio.FloatBuffer;
+import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import me.redstoner2019.font.Font;
+import me.redstoner2019.graphic.RenderStats.FlushCause;
 import me.redstoner2019.math.Matrix4f;
-import me.redstoner2019.math.Vector2f;
 import me.redstoner2019.math.Vector3f;
-import org.lwjgl.glfw.GLFW;
-import org.lwjgl.opengl.GL11;
+import me.redstoner2019.math.Vector4f;
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.system.MemoryUtil;
 
-import static org.lwjgl.opengl.GL11.GL_BLEND;
+import static org.lwjgl.opengl.GL11.GL_COLOR;
 import static org.lwjgl.opengl.GL11.GL_COLOR_BUFFER_BIT;
 import static org.lwjgl.opengl.GL11.GL_DEPTH_BUFFER_BIT;
-import static org.lwjgl.opengl.GL11.GL_ONE_MINUS_SRC_ALPHA;
-import static org.lwjgl.opengl.GL11.GL_SRC_ALPHA;
 import static org.lwjgl.opengl.GL11.GL_TRIANGLES;
-import static org.lwjgl.opengl.GL11.glBlendFunc;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_SHORT;
 import static org.lwjgl.opengl.GL11.glClear;
-import static org.lwjgl.opengl.GL11.glDrawArrays;
-import static org.lwjgl.opengl.GL11.glEnable;
+import static org.lwjgl.opengl.GL11.GL_VIEWPORT;
+import static org.lwjgl.opengl.GL11.glGetInteger;
+import static org.lwjgl.opengl.GL11.glGetIntegerv;
+import static org.lwjgl.opengl.GL11.glViewport;
 import static org.lwjgl.opengl.GL15.GL_ARRAY_BUFFER;
-import static org.lwjgl.opengl.GL15.GL_DYNAMIC_DRAW;
+import static org.lwjgl.opengl.GL15.GL_ELEMENT_ARRAY_BUFFER;
+import static org.lwjgl.opengl.GL15.GL_STATIC_DRAW;
 import static org.lwjgl.opengl.GL20.GL_FRAGMENT_SHADER;
+import static org.lwjgl.opengl.GL20.GL_MAX_TEXTURE_IMAGE_UNITS;
 import static org.lwjgl.opengl.GL20.GL_VERTEX_SHADER;
+import static org.lwjgl.opengl.GL30.glClearBufferfv;
+import static org.lwjgl.opengl.GL32.glDrawElementsBaseVertex;
 
-public class Renderer {
+/**
+ * Draws batched quads with OpenGL.
+ */
+public class Renderer implements RenderBackend {
+
+    /** Maximum number of vertices per batch. */
+    private static final int MAX_VERTICES = 4096;
+    /** Maximum number of quads per batch, each quad uses four vertices. */
+    private static final int MAX_QUADS = MAX_VERTICES / 4;
+    /** Maximum number of texture slots, must match the fragment shader. */
+    private static final int MAX_TEXTURE_SLOTS = 16;
+    /** Default video memory budget of the layer cache. */
+    private static final long LAYER_BUDGET = 64L << 20;
+
+    private final VertexFormat format;
 
     private VertexArrayObject vao;
-    private VertexBufferObject vbo;
+    private StreamingVertexBuffer vbo;
+    private VertexBufferObject ebo;
+    private boolean ownsEbo;
     private ShaderProgram program;
 
-    private FloatBuffer vertices;
+    /** Programs created by this renderer, the index is used in sort keys. */
+    private final List<ShaderProgram> programs = new ArrayList<>();
+    /** Program and blend mode for the next quads. */
+    private ShaderProgram shaderProgram;
+    private BlendMode blendMode = BlendMode.ALPHA;
+    /** Program and blend mode of the current batch. */
+    private ShaderProgram activeProgram;
+    private BlendMode activeBlend;
+
+    /** Instanced sprites, drawn in submission order with the batch. */
+    private InstancedSpriteBatch sprites;
+
+    /** Commands of the deferred mode, or null in immediate mode. */
+    private DrawQueue queue;
+    private final Color queueColor = new Color();
+    private final Matrix4f identity = new Matrix4f();
+    private int layer;
+    private float depth;
+
+    private Matrix4f projection;
+    /** Projection and view shared by all programs. */
+    private PerFrameUniforms frameUniforms;
+
+    private ByteBuffer vertices;
     private int numVertices;
+    private int numIndices;
     private boolean drawing;
 
+    /**
+     * Textures of the texture slots. Slot 0 is the texture the caller bound
+     * to texture unit 0, the other slots are bound to their units by the
+     * renderer.
+     */
+    private Texture[] slots;
+    private int numSlots;
+    private int boundSlots;
+    private int lastSlot;
+
+    private final RenderStats stats = new RenderStats();
+
+    /** Profiler of the flushes, or null. */
+    private GpuProfiler profiler;
+    private int flushScope;
+
     private Font font;
     private Font debugFont;
 
+    /** White texture for solid quads. */
+    private Texture whiteTexture;
+
+    private ClipStack clip = new ClipStack();
+
+    private LayerCache layers;
+    /** Clip stack of the layer that gets drawn. */
+    private final ClipStack layerClip = new ClipStack();
+    /** Clip stack of the screen while a layer gets drawn, or null. */
+    private ClipStack screenClip;
+    private int layerX;
+    private int layerY;
+    private int screenFramebuffer;
+    private final int[] screenViewport = new int[4];
+    private Matrix4f screenProjection;
+    private final float[] clipQuad = new float[8];
+    private boolean clipTrimming;
+
+    /** Mesh that gets captured, or null. */
+    private Mesh.Builder capture;
+    private float captureX;
+    private float captureY;
+    /** Streaming buffer region while a mesh gets captured. */
+    private ByteBuffer streamVertices;
+
+    /** Creates a renderer with the {@link VertexFormat#STANDARD} layout. */
+    public Renderer() {
+        this(VertexFormat.STANDARD);
+    }
+
+    /**
+     * Creates a renderer with the specified vertex layout.
+     *
+     * @param format Layout of the batched vertices
+     */
+    public Renderer(VertexFormat format) {
+        this.format = format;
+    }
+
+    /** Initializes the renderer with its own quad element buffer. */
     public void init() {
+        init(null);
+    }
+
+    /**
+     * Initializes the renderer. The static quad indices get uploaded into the
+     * specified element buffer, so it can be shared by the owner of the
+     * context.
+     *
+     * @param quadIndices Element buffer for the quad indices, or null to let
+     *                    the renderer create its own
+     */
+    public void init(VertexBufferObject quadIndices) {
+        ownsEbo = quadIndices == null;
+        ebo = ownsEbo ? new VertexBufferObject() : quadIndices;
+
         setupShaderProgram();
 
-        glEnable(GL_BLEND);
-        glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            ByteBuffer white = stack.bytes((byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF);
+            whiteTexture = Texture.createTexture(1, 1, white);
+        }
+
+        layers = new LayerCache(LAYER_BUDGET);
+
+        GLState.current().setBlend(true);
+        blendMode.apply();
+        activeBlend = blendMode;
 
         try {
             font = new Font(new FileInputStream("resources/Inconsolata.ttf"), 16);
@@ -73,47 +199,592 @@ public class Renderer {
         }
         drawing = true;
         numVertices = 0;
+        numIndices = 0;
+
+        /* The clip stack starts with the viewport */
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            IntBuffer viewport = stack.mallocInt(4);
+            glGetIntegerv(GL_VIEWPORT, viewport);
+            clip.reset(viewport.get(0), viewport.get(1), viewport.get(2), viewport.get(3));
+        }
+        GLState.current().setScissorTest(false);
     }
 
     /**
-     * End rendering.
+     * End rendering. In deferred mode the recorded quads get sorted and
+     * drawn now.
      */
     public void end() {
         if (!drawing) {
             throw new IllegalStateException("Renderer isn't drawing!");
         }
+        if (clip.getDepth() > 0) {
+            throw new IllegalStateException("Clip rect wasn't popped!");
+        }
+        if (capture != null) {
+            throw new IllegalStateException("Capture wasn't ended!");
+        }
+        if (screenClip != null) {
+            throw new IllegalStateException("Layer wasn't ended!");
+        }
         drawing = false;
-        flush();
+        if (queue != null) {
+            flushQueue();
+        }
+        flush(FlushCause.END);
+    }
+
+    /**
+     * Restricts drawing to a rect, intersected with the current clip rect.
+     * Quads completely outside of it are dropped before they get written,
+     * the rest is clipped with the scissor test. Pending quads get drawn
+     * first, also in deferred mode.
+     *
+     * @param x      Left edge in pixels
+     * @param y      Bottom edge in pixels
+     * @param width  Width in pixels
+     * @param height Height in pixels
+     */
+    public void pushClip(int x, int y, int width, int height) {
+        if (!drawing) {
+            throw new IllegalStateException("Renderer isn't drawing!");
+        }
+        if (capture != null) {
+            throw new IllegalStateException("Clip rects can't be captured!");
+        }
+        flushClipped();
+        clip.push(x, y, width, height);
+        applyScissor();
+    }
+
+    /**
+     * Restores the clip rect that was current before the last
+     * {@link #pushClip(int, int, int, int)}.
+     */
+    public void popClip() {
+        if (!drawing) {
+            throw new IllegalStateException("Renderer isn't drawing!");
+        }
+        if (capture != null) {
+            throw new IllegalStateException("Clip rects can't be captured!");
+        }
+        flushClipped();
+        clip.pop();
+        applyScissor();
+    }
+
+    public boolean isOutsideClip(float x1, float y1, float x2, float y2) {
+        if (capture != null) {
+            /* Captured meshes get drawn at other positions */
+            return false;
+        }
+        return clip.isOutside(Math.min(x1, x2), Math.min(y1, y2), Math.max(x1, x2), Math.max(y1, y2));
+    }
+
+    /**
+     * Enables cutting quads that cross the edge of the clip rect, their
+     * texture coordinates get adjusted. Without it those quads are left to
+     * the scissor test.
+     *
+     * @param clipTrimming true to cut quads, false to leave them
+     */
+    public void setClipTrimming(boolean clipTrimming) {
+        this.clipTrimming = clipTrimming;
+    }
+
+    public boolean isClipTrimming() {
+        return clipTrimming;
+    }
+
+    /**
+     * Draws the pending quads with the current clip rect.
+     */
+    private void flushClipped() {
+        if (queue != null) {
+            flushQueue();
+        }
+        flush(FlushCause.STATE_CHANGE);
+    }
+
+    private void applyScissor() {
+        GLState state = GLState.current();
+        if (clip.getDepth() == 0) {
+            state.setScissorTest(false);
+            return;
+        }
+        /* Inside a layer the clip rects are relative to the layer origin */
+        state.scissor(clip.getX() - layerX, clip.getY() - layerY, clip.getWidth(), clip.getHeight());
+        state.setScissorTest(true);
+    }
+
+    /**
+     * Switches between immediate and deferred mode. In immediate mode quads
+     * are drawn in submission order. In deferred mode they are recorded until
+     * {@link #end()} and then sorted by layer, shader program, texture, blend
+     * mode and depth, so quads with the same state end up in the same batch.
+     * Quads that overlap and need a specific order have to be put on
+     * different layers or depths.
+     *
+     * @param deferred true for deferred mode, false for immediate mode
+     */
+    public void setDeferred(boolean deferred) {
+        if (drawing) {
+            throw new IllegalStateException("Can't change the mode while drawing!");
+        }
+        queue = deferred ? new DrawQueue() : null;
+    }
+
+    public boolean isDeferred() {
+        return queue != null;
+    }
+
+    /**
+     * Sets the layer of the next quads in deferred mode. Lower layers get
+     * drawn first.
+     *
+     * @param layer Layer from 0 to 255
+     */
+    public void setLayer(int layer) {
+        if (layer < 0 || layer > DrawQueue.MAX_LAYER) {
+            throw new IllegalArgumentException("Layer must be between 0 and " + DrawQueue.MAX_LAYER + "!");
+        }
+        this.layer = layer;
+    }
+
+    public int getLayer() {
+        return layer;
+    }
+
+    /**
+     * Sets the depth of the next quads in deferred mode. Within a layer and
+     * state lower depths get drawn first.
+     *
+     * @param depth Depth from 0 to 1
+     */
+    public void setDepth(float depth) {
+        this.depth = Math.max(0f, Math.min(1f, depth));
+    }
+
+    public float getDepth() {
+        return depth;
+    }
+
+    /**
+     * Sets the blend mode of the next quads.
+     *
+     * @param blendMode The blend mode
+     */
+    public void setBlendMode(BlendMode blendMode) {
+        this.blendMode = blendMode;
+    }
+
+    public BlendMode getBlendMode() {
+        return blendMode;
+    }
+
+    /**
+     * Sets the shader program of the next quads. The program has to be
+     * created with {@link #createShaderProgram(String, String)}.
+     *
+     * @param shaderProgram The program, or null for the default program
+     */
+    public void setShaderProgram(ShaderProgram shaderProgram) {
+        if (shaderProgram != null && !programs.contains(shaderProgram)) {
+            throw new IllegalArgumentException("Program wasn't created by this renderer!");
+        }
+        this.shaderProgram = shaderProgram != null ? shaderProgram : program;
+    }
+
+    public ShaderProgram getShaderProgram() {
+        return shaderProgram;
     }
 
     /**
-     * Flushes the data to the GPU to let it get rendered.
+     * Creates a shader program that can be used for the batch. The shaders
+     * have to use the same vertex attributes and uniforms as
+     * <code>default.vert</code> and <code>default.frag</code>, including the
+     * <code>PerFrame</code> uniform block.
+     *
+     * @param vertexPath   Resource path of the vertex shader
+     * @param fragmentPath Resource path of the fragment shader
+     *
+     * @return The linked program
+     */
+    public ShaderProgram createShaderProgram(String vertexPath, String fragmentPath) {
+        if (programs.size() == DrawQueue.MAX_SHADERS) {
+            throw new IllegalStateException("Can't create more than " + DrawQueue.MAX_SHADERS + " programs!");
+        }
+
+        ShaderProgram shader = linkProgram(vertexPath, fragmentPath, false);
+        programs.add(shader);
+        return shader;
+    }
+
+    /**
+     * Loads, links and initializes a program.
+     *
+     * @param vertexPath   Resource path of the vertex shader
+     * @param fragmentPath Resource path of the fragment shader
+     * @param instanced    true for the instance layout of the sprites, false
+     *                     for the vertex layout of the batch
+     *
+     * @return The linked program
+     */
+    private ShaderProgram linkProgram(String vertexPath, String fragmentPath, boolean instanced) {
+        Shader vertexShader, fragmentShader;
+        vertexShader = Shader.loadShader(GL_VERTEX_SHADER, vertexPath);
+        fragmentShader = Shader.loadShader(GL_FRAGMENT_SHADER, fragmentPath);
+
+        ShaderProgram shader = new ShaderProgram();
+        shader.attachShader(vertexShader);
+        shader.attachShader(fragmentShader);
+        if (instanced) {
+            InstancedSpriteBatch.bindAttributeLocations(shader);
+        } else {
+            VertexFormat.bindAttributeLocations(shader);
+        }
+        shader.bindFragmentDataLocation(0, "fragColor");
+        shader.link();
+        shader.use();
+
+        vertexShader.delete();
+        fragmentShader.delete();
+
+        for (int i = 0; i < MAX_TEXTURE_SLOTS; i++) {
+            int uniTex = shader.getUniformLocation("texImage[" + i + "]");
+            shader.setUniform(uniTex, i < slots.length ? i : 0);
+        }
+
+        Matrix4f model = new Matrix4f();
+        int uniModel = shader.getUniformLocation("model");
+        shader.setUniform(uniModel, model);
+
+        if (!frameUniforms.bind(shader)) {
+            throw new IllegalStateException("Program has no " + PerFrameUniforms.BLOCK_NAME + " uniform block!");
+        }
+
+        if (activeProgram != null) {
+            activeProgram.use();
+        }
+        return shader;
+    }
+
+    /**
+     * Sorts the recorded quads and draws them with as few batches as
+     * possible.
+     */
+    private void flushQueue() {
+        DrawQueue commands = queue;
+        commands.sort();
+
+        for (int i = 0; i < commands.size(); i++) {
+            int command = commands.command(i);
+            applyState(commands.program(command), commands.blend(command));
+
+            /* Only shapes come without texture, they ignore what slot 0 samples */
+            Texture texture = commands.texture(command);
+            int slot = texture == null ? 0 : slotOf(texture);
+            int params = slot | commands.shape(command);
+            queueColor.setPacked(commands.color(command));
+            drawQuad(commands.coord(command, 0), commands.coord(command, 1),
+                    commands.coord(command, 2), commands.coord(command, 3),
+                    commands.coord(command, 4), commands.coord(command, 5),
+                    commands.coord(command, 6), commands.coord(command, 7),
+                    queueColor, params);
+        }
+        commands.clear();
+    }
+
+    /**
+     * Makes sure the current batch uses the specified program and blend mode,
+     * the batch gets flushed if it doesn't.
+     */
+    private void applyState(ShaderProgram shader, BlendMode blend) {
+        if (shader != activeProgram || blend != activeBlend) {
+            flush(FlushCause.STATE_CHANGE);
+            activeProgram = shader;
+            if (blend != activeBlend) {
+                blend.apply();
+                activeBlend = blend;
+            }
+        }
+    }
+
+    /**
+     * Draws or records a quad, depending on the mode.
+     *
+     * @param shape Packed {@link Shape}, or 0 for a textured quad
+     */
+    private void submitQuad(Texture texture, float x1, float y1, float x2, float y2, float s1, float t1, float s2, float t2, Color c, int shape) {
+        if (capture != null) {
+            /* Meshes are drawn at other positions, so nothing gets culled */
+            applyState(shaderProgram, blendMode);
+            drawQuad(x1 - captureX, y1 - captureY, x2 - captureX, y2 - captureY, s1, t1, s2, t2, c,
+                    (texture == null ? 0 : slotOf(texture)) | shape);
+            return;
+        }
+
+        float[] quad = clipQuad;
+        quad[0] = x1;
+        quad[1] = y1;
+        quad[2] = x2;
+        quad[3] = y2;
+        quad[4] = s1;
+        quad[5] = t1;
+        quad[6] = s2;
+        quad[7] = t2;
+        switch (clip.clip(quad, clipTrimming)) {
+            case ClipStack.OUTSIDE:
+                stats.countCulled();
+                return;
+            case ClipStack.TRIMMED:
+                stats.countTrimmed();
+                x1 = quad[0];
+                y1 = quad[1];
+                x2 = quad[2];
+                y2 = quad[3];
+                s1 = quad[4];
+                t1 = quad[5];
+                s2 = quad[6];
+                t2 = quad[7];
+                break;
+            default:
+                break;
+        }
+
+        if (queue != null) {
+            if (queue.size() == DrawQueue.MAX_COMMANDS) {
+                flushQueue();
+            }
+            int shader = programs.indexOf(shaderProgram);
+            queue.add(layer, shader, shaderProgram, texture, blendMode, depth, x1, y1, x2, y2, s1, t1, s2, t2, c.getPacked(), shape);
+            return;
+        }
+        applyState(shaderProgram, blendMode);
+        drawQuad(x1, y1, x2, y2, s1, t1, s2, t2, c, (texture == null ? 0 : slotOf(texture)) | shape);
+    }
+
+    /**
+     * Flushes the data to the GPU to let it get rendered. The vertices are
+     * already in the streaming buffer, so this only commits the written range
+     * and issues the draw call.
      */
     public void flush() {
+        flush(FlushCause.EXPLICIT);
+    }
+
+    /**
+     * Draws the pending quads, in deferred mode the recorded ones first.
+     */
+    @Override
+    public void flushAll() {
+        if (queue != null) {
+            flushQueue();
+        }
+        flush(FlushCause.EXPLICIT);
+    }
+
+    private void flush(FlushCause cause) {
+        if (sprites.getNumInstances() == 0 && numVertices == 0) {
+            return;
+        }
+        if (capture != null) {
+            /* The batch becomes a part of the mesh instead of getting drawn */
+            capture.addPart(activeProgram, activeBlend, slots, numSlots, numVertices);
+            numVertices = 0;
+            numIndices = 0;
+            return;
+        }
+        long start = System.nanoTime();
+        if (profiler != null) {
+            profiler.begin(flushScope);
+        }
+
+        int instances = sprites.getNumInstances();
+        if (instances > 0) {
+            bindTextureSlots();
+            sprites.draw();
+            stats.countProgramBind();
+            stats.countDrawCall();
+            stats.countUpload(instances * 4, instances * InstancedSpriteBatch.INSTANCE_SIZE);
+        }
         if (numVertices > 0) {
-            vertices.flip();
+            /* Hand the written range to the GPU */
+            long offset = vbo.commit();
+
+            bindTextureSlots();
 
             if (vao != null) {
                 vao.bind();
             } else {
                 vbo.bind(GL_ARRAY_BUFFER);
+                ebo.bind(GL_ELEMENT_ARRAY_BUFFER);
                 specifyVertexAttributes();
             }
-            program.use();
+            activeProgram.use();
+            stats.countProgramBind();
 
-            /* Upload the new vertex data */
-            vbo.bind(GL_ARRAY_BUFFER);
-            vbo.uploadSubData(GL_ARRAY_BUFFER, 0, vertices);
+            /* Draw batch, the indices always start at the first vertex of the batch */
+            glDrawElementsBaseVertex(GL_TRIANGLES, numIndices, GL_UNSIGNED_SHORT, 0L, (int) (offset / format.getSize()));
+            stats.countDrawCall();
+            stats.countUpload(numVertices, numVertices * format.getSize());
 
-            /* Draw batch */
-            glDrawArrays(GL_TRIANGLES, 0, numVertices);
-
-            /* Clear vertex data for next batch */
-            vertices.clear();
+            /* Start the next batch behind this one */
             numVertices = 0;
+            numIndices = 0;
+        }
+
+        if (profiler != null) {
+            profiler.end();
+        }
+        stats.countFlush(cause, System.nanoTime() - start);
+    }
+
+    /**
+     * Returns the texture slot of a texture. Textures without a slot get the
+     * next free one, if all slots are taken the batch gets flushed and the
+     * slots are handed out again.
+     *
+     * @param texture The texture
+     *
+     * @return Slot of the texture
+     */
+    private int slotOf(Texture texture) {
+        for (int i = 1; i < numSlots; i++) {
+            if (slots[i] == texture) {
+                return i;
+            }
+        }
+        if (numSlots == slots.length) {
+            flush(FlushCause.TEXTURE_CHANGE);
+            resetSlots();
+        }
+        slots[numSlots] = texture;
+        return numSlots++;
+    }
+
+    /**
+     * Hands out the texture slots from the start again, the batch has to be
+     * flushed before.
+     */
+    private void resetSlots() {
+        Arrays.fill(slots, 1, numSlots, null);
+        numSlots = 1;
+        boundSlots = 1;
+    }
+
+    /**
+     * Binds the textures of the slots that got handed out since the last
+     * flush to their texture units.
+     */
+    private void bindTextureSlots() {
+        if (boundSlots < numSlots) {
+            for (int i = boundSlots; i < numSlots; i++) {
+                slots[i].bind(i);
+                stats.countTextureBind();
+            }
+            boundSlots = numSlots;
+            GLState.current().activeTexture(0);
+        }
+    }
+
+    /**
+     * Sets the projection of every program of this renderer, for example
+     * after the framebuffer got resized.
+     *
+     * @param projection The projection matrix
+     */
+    public void setProjection(Matrix4f projection) {
+        this.projection = projection;
+        frameUniforms.setProjection(projection);
+    }
+
+    public Matrix4f getProjection() {
+        return projection;
+    }
+
+    /**
+     * Sets the view of every program of this renderer. Views that only
+     * scroll and zoom keep the culling against the clip rect, other views
+     * turn it off and leave clipping to the scissor test.
+     *
+     * @param view The view matrix
+     */
+    public void setView(Matrix4f view) {
+        frameUniforms.setView(view);
+
+        /* Three points are enough to tell scale and offset of a 2D view */
+        Vector4f origin = view.multiply(new Vector4f(0f, 0f, 0f, 1f));
+        Vector4f unitX = view.multiply(new Vector4f(1f, 0f, 0f, 1f));
+        Vector4f unitY = view.multiply(new Vector4f(0f, 1f, 0f, 1f));
+        float scaleX = unitX.x - origin.x;
+        float scaleY = unitY.y - origin.y;
+        boolean axisAligned = origin.w == 1f && unitX.w == 1f && unitY.w == 1f
+                && unitX.y == origin.y && unitY.x == origin.x && scaleX != 0f && scaleY != 0f;
+        /* Both stacks, drawing may be inside a layer */
+        ClipStack[] stacks = {screenClip != null ? screenClip : clip, layerClip};
+        for (ClipStack stack : stacks) {
+            if (axisAligned) {
+                stack.setView(scaleX, scaleY, origin.x, origin.y);
+            } else {
+                stack.disableCulling();
+            }
+        }
+    }
+
+    /**
+     * Returns the counters of this renderer.
+     *
+     * @return Render statistics
+     */
+    public RenderStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Sets the profiler that measures the flushes of this renderer in the
+     * scope <code>"flush"</code>.
+     *
+     * @param profiler The profiler, or null to stop profiling
+     */
+    public void setProfiler(GpuProfiler profiler) {
+        this.profiler = profiler;
+        if (profiler != null) {
+            flushScope = profiler.scope("flush");
         }
     }
 
+    public GpuProfiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * Checks if the renderer is between {@link #begin()} and {@link #end()}.
+     *
+     * @return true, if the renderer is drawing, else false
+     */
+    public boolean isDrawing() {
+        return drawing;
+    }
+
+    /**
+     * Flushes the current batch and moves the streaming buffer on to its next
+     * region, so there is room for a full batch again.
+     */
+    private void nextRegion() {
+        flush(FlushCause.BUFFER_FULL);
+        if (capture != null) {
+            vertices = capture.ensureCapacity(MAX_VERTICES * format.getSize());
+            return;
+        }
+        vbo.advance();
+        vertices = vbo.getBuffer();
+    }
+
+    public VertexFormat getVertexFormat() {
+        return format;
+    }
+
     /**
      * Calculates total width of a text.
      *
@@ -191,9 +862,6 @@ public class Renderer {
     public void drawText(CharSequence text, float x, float y, Color c) {
         font.drawText(this, text, x, y, c);
     }
-    public void drawText(CharSequence text, float x, float y, Color c, Font f) {
-        f.drawText(this, text, x, y, c);
-    }
 
     /**
      * Draw debug text at the specified position and color.
@@ -208,169 +876,473 @@ public class Renderer {
     }
 
     /**
-     * Draws the currently bound texture on specified coordinates.
+     * Draws a texture region with the currently bound texture on specified
+     * coordinates.
      *
-     * @param texture Used for getting width and height of the texture
-     * @param x       X position of the texture
-     * @param y       Y position of the texture
+     * @param x1 Bottom left x position
+     * @param y1 Bottom left y position
+     * @param x2 Top right x position
+     * @param y2 Top right y position
+     * @param s1 Bottom left s coordinate
+     * @param t1 Bottom left t coordinate
+     * @param s2 Top right s coordinate
+     * @param t2 Top right t coordinate
      */
-    public void drawTexture(Texture texture, float x, float y) {
-        drawTexture(texture, x, y, Color.WHITE);
+    public void drawTextureRegion(float x1, float y1, float x2, float y2, float s1, float t1, float s2, float t2) {
+        drawTextureRegion(x1, y1, x2, y2, s1, t1, s2, t2, Color.WHITE);
     }
 
     /**
-     * Draws the currently bound texture on specified coordinates and with
-     * specified color.
+     * Draws a texture region with the currently bound texture on specified
+     * coordinates.
      *
-     * @param texture Used for getting width and height of the texture
-     * @param x       X position of the texture
-     * @param y       Y position of the texture
+     * @param x1 Bottom left x position
+     * @param y1 Bottom left y position
+     * @param x2 Top right x position
+     * @param y2 Top right y position
+     * @param s1 Bottom left s coordinate
+     * @param t1 Bottom left t coordinate
+     * @param s2 Top right s coordinate
+     * @param t2 Top right t coordinate
+     * @param c  The color to use
+     *
+     * @throws IllegalStateException In deferred mode or while capturing, the
+     *                               quad would be drawn with whatever is bound
+     *                               later
+     */
+    public void drawTextureRegion(float x1, float y1, float x2, float y2, float s1, float t1, float s2, float t2, Color c) {
+        if (queue != null || capture != null) {
+            throw new IllegalStateException("Quads with the bound texture can't be deferred or captured, pass the texture!");
+        }
+        submitQuad(null, x1, y1, x2, y2, s1, t1, s2, t2, c, 0);
+    }
+
+    /**
+     * Draws a texture region on specified coordinates. The texture gets a
+     * texture slot, so switching between textures does not break the batch.
+     *
+     * @param texture The texture to draw from
+     * @param x1      Bottom left x position
+     * @param y1      Bottom left y position
+     * @param x2      Top right x position
+     * @param y2      Top right y position
+     * @param s1      Bottom left s coordinate
+     * @param t1      Bottom left t coordinate
+     * @param s2      Top right s coordinate
+     * @param t2      Top right t coordinate
      * @param c       The color to use
      */
-    public void drawTexture(Texture texture, float x, float y, Color c) {
-        /* Vertex positions */
-        float x1 = x;
-        float y1 = y;
-        float x2 = x1 + texture.getWidth();
-        float y2 = y1 + texture.getHeight();
+    public void drawTextureRegion(Texture texture, float x1, float y1, float x2, float y2, float s1, float t1, float s2, float t2, Color c) {
+        submitQuad(texture, x1, y1, x2, y2, s1, t1, s2, t2, c, 0);
+    }
 
-        /* Texture coordinates */
-        float s1 = 0f;
-        float t1 = 0f;
-        float s2 = 1f;
-        float t2 = 1f;
+    /**
+     * Draws a region of a distance field texture. The shader reconstructs
+     * the edge from the derivative of the distance, so the texture should
+     * be filtered linearly.
+     *
+     * @param texture The texture to draw from
+     * @param x1      Bottom left x position
+     * @param y1      Bottom left y position
+     * @param x2      Top right x position
+     * @param y2      Top right y position
+     * @param s1      Bottom left s coordinate
+     * @param t1      Bottom left t coordinate
+     * @param s2      Top right s coordinate
+     * @param t2      Top right t coordinate
+     * @param spread  Distance in texels that maps to the full alpha range
+     * @param c       The color to use
+     */
+    public void drawDistanceField(Texture texture, float x1, float y1, float x2, float y2, float s1, float t1, float s2, float t2, float spread, Color c) {
+        submitQuad(texture, x1, y1, x2, y2, s1, t1, s2, t2, c, Shape.DISTANCE_FIELD.pack(0f, spread));
+    }
 
-        drawTextureRegion(x1, y1, x2, y2, s1, t1, s2, t2, c);
+    /**
+     * Fills a rectangle with a solid color. The quad uses a white texture, so
+     * it batches with textured quads.
+     *
+     * @param x1 Bottom left x position
+     * @param y1 Bottom left y position
+     * @param x2 Top right x position
+     * @param y2 Top right y position
+     * @param c  The color to use
+     */
+    public void fillRect(float x1, float y1, float x2, float y2, Color c) {
+        submitQuad(whiteTexture, x1, y1, x2, y2, 0f, 0f, 1f, 1f, c, 0);
     }
 
     /**
-     * Draws a texture region with the currently bound texture on specified
-     * coordinates.
+     * Draws a shape as one quad, the shader evaluates its distance function.
+     * Shapes need no texture, so they batch with everything else. Their
+     * edges are antialiased through the alpha, so they are meant for the
+     * {@link BlendMode#ALPHA} and {@link BlendMode#ADDITIVE} modes.
      *
-     * @param texture   Used for getting width and height of the texture
-     * @param x         X position of the texture
-     * @param y         Y position of the texture
-     * @param regX      X position of the texture region
-     * @param regY      Y position of the texture region
-     * @param regWidth  Width of the texture region
-     * @param regHeight Height of the texture region
+     * @param shape  The shape
+     * @param x1     Bottom left x position of the quad
+     * @param y1     Bottom left y position of the quad
+     * @param x2     Top right x position of the quad
+     * @param y2     Top right y position of the quad
+     * @param radius Corner radius in pixels, up to {@link Shape#MAX_PARAMETER}
+     * @param size   Border width or blur size in pixels, 0 to fill
+     * @param c      The color to use
      */
-    public void drawTextureRegion(Texture texture, float x, float y, float regX, float regY, float regWidth, float regHeight) {
-        drawTextureRegion(texture, x, y, regX, regY, regWidth, regHeight, Color.WHITE);
+    public void drawShape(Shape shape, float x1, float y1, float x2, float y2, float radius, float size, Color c) {
+        if (shape == Shape.DISTANCE_FIELD) {
+            throw new IllegalArgumentException("Distance fields need a texture!");
+        }
+        submitQuad(null, x1, y1, x2, y2, 0f, 0f, 1f, 1f, c, shape.pack(radius, size));
     }
 
     /**
-     * Draws a texture region with the currently bound texture on specified
-     * coordinates.
+     * Returns the layer of an owner from the layer cache. If the layer has
+     * to be created the batch gets drawn first, because an eviction may
+     * delete textures of pending quads.
+     *
+     * @param owner  Owner of the layer
+     * @param width  Width in pixels
+     * @param height Height in pixels
      *
-     * @param texture   Used for getting width and height of the texture
-     * @param x         X position of the texture
-     * @param y         Y position of the texture
-     * @param regX      X position of the texture region
-     * @param regY      Y position of the texture region
-     * @param regWidth  Width of the texture region
-     * @param regHeight Height of the texture region
-     * @param c         The color to use
+     * @return The layer, or null if it doesn't fit into the budget
      */
-    public void drawTextureRegion(Texture texture, float x, float y, float regX, float regY, float regWidth, float regHeight, Color c) {
-        /* Vertex positions */
-        float x1 = x;
-        float y1 = y;
-        float x2 = x + regWidth;
-        float y2 = y + regHeight;
+    public LayerCache.Layer acquireLayer(Object owner, int width, int height) {
+        if (!layers.contains(owner, width, height)) {
+            if (queue != null) {
+                flushQueue();
+            }
+            flush(FlushCause.STATE_CHANGE);
+            resetSlots();
+        }
+        return layers.acquire(owner, width, height);
+    }
 
-        /* Texture coordinates */
-        float s1 = regX / texture.getWidth();
-        float t1 = regY / texture.getHeight();
-        float s2 = (regX + regWidth) / texture.getWidth();
-        float t2 = (regY + regHeight) / texture.getHeight();
+    public LayerCache getLayerCache() {
+        return layers;
+    }
 
-        drawTextureRegion(x1, y1, x2, y2, s1, t1, s2, t2, c);
+    /**
+     * Redirects drawing into a layer until {@link #endLayer()}. The layer
+     * gets cleared and covers the rect of its size at the specified
+     * position, so the same coordinates as on the screen can be used.
+     * Layers can't be nested.
+     *
+     * @param layer The layer
+     * @param x     Left edge of the layer
+     * @param y     Bottom edge of the layer
+     */
+    public void beginLayer(LayerCache.Layer layer, int x, int y) {
+        if (!drawing) {
+            throw new IllegalStateException("Renderer isn't drawing!");
+        }
+        if (capture != null) {
+            throw new IllegalStateException("Layers can't be captured!");
+        }
+        if (screenClip != null) {
+            throw new IllegalStateException("Layers can't be nested!");
+        }
+        if (queue != null) {
+            flushQueue();
+        }
+        flush(FlushCause.STATE_CHANGE);
+
+        GLState state = GLState.current();
+        screenFramebuffer = state.getFramebuffer();
+        glGetIntegerv(GL_VIEWPORT, screenViewport);
+        screenProjection = projection;
+
+        int width = layer.getWidth();
+        int height = layer.getHeight();
+        layer.getFramebuffer().bind();
+        glViewport(0, 0, width, height);
+        setProjection(Matrix4f.orthographic(x, x + width, y, y + height, -1f, 1f));
+
+        screenClip = clip;
+        clip = layerClip;
+        clip.reset(x, y, width, height);
+        layerX = x;
+        layerY = y;
+        applyScissor();
+
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            glClearBufferfv(GL_COLOR, 0, stack.floats(0f, 0f, 0f, 0f));
+        }
     }
 
     /**
-     * Draws a texture region with the currently bound texture on specified
-     * coordinates.
+     * Draws the pending quads into the layer and goes back to the screen.
+     */
+    public void endLayer() {
+        if (screenClip == null) {
+            throw new IllegalStateException("Renderer isn't drawing a layer!");
+        }
+        if (clip.getDepth() > 0) {
+            throw new IllegalStateException("Clip rect wasn't popped!");
+        }
+        if (queue != null) {
+            flushQueue();
+        }
+        flush(FlushCause.STATE_CHANGE);
+
+        GLState.current().bindFramebuffer(screenFramebuffer);
+        glViewport(screenViewport[0], screenViewport[1], screenViewport[2], screenViewport[3]);
+        setProjection(screenProjection);
+
+        clip = screenClip;
+        screenClip = null;
+        layerX = 0;
+        layerY = 0;
+        applyScissor();
+    }
+
+    public boolean isDrawingLayer() {
+        return screenClip != null;
+    }
+
+    /**
+     * Draws a layer as one quad. Layers hold premultiplied colors, so they
+     * are always drawn with {@link BlendMode#PREMULTIPLIED}.
      *
-     * @param x1 Bottom left x position
-     * @param y1 Bottom left y position
-     * @param x2 Top right x position
-     * @param y2 Top right y position
-     * @param s1 Bottom left s coordinate
-     * @param t1 Bottom left t coordinate
-     * @param s2 Top right s coordinate
-     * @param t2 Top right t coordinate
+     * @param layer The layer
+     * @param x     Left edge of the layer
+     * @param y     Bottom edge of the layer
      */
-    public void drawTextureRegion(float x1, float y1, float x2, float y2, float s1, float t1, float s2, float t2) {
-        drawTextureRegion(x1, y1, x2, y2, s1, t1, s2, t2, Color.WHITE);
+    public void drawLayer(LayerCache.Layer layer, int x, int y) {
+        BlendMode previous = blendMode;
+        blendMode = BlendMode.PREMULTIPLIED;
+        submitQuad(layer.getTexture(), x, y, x + layer.getWidth(), y + layer.getHeight(), 0f, 0f, 1f, 1f, Color.WHITE, 0);
+        blendMode = previous;
     }
 
-    public void drawTriangle(Vector2f v1, Vector2f v2, Vector2f v3, Color c){
-        //GL11.glColor3f(1.0f, 0.0f, 0.0f); // Red color
+    /**
+     * Starts capturing a mesh. Until {@link #endCapture()} the quads are
+     * written into the mesh instead of being drawn, relative to the origin.
+     * Nothing gets culled while capturing, clip rects and instanced sprites
+     * are not supported.
+     *
+     * @param originX X position that becomes 0 in the mesh
+     * @param originY Y position that becomes 0 in the mesh
+     */
+    public void beginCapture(float originX, float originY) {
+        if (!drawing) {
+            throw new IllegalStateException("Renderer isn't drawing!");
+        }
+        if (capture != null) {
+            throw new IllegalStateException("Renderer is already capturing!");
+        }
+        if (queue != null) {
+            flushQueue();
+        }
+        flush(FlushCause.STATE_CHANGE);
+        /* The mesh only keeps the textures it uses */
+        resetSlots();
+
+        capture = new Mesh.Builder(format, MAX_VERTICES);
+        captureX = originX;
+        captureY = originY;
+        streamVertices = vertices;
+        vertices = capture.ensureCapacity(MAX_VERTICES * format.getSize());
+    }
 
-        // Draw the triangle
+    /**
+     * Ends capturing and uploads the captured quads.
+     *
+     * @return The mesh, it has to be deleted by the caller
+     */
+    public Mesh endCapture() {
+        if (capture == null) {
+            throw new IllegalStateException("Renderer isn't capturing!");
+        }
+        flush(FlushCause.STATE_CHANGE);
+
+        Mesh mesh = capture.build(ebo, program);
+        capture = null;
+        resetSlots();
+        vertices = streamVertices;
+        streamVertices = null;
+        return mesh;
+    }
 
-        /*begin();
+    public boolean isCapturing() {
+        return capture != null;
+    }
 
-        //GL11.glBegin(GL11.GL_TRIANGLES);
-        GL11.glColor3f(1.0f, 0.0f, 0.0f);
-        GL11.glVertex2f(-0.5f, -0.5f); // Vertex 1
-        GL11.glVertex2f(0.5f, -0.5f);  // Vertex 2
-        GL11.glVertex2f(0.0f, 0.5f);   // Vertex 3
+    /**
+     * Draws a captured mesh moved to a position. Every part of the mesh is
+     * one draw call, the vertices are not uploaded again. In deferred mode
+     * the recorded quads get drawn first.
+     *
+     * @param mesh The mesh
+     * @param x    X position of the origin of the mesh
+     * @param y    Y position of the origin of the mesh
+     */
+    public void drawMesh(Mesh mesh, float x, float y) {
+        if (!drawing) {
+            throw new IllegalStateException("Renderer isn't drawing!");
+        }
+        if (capture != null) {
+            throw new IllegalStateException("Meshes can't be drawn while capturing!");
+        }
+        if (queue != null) {
+            flushQueue();
+        }
+        flush(FlushCause.STATE_CHANGE);
+
+        for (int part = 0; part < mesh.getPartCount(); part++) {
+            BlendMode blend = mesh.getBlend(part);
+            if (blend != activeBlend) {
+                blend.apply();
+                activeBlend = blend;
+            }
+
+            Texture[] textures = mesh.getTextures(part);
+            for (int i = 1; i < textures.length; i++) {
+                textures[i].bind(i);
+                stats.countTextureBind();
+            }
+            GLState.current().activeTexture(0);
+
+            ShaderProgram shader = mesh.getProgram(part);
+            shader.use();
+            stats.countProgramBind();
+            int uniModel = shader.getUniformLocation("model");
+            shader.setUniform(uniModel, mesh.getModel(x, y));
+            mesh.draw(part);
+            shader.setUniform(uniModel, identity);
+            stats.countDrawCall();
+        }
 
-        end();*/
+        /* The units of the batch slots got used by the mesh */
+        boundSlots = 1;
+        vao.bind();
     }
 
     /**
-     * Draws a texture region with the currently bound texture on specified
-     * coordinates.
+     * Creates a GL texture.
      *
-     * @param x1 Bottom left x position
-     * @param y1 Bottom left y position
-     * @param x2 Top right x position
-     * @param y2 Top right y position
-     * @param s1 Bottom left s coordinate
-     * @param t1 Bottom left t coordinate
-     * @param s2 Top right s coordinate
-     * @param t2 Top right t coordinate
-     * @param c  The color to use
+     * @param width  Width of the texture
+     * @param height Height of the texture
+     * @param data   RGBA pixels
+     *
+     * @return The texture
      */
-    public void drawTextureRegion(float x1, float y1, float x2, float y2, float s1, float t1, float s2, float t2, Color c) {
-        if (vertices.remaining() < 8 * 6) {
-            /* We need more space in the buffer, so flush it */
-            flush();
+    public Texture createTexture(int width, int height, ByteBuffer data) {
+        return Texture.createTexture(width, height, data);
+    }
+
+    /**
+     * Draws a texture as instanced sprite. Sprites are drawn in submission
+     * order with the other quads, also in deferred mode, where they end up
+     * below the sorted quads.
+     *
+     * @param texture  The texture to draw
+     * @param x        X position of the sprite
+     * @param y        Y position of the sprite
+     * @param width    Width of the sprite
+     * @param height   Height of the sprite
+     * @param c        The color to use
+     * @param rotation Rotation around the center in radians
+     */
+    public void drawSpriteInstanced(Texture texture, float x, float y, float width, float height, Color c, float rotation) {
+        drawSpriteInstanced(texture, x, y, width, height, 0f, 0f, 1f, 1f, c, rotation);
+    }
+
+    /**
+     * Draws a texture region as instanced sprite. Each sprite is a 32 byte
+     * instance record, which makes this the fastest way to draw lots of
+     * sprites.
+     *
+     * @param texture  The texture to draw from
+     * @param x        X position of the sprite
+     * @param y        Y position of the sprite
+     * @param width    Width of the sprite
+     * @param height   Height of the sprite
+     * @param s1       Bottom left s coordinate
+     * @param t1       Bottom left t coordinate
+     * @param s2       Top right s coordinate
+     * @param t2       Top right t coordinate
+     * @param c        The color to use
+     * @param rotation Rotation around the center in radians
+     */
+    public void drawSpriteInstanced(Texture texture, float x, float y, float width, float height,
+                                    float s1, float t1, float s2, float t2, Color c, float rotation) {
+        if (capture != null) {
+            throw new IllegalStateException("Instanced sprites can't be captured!");
+        }
+        /* Any rotation stays inside the circle around the center */
+        float radius = 0.5f * (float) Math.sqrt(width * width + height * height);
+        float centerX = x + 0.5f * width;
+        float centerY = y + 0.5f * height;
+        if (clip.isOutside(centerX - radius, centerY - radius, centerX + radius, centerY + radius)) {
+            stats.countCulled();
+            return;
+        }
+        if (numVertices > 0) {
+            /* Keep the submission order with the batched quads */
+            flush(FlushCause.STATE_CHANGE);
+        }
+        applyState(activeProgram, blendMode);
+        int slot = slotOf(texture);
+        if (!sprites.hasRoom()) {
+            flush(FlushCause.BUFFER_FULL);
+            sprites.advance();
         }
+        sprites.add(x, y, width, height, s1, t1, s2, t2, c.getPacked(), rotation, slot);
+        stats.countSprite();
+    }
 
-        float r = c.getRed();
-        float g = c.getGreen();
-        float b = c.getBlue();
-        float a = c.getAlpha();
+    private void drawQuad(float x1, float y1, float x2, float y2, float s1, float t1, float s2, float t2, Color c, int params) {
+        if (sprites.getNumInstances() > 0) {
+            /* Keep the submission order with the instanced sprites */
+            flush(FlushCause.STATE_CHANGE);
+        }
+        if (vertices.remaining() < format.getSize() * 4 || numVertices == MAX_VERTICES) {
+            /* We need more space in the buffer, so flush it */
+            nextRegion();
+        }
 
-        vertices.put(x1).put(y1).put(r).put(g).put(b).put(a).put(s1).put(t1);
-        vertices.put(x1).put(y2).put(r).put(g).put(b).put(a).put(s1).put(t2);
-        vertices.put(x2).put(y2).put(r).put(g).put(b).put(a).put(s2).put(t2);
+        int slot = params & 0xFF;
+        if (slot != lastSlot) {
+            if (numVertices > 0) {
+                stats.countBatchedTextureSwitch();
+            }
+            lastSlot = slot;
+        }
 
-        vertices.put(x1).put(y1).put(r).put(g).put(b).put(a).put(s1).put(t1);
-        vertices.put(x2).put(y2).put(r).put(g).put(b).put(a).put(s2).put(t2);
-        vertices.put(x2).put(y1).put(r).put(g).put(b).put(a).put(s2).put(t1);
+        format.putVertex(vertices, x1, y1, c, s1, t1, params);
+        format.putVertex(vertices, x1, y2, c, s1, t2, params);
+        format.putVertex(vertices, x2, y2, c, s2, t2, params);
+        format.putVertex(vertices, x2, y1, c, s2, t1, params);
 
-        numVertices += 6;
+        numVertices += 4;
+        numIndices += 6;
+        stats.countQuad();
     }
 
     /**
      * Dispose renderer and clean up its used data.
      */
     public void dispose() {
-        MemoryUtil.memFree(vertices);
-
         if (vao != null) {
             vao.delete();
         }
         vbo.delete();
-        program.delete();
-
+        if (ownsEbo) {
+            ebo.delete();
+        }
+        for (ShaderProgram shader : programs) {
+            shader.delete();
+        }
+        programs.clear();
+        sprites.delete();
+        frameUniforms.delete();
+        layers.delete();
+
+        if (capture != null) {
+            capture.discard();
+            capture = null;
+        }
         font.dispose();
         debugFont.dispose();
+        whiteTexture.delete();
     }
 
     /** Setups the default shader program. */
@@ -378,77 +1350,69 @@ public class Renderer {
         vao = new VertexArrayObject();
         vao.bind();
 
-        vbo = new VertexBufferObject();
-        vbo.bind(GL_ARRAY_BUFFER);
+        /* Each region of the ring holds one full batch */
+        vbo = new StreamingVertexBuffer(MAX_VERTICES * format.getSize());
+        vertices = vbo.getBuffer();
 
-        vertices = MemoryUtil.memAllocFloat(4096);
-
-        long size = (long) vertices.capacity() * Float.BYTES;
-        vbo.uploadData(GL_ARRAY_BUFFER, size, GL_DYNAMIC_DRAW);
+        /* The element buffer binding is stored in the VAO */
+        ebo.bind(GL_ELEMENT_ARRAY_BUFFER);
+        uploadQuadIndices();
 
         numVertices = 0;
+        numIndices = 0;
         drawing = false;
 
-        Shader vertexShader, fragmentShader;
-        vertexShader = Shader.loadShader(GL_VERTEX_SHADER, "default.vert");
-        fragmentShader = Shader.loadShader(GL_FRAGMENT_SHADER, "default.frag");
-
-        program = new ShaderProgram();
-        program.attachShader(vertexShader);
-        program.attachShader(fragmentShader);
-        program.bindFragmentDataLocation(0, "fragColor");
-        program.link();
-        program.use();
+        int units = Math.min(MAX_TEXTURE_SLOTS, glGetInteger(GL_MAX_TEXTURE_IMAGE_UNITS));
+        slots = new Texture[units];
+        numSlots = 1;
+        boundSlots = 1;
+        lastSlot = -1;
 
-        vertexShader.delete();
-        fragmentShader.delete();
-
-        long window = GLFW.glfwGetCurrentContext();
+        /* The viewport works for windows and headless framebuffers alike */
         int width, height;
         try (MemoryStack stack = MemoryStack.stackPush()) {
-            IntBuffer widthBuffer = stack.mallocInt(1);
-            IntBuffer heightBuffer = stack.mallocInt(1);
-            GLFW.glfwGetFramebufferSize(window, widthBuffer, heightBuffer);
-            width = widthBuffer.get();
-            height = heightBuffer.get();
+            IntBuffer viewport = stack.mallocInt(4);
+            glGetIntegerv(GL_VIEWPORT, viewport);
+            width = viewport.get(2);
+            height = viewport.get(3);
         }
 
-        specifyVertexAttributes();
+        frameUniforms = new PerFrameUniforms();
+        setProjection(Matrix4f.orthographic(0f, width, 0f, height, -1f, 1f));
 
-        int uniTex = program.getUniformLocation("texImage");
-        program.setUniform(uniTex, 0);
+        program = createShaderProgram("default.vert", "default.frag");
+        shaderProgram = program;
+        activeProgram = program;
 
-        Matrix4f model = new Matrix4f();
-        int uniModel = program.getUniformLocation("model");
-        program.setUniform(uniModel, model);
+        specifyVertexAttributes();
 
-        Matrix4f view = new Matrix4f();
-        int uniView = program.getUniformLocation("view");
-        program.setUniform(uniView, view);
+        sprites = new InstancedSpriteBatch(linkProgram("sprite.vert", "default.frag", true));
+        vao.bind();
+        program.use();
+    }
 
-        Matrix4f projection = Matrix4f.orthographic(0f, width, 0f, height, -1f, 1f);
-        int uniProjection = program.getUniformLocation("projection");
-        program.setUniform(uniProjection, projection);
+    /**
+     * Uploads the indices for {@link #MAX_QUADS} quads into the bound element
+     * buffer. Every quad uses the vertices bottom left, top left, top right
+     * and bottom right, so the indices are the same for every batch.
+     */
+    private void uploadQuadIndices() {
+        ShortBuffer indices = MemoryUtil.memAllocShort(MAX_QUADS * 6);
+        for (int i = 0; i < MAX_QUADS; i++) {
+            short base = (short) (i * 4);
+            indices.put(base).put((short) (base + 1)).put((short) (base + 2));
+            indices.put(base).put((short) (base + 2)).put((short) (base + 3));
+        }
+        indices.flip();
+        ebo.uploadData(GL_ELEMENT_ARRAY_BUFFER, indices, GL_STATIC_DRAW);
+        MemoryUtil.memFree(indices);
     }
 
     /**
      * Specifies the vertex pointers.
      */
     private void specifyVertexAttributes() {
-        /* Specify Vertex Pointer */
-        int posAttrib = program.getAttributeLocation("position");
-        program.enableVertexAttribute(posAttrib);
-        program.pointVertexAttribute(posAttrib, 2, 8 * Float.BYTES, 0);
-
-        /* Specify Color Pointer */
-        int colAttrib = program.getAttributeLocation("color");
-        program.enableVertexAttribute(colAttrib);
-        program.pointVertexAttribute(colAttrib, 4, 8 * Float.BYTES, 2 * Float.BYTES);
-
-        /* Specify Texture Pointer */
-        int texAttrib = program.getAttributeLocation("texcoord");
-        program.enableVertexAttribute(texAttrib);
-        program.pointVertexAttribute(texAttrib, 2, 8 * Float.BYTES, 6 * Float.BYTES);
+        format.specifyVertexAttributes(program);
     }
 
 }
@@ -1,19 +1,45 @@
 package me.redstoner2019.graphic;
 
 import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 import me.redstoner2019.math.*;
 import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
 
 import static org.lwjgl.opengl.GL11.GL_FLOAT;
 import static org.lwjgl.opengl.GL11.GL_TRUE;
 import static org.lwjgl.opengl.GL20.*;
 import static org.lwjgl.opengl.GL30.glBindFragDataLocation;
+import static org.lwjgl.opengl.GL30.glVertexAttribIPointer;
+import static org.lwjgl.opengl.GL31.GL_INVALID_INDEX;
+import static org.lwjgl.opengl.GL31.glGetUniformBlockIndex;
+import static org.lwjgl.opengl.GL31.glUniformBlockBinding;
+import static org.lwjgl.opengl.GL33.glVertexAttribDivisor;
 
 public class ShaderProgram {
 
     private final int id;
 
+    /** Locations of the active uniforms and attributes, looked up at link time. */
+    private final Map<String, Integer> uniformLocations = new HashMap<>();
+    private final Map<String, Integer> attributeLocations = new HashMap<>();
+    private boolean linked;
+
+    /**
+     * Last uploaded values of the uniforms as raw bits. The locations are
+     * sorted, a uniform without a value has a count of 0.
+     */
+    private int[] shadowLocations = new int[0];
+    private int[][] shadowValues = new int[0][];
+    private int[] shadowCounts = new int[0];
+
+    /** Memory for vector and matrix uniforms. */
+    private final FloatBuffer scratch = MemoryUtil.memAllocFloat(4 * 4);
+
     public ShaderProgram() {
         id = glCreateProgram();
     }
@@ -22,6 +48,10 @@ public class ShaderProgram {
         glAttachShader(id, shader.getID());
     }
 
+    public void bindAttributeLocation(int location, CharSequence name) {
+        glBindAttribLocation(id, location, name);
+    }
+
     public void bindFragmentDataLocation(int number, CharSequence name) {
         glBindFragDataLocation(id, number, name);
     }
@@ -30,10 +60,23 @@ public class ShaderProgram {
         glLinkProgram(id);
 
         checkStatus();
+        introspect();
     }
 
+    /**
+     * Returns the location of an attribute. After linking the location comes
+     * from the locations looked up at link time.
+     *
+     * @param name Name of the attribute
+     *
+     * @return Location of the attribute, or -1 if it isn't active
+     */
     public int getAttributeLocation(CharSequence name) {
-        return glGetAttribLocation(id, name);
+        if (!linked) {
+            return glGetAttribLocation(id, name);
+        }
+        Integer location = attributeLocations.get(name.toString());
+        return location != null ? location : -1;
     }
 
     public void enableVertexAttribute(int location) {
@@ -48,64 +91,114 @@ public class ShaderProgram {
         glVertexAttribPointer(location, size, GL_FLOAT, false, stride, offset);
     }
 
+    public void pointVertexAttribute(int location, int size, int type, boolean normalized, int stride, int offset) {
+        glVertexAttribPointer(location, size, type, normalized, stride, offset);
+    }
+
+    public void pointIntegerVertexAttribute(int location, int size, int type, int stride, int offset) {
+        glVertexAttribIPointer(location, size, type, stride, offset);
+    }
+
+    public void setVertexAttributeDivisor(int location, int divisor) {
+        glVertexAttribDivisor(location, divisor);
+    }
+
+    /**
+     * Returns the location of a uniform. After linking the location comes
+     * from the locations looked up at link time. Elements of arrays can be
+     * looked up as <code>name[i]</code>.
+     *
+     * @param name Name of the uniform
+     *
+     * @return Location of the uniform, or -1 if it isn't active
+     */
     public int getUniformLocation(CharSequence name) {
-        return glGetUniformLocation(id, name);
+        if (!linked) {
+            return glGetUniformLocation(id, name);
+        }
+        Integer location = uniformLocations.get(name.toString());
+        return location != null ? location : -1;
+    }
+
+    /**
+     * Connects a uniform block of this program to a uniform buffer binding
+     * point.
+     *
+     * @param name    Name of the uniform block
+     * @param binding Index of the binding point
+     *
+     * @return true, if the program has the block, else false
+     */
+    public boolean bindUniformBlock(CharSequence name, int binding) {
+        int index = glGetUniformBlockIndex(id, name);
+        if (index == GL_INVALID_INDEX) {
+            return false;
+        }
+        glUniformBlockBinding(id, index, binding);
+        return true;
     }
 
+    /*
+     * The setters only upload a value if it differs from the last one that
+     * was set, like glUniform they expect this program to be in use.
+     */
+
     public void setUniform(int location, int value) {
-        glUniform1i(location, value);
+        if (changed(location, value)) {
+            glUniform1i(location, value);
+        }
     }
 
     public void setUniform(int location, Vector2f value) {
-        try (MemoryStack stack = MemoryStack.stackPush()) {
-            FloatBuffer buffer = stack.mallocFloat(2);
-            value.toBuffer(buffer);
-            glUniform2fv(location, buffer);
+        scratch.clear();
+        value.toBuffer(scratch);
+        if (changed(location, scratch)) {
+            glUniform2fv(location, scratch);
         }
     }
 
     public void setUniform(int location, Vector3f value) {
-        try (MemoryStack stack = MemoryStack.stackPush()) {
-            FloatBuffer buffer = stack.mallocFloat(3);
-            value.toBuffer(buffer);
-            glUniform3fv(location, buffer);
+        scratch.clear();
+        value.toBuffer(scratch);
+        if (changed(location, scratch)) {
+            glUniform3fv(location, scratch);
         }
     }
 
     public void setUniform(int location, Vector4f value) {
-        try (MemoryStack stack = MemoryStack.stackPush()) {
-            FloatBuffer buffer = stack.mallocFloat(4);
-            value.toBuffer(buffer);
-            glUniform4fv(location, buffer);
+        scratch.clear();
+        value.toBuffer(scratch);
+        if (changed(location, scratch)) {
+            glUniform4fv(location, scratch);
         }
     }
 
     public void setUniform(int location, Matrix2f value) {
-        try (MemoryStack stack = MemoryStack.stackPush()) {
-            FloatBuffer buffer = stack.mallocFloat(2 * 2);
-            value.toBuffer(buffer);
-            glUniformMatrix2fv(location, false, buffer);
+        scratch.clear();
+        value.toBuffer(scratch);
+        if (changed(location, scratch)) {
+            glUniformMatrix2fv(location, false, scratch);
         }
     }
 
     public void setUniform(int location, Matrix3f value) {
-        try (MemoryStack stack = MemoryStack.stackPush()) {
-            FloatBuffer buffer = stack.mallocFloat(3 * 3);
-            value.toBuffer(buffer);
-            glUniformMatrix3fv(location, false, buffer);
+        scratch.clear();
+        value.toBuffer(scratch);
+        if (changed(location, scratch)) {
+            glUniformMatrix3fv(location, false, scratch);
         }
     }
 
     public void setUniform(int location, Matrix4f value) {
-        try (MemoryStack stack = MemoryStack.stackPush()) {
-            FloatBuffer buffer = stack.mallocFloat(4 * 4);
-            value.toBuffer(buffer);
-            glUniformMatrix4fv(location, false, buffer);
+        scratch.clear();
+        value.toBuffer(scratch);
+        if (changed(location, scratch)) {
+            glUniformMatrix4fv(location, false, scratch);
         }
     }
 
     public void use() {
-        glUseProgram(id);
+        GLState.current().useProgram(id);
     }
 
     public void checkStatus() {
@@ -115,7 +208,112 @@ public class ShaderProgram {
         }
     }
 
+    /**
+     * Forgets the shadowed uniform values, so the next value of every uniform
+     * gets uploaded. Needed after setting uniforms with raw GL calls.
+     */
+    public void invalidateUniforms() {
+        Arrays.fill(shadowCounts, 0);
+    }
+
     public void delete() {
         glDeleteProgram(id);
+        GLState.current().programDeleted(id);
+        MemoryUtil.memFree(scratch);
+    }
+
+    /**
+     * Looks up the locations of all active uniforms and attributes.
+     */
+    private void introspect() {
+        uniformLocations.clear();
+        attributeLocations.clear();
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            IntBuffer size = stack.mallocInt(1);
+            IntBuffer type = stack.mallocInt(1);
+
+            int uniforms = glGetProgrami(id, GL_ACTIVE_UNIFORMS);
+            for (int i = 0; i < uniforms; i++) {
+                String name = glGetActiveUniform(id, i, size, type);
+                int location = glGetUniformLocation(id, name);
+                if (location < 0) {
+                    /* Member of a uniform block */
+                    continue;
+                }
+                uniformLocations.put(name, location);
+                if (name.endsWith("[0]")) {
+                    String base = name.substring(0, name.length() - 3);
+                    uniformLocations.put(base, location);
+                    for (int element = 1; element < size.get(0); element++) {
+                        String elementName = base + "[" + element + "]";
+                        uniformLocations.put(elementName, glGetUniformLocation(id, elementName));
+                    }
+                }
+            }
+
+            int attributes = glGetProgrami(id, GL_ACTIVE_ATTRIBUTES);
+            for (int i = 0; i < attributes; i++) {
+                String name = glGetActiveAttrib(id, i, size, type);
+                attributeLocations.put(name, glGetAttribLocation(id, name));
+            }
+        }
+
+        shadowLocations = uniformLocations.values().stream().mapToInt(Integer::intValue)
+                .filter(location -> location >= 0).distinct().sorted().toArray();
+        shadowValues = new int[shadowLocations.length][4 * 4];
+        shadowCounts = new int[shadowLocations.length];
+        linked = true;
+    }
+
+    /**
+     * Compares a value with the shadowed value of a uniform and stores it.
+     *
+     * @return true, if the value has to be uploaded, else false
+     */
+    private boolean changed(int location, FloatBuffer values) {
+        if (location < 0) {
+            return false;
+        }
+        int slot = Arrays.binarySearch(shadowLocations, location);
+        if (slot < 0) {
+            return true;
+        }
+        int[] shadow = shadowValues[slot];
+        int count = values.remaining();
+        boolean same = shadowCounts[slot] == count;
+        for (int i = 0; i < count; i++) {
+            int bits = Float.floatToRawIntBits(values.get(i));
+            if (shadow[i] != bits) {
+                shadow[i] = bits;
+                same = false;
+            }
+        }
+        shadowCounts[slot] = count;
+        return countChange(same);
+    }
+
+    private boolean changed(int location, int value) {
+        if (location < 0) {
+            return false;
+        }
+        int slot = Arrays.binarySearch(shadowLocations, location);
+        if (slot < 0) {
+            return true;
+        }
+        int[] shadow = shadowValues[slot];
+        boolean same = shadowCounts[slot] == 1 && shadow[0] == value;
+        shadow[0] = value;
+        shadowCounts[slot] = 1;
+        return countChange(same);
+    }
+
+    private static boolean countChange(boolean same) {
+        GLState state = GLState.current();
+        if (same) {
+            state.countSkipped();
+        } else {
+            state.countIssued();
+        }
+        return !same;
     }
 }
\ No newline at end of file
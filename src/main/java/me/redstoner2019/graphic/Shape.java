@@ -0,0 +1,68 @@
+package me.redstoner2019.graphic;
+
+/**
+ * Shapes that are drawn as one quad and evaluated with a signed distance
+ * function in the fragment shader, so their edges are antialiased at any
+ * size.
+ * <p>
+ * The shape, its radius and its size are stored in the reserved vertex
+ * parameters, so shapes share the batch with textured quads.
+ */
+public enum Shape {
+
+    /** Rect with rounded corners, the radius is the corner radius. */
+    ROUNDED_RECT(1),
+    /** Ellipse that fills the quad, the radius is ignored. */
+    ELLIPSE(2),
+    /**
+     * Blurred rounded rect. The quad includes a margin of the blur size on
+     * every side, the radius is the corner radius of the rect inside.
+     */
+    SHADOW(3),
+    /**
+     * Texture with a signed distance field in its alpha channel, 0.5 is the
+     * edge. The size is the distance in texels that maps to the full range.
+     * Only drawn with {@link RenderBackend#drawDistanceField}.
+     */
+    DISTANCE_FIELD(4);
+
+    /** Largest radius or size in pixels that fits into the parameters. */
+    public static final int MAX_PARAMETER = 0xFF;
+
+    private static final Shape[] VALUES = values();
+
+    private final int mode;
+
+    Shape(int mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Packs the shape into the vertex parameters, the texture slot is left
+     * at 0.
+     *
+     * @param radius Corner radius in pixels
+     * @param size   Border width or blur size in pixels, 0 to fill
+     *
+     * @return The vertex parameters
+     */
+    int pack(float radius, float size) {
+        return (mode << 8) | (toByte(radius) << 16) | (toByte(size) << 24);
+    }
+
+    /**
+     * Returns the shape of packed vertex parameters.
+     *
+     * @param params The vertex parameters
+     *
+     * @return The shape, or null for a textured quad
+     */
+    static Shape unpack(int params) {
+        int mode = (params >>> 8) & 0xFF;
+        return mode == 0 ? null : VALUES[mode - 1];
+    }
+
+    private static int toByte(float value) {
+        return Math.max(0, Math.min(MAX_PARAMETER, Math.round(value)));
+    }
+}
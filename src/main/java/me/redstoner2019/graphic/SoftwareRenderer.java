@@ -0,0 +1,587 @@
+package me.redstoner2019.graphic;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import me.redstoner2019.graphic.RenderStats.FlushCause;
+
+/**
+ * Draws quads on the CPU into an <code>int[]</code> framebuffer, no context
+ * is needed.
+ * <p>
+ * The quads of a batch are binned into tiles of {@link #TILE_SIZE} pixels.
+ * On flush the tiles are rasterized in parallel on a {@link ForkJoinPool},
+ * every tile draws its quads in submission order, so the result is the same
+ * as drawing them one after another. Textures are sampled with nearest
+ * filtering and blended like the GL blend functions of the
+ * {@link BlendMode}.
+ * <p>
+ * Textures have to be created with {@link #createTexture(int, int, ByteBuffer)},
+ * fonts with {@link me.redstoner2019.font.Font#Font(RenderBackend, int)}.
+ */
+public class SoftwareRenderer implements RenderBackend {
+
+    /** Width and height of a tile in pixels. */
+    public static final int TILE_SIZE = 64;
+
+    /** Maximum number of quads per batch. */
+    private static final int MAX_QUADS = 16384;
+    /** Number of floats per quad, two positions and two texture coordinates. */
+    private static final int COORDS = 8;
+    /** Texel of quads without texture. */
+    private static final int WHITE = 0xFFFFFFFF;
+
+    private final int width;
+    private final int height;
+    /** ARGB pixels, the rows start at the bottom. */
+    private final int[] pixels;
+
+    private final ForkJoinPool pool;
+    private final int tilesX;
+    private final int tilesY;
+
+    private final float[] coords = new float[MAX_QUADS * COORDS];
+    private final int[] colors = new int[MAX_QUADS];
+    private final int[] shapes = new int[MAX_QUADS];
+    private final Texture[] textures = new Texture[MAX_QUADS];
+    private final BlendMode[] blends = new BlendMode[MAX_QUADS];
+    private int numQuads;
+
+    /** Quads of each tile in submission order. */
+    private final int[][] tileQuads;
+    private final int[] tileCounts;
+    /** Tiles that got quads in the current batch. */
+    private final int[] activeTiles;
+    private int numActiveTiles;
+
+    private final ClipStack clip = new ClipStack();
+    private final float[] clipQuad = new float[COORDS];
+
+    private int clearColor;
+    private BlendMode blendMode = BlendMode.ALPHA;
+    private boolean drawing;
+
+    private final RenderStats stats = new RenderStats();
+
+    /**
+     * Creates a renderer that rasterizes on the common pool.
+     *
+     * @param width  Width of the framebuffer
+     * @param height Height of the framebuffer
+     */
+    public SoftwareRenderer(int width, int height) {
+        this(width, height, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a renderer that rasterizes on the specified pool. The
+     * parallelism of the pool is the number of cores that are used, with a
+     * parallelism of 1 the tiles are rasterized on the thread that draws.
+     *
+     * @param width  Width of the framebuffer
+     * @param height Height of the framebuffer
+     * @param pool   Pool for the tiles
+     */
+    public SoftwareRenderer(int width, int height, ForkJoinPool pool) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Framebuffer size must be positive!");
+        }
+        this.width = width;
+        this.height = height;
+        this.pool = pool;
+        pixels = new int[width * height];
+
+        tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+        tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+        tileQuads = new int[tilesX * tilesY][64];
+        tileCounts = new int[tilesX * tilesY];
+        activeTiles = new int[tilesX * tilesY];
+        clip.reset(0, 0, width, height);
+    }
+
+    @Override
+    public void begin() {
+        if (drawing) {
+            throw new IllegalStateException("Renderer is already drawing!");
+        }
+        drawing = true;
+        clip.reset(0, 0, width, height);
+    }
+
+    @Override
+    public void end() {
+        if (!drawing) {
+            throw new IllegalStateException("Renderer isn't drawing!");
+        }
+        if (clip.getDepth() > 0) {
+            throw new IllegalStateException("Clip rect wasn't popped!");
+        }
+        drawing = false;
+        flush(FlushCause.END);
+    }
+
+    @Override
+    public void flush() {
+        flush(FlushCause.EXPLICIT);
+    }
+
+    @Override
+    public boolean isDrawing() {
+        return drawing;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(pixels, clearColor);
+    }
+
+    /**
+     * Sets the color used by {@link #clear()}.
+     *
+     * @param c The clear color
+     */
+    public void setClearColor(Color c) {
+        int abgr = c.getPacked();
+        clearColor = (abgr & 0xFF00FF00) | ((abgr & 0xFF) << 16) | ((abgr >>> 16) & 0xFF);
+    }
+
+    /**
+     * Sets the blend mode of the next quads.
+     *
+     * @param blendMode The blend mode
+     */
+    public void setBlendMode(BlendMode blendMode) {
+        this.blendMode = blendMode;
+    }
+
+    public BlendMode getBlendMode() {
+        return blendMode;
+    }
+
+    @Override
+    public void drawTextureRegion(Texture texture, float x1, float y1, float x2, float y2, float s1, float t1, float s2, float t2, Color c) {
+        if (texture != null && texture.getPixels() == null) {
+            throw new IllegalArgumentException("Texture wasn't created by a software renderer!");
+        }
+        addQuad(texture, x1, y1, x2, y2, s1, t1, s2, t2, c, 0);
+    }
+
+    /**
+     * Draws a region of a distance field texture. The distance is sampled
+     * at the pixel centers and scaled to pixels, like in the shader of the
+     * {@link Renderer}.
+     */
+    @Override
+    public void drawDistanceField(Texture texture, float x1, float y1, float x2, float y2, float s1, float t1, float s2, float t2, float spread, Color c) {
+        if (texture == null || texture.getPixels() == null) {
+            throw new IllegalArgumentException("Texture wasn't created by a software renderer!");
+        }
+        addQuad(texture, x1, y1, x2, y2, s1, t1, s2, t2, c, Shape.DISTANCE_FIELD.pack(0f, spread));
+    }
+
+    @Override
+    public void fillRect(float x1, float y1, float x2, float y2, Color c) {
+        addQuad(null, x1, y1, x2, y2, 0f, 0f, 1f, 1f, c, 0);
+    }
+
+    /**
+     * Draws a shape as one quad. The distance function is evaluated at the
+     * pixel centers like in the shader of the {@link Renderer}.
+     */
+    @Override
+    public void drawShape(Shape shape, float x1, float y1, float x2, float y2, float radius, float size, Color c) {
+        if (shape == Shape.DISTANCE_FIELD) {
+            throw new IllegalArgumentException("Distance fields need a texture!");
+        }
+        addQuad(null, x1, y1, x2, y2, 0f, 0f, 1f, 1f, c, shape.pack(radius, size));
+    }
+
+    /**
+     * Restricts drawing to a rect. Quads get cut to the rect when they are
+     * submitted, so no flush is needed.
+     */
+    @Override
+    public void pushClip(int x, int y, int width, int height) {
+        if (!drawing) {
+            throw new IllegalStateException("Renderer isn't drawing!");
+        }
+        clip.push(x, y, width, height);
+    }
+
+    @Override
+    public void popClip() {
+        if (!drawing) {
+            throw new IllegalStateException("Renderer isn't drawing!");
+        }
+        clip.pop();
+    }
+
+    @Override
+    public boolean isOutsideClip(float x1, float y1, float x2, float y2) {
+        return clip.isOutside(Math.min(x1, x2), Math.min(y1, y2), Math.max(x1, x2), Math.max(y1, y2));
+    }
+
+    @Override
+    public Texture createTexture(int width, int height, ByteBuffer data) {
+        return Texture.createClientTexture(width, height, data);
+    }
+
+    @Override
+    public RenderStats getStats() {
+        return stats;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the framebuffer. Pending quads are not drawn yet, call
+     * {@link #end()} or {@link #flush()} before.
+     *
+     * @return ARGB pixels, the rows start at the bottom
+     */
+    public int[] getPixels() {
+        return pixels;
+    }
+
+    /**
+     * Copies the framebuffer into an image.
+     *
+     * @return The framebuffer as image
+     */
+    public BufferedImage toImage() {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < height; y++) {
+            /* Image rows start at the top */
+            image.setRGB(0, height - 1 - y, width, 1, pixels, y * width, width);
+        }
+        return image;
+    }
+
+    private void addQuad(Texture texture, float x1, float y1, float x2, float y2, float s1, float t1, float s2, float t2, Color c, int shape) {
+        if (numQuads == MAX_QUADS) {
+            flush(FlushCause.BUFFER_FULL);
+        }
+
+        float[] cut = clipQuad;
+        cut[0] = x1;
+        cut[1] = y1;
+        cut[2] = x2;
+        cut[3] = y2;
+        cut[4] = s1;
+        cut[5] = t1;
+        cut[6] = s2;
+        cut[7] = t2;
+        /* Without a scissor test every quad has to be cut */
+        int result = clip.clip(cut, true);
+        if (result == ClipStack.OUTSIDE) {
+            stats.countCulled();
+            return;
+        }
+        if (result == ClipStack.TRIMMED) {
+            stats.countTrimmed();
+        }
+
+        /* Bin the quad into every tile it touches */
+        int minX = Math.max(0, (int) Math.floor(Math.min(cut[0], cut[2])));
+        int maxX = Math.min(width - 1, (int) Math.ceil(Math.max(cut[0], cut[2])));
+        int minY = Math.max(0, (int) Math.floor(Math.min(cut[1], cut[3])));
+        int maxY = Math.min(height - 1, (int) Math.ceil(Math.max(cut[1], cut[3])));
+        if (minX > maxX || minY > maxY) {
+            return;
+        }
+
+        int quad = numQuads++;
+        System.arraycopy(cut, 0, coords, quad * COORDS, COORDS);
+        colors[quad] = c.getPacked();
+        shapes[quad] = shape;
+        textures[quad] = texture;
+        blends[quad] = blendMode;
+
+        for (int ty = minY / TILE_SIZE; ty <= maxY / TILE_SIZE; ty++) {
+            for (int tx = minX / TILE_SIZE; tx <= maxX / TILE_SIZE; tx++) {
+                int tile = ty * tilesX + tx;
+                int count = tileCounts[tile];
+                if (count == 0) {
+                    activeTiles[numActiveTiles++] = tile;
+                } else if (count == tileQuads[tile].length) {
+                    tileQuads[tile] = Arrays.copyOf(tileQuads[tile], count * 2);
+                }
+                tileQuads[tile][count] = quad;
+                tileCounts[tile] = count + 1;
+            }
+        }
+        stats.countQuad();
+    }
+
+    private void flush(FlushCause cause) {
+        if (numQuads == 0) {
+            return;
+        }
+        long start = System.nanoTime();
+
+        if (pool.getParallelism() == 1) {
+            /* A single pool thread only adds a hand-off, the tiles get drawn on this thread */
+            for (int i = 0; i < numActiveTiles; i++) {
+                rasterizeTile(activeTiles[i]);
+            }
+        } else {
+            pool.invoke(new TileTask(0, numActiveTiles));
+        }
+        stats.countDrawCall();
+
+        for (int i = 0; i < numActiveTiles; i++) {
+            tileCounts[activeTiles[i]] = 0;
+        }
+        numActiveTiles = 0;
+        Arrays.fill(textures, 0, numQuads, null);
+        numQuads = 0;
+
+        stats.countFlush(cause, System.nanoTime() - start);
+    }
+
+    /**
+     * Rasterizes the quads of one tile.
+     */
+    private void rasterizeTile(int tile) {
+        int tileX = (tile % tilesX) * TILE_SIZE;
+        int tileY = (tile / tilesX) * TILE_SIZE;
+        int tileMaxX = Math.min(tileX + TILE_SIZE, width);
+        int tileMaxY = Math.min(tileY + TILE_SIZE, height);
+
+        int[] quads = tileQuads[tile];
+        int count = tileCounts[tile];
+        for (int i = 0; i < count; i++) {
+            rasterizeQuad(quads[i], tileX, tileY, tileMaxX, tileMaxY);
+        }
+    }
+
+    /**
+     * Rasterizes the part of a quad inside a tile. A pixel is covered if its
+     * center is inside the quad, like in GL.
+     */
+    private void rasterizeQuad(int quad, int minX, int minY, int maxX, int maxY) {
+        int offset = quad * COORDS;
+        float x1 = coords[offset];
+        float y1 = coords[offset + 1];
+        float x2 = coords[offset + 2];
+        float y2 = coords[offset + 3];
+        float s1 = coords[offset + 4];
+        float t1 = coords[offset + 5];
+        float s2 = coords[offset + 6];
+        float t2 = coords[offset + 7];
+        if (x1 == x2 || y1 == y2) {
+            return;
+        }
+        if (x2 < x1) {
+            float tmp = x1; x1 = x2; x2 = tmp;
+            tmp = s1; s1 = s2; s2 = tmp;
+        }
+        if (y2 < y1) {
+            float tmp = y1; y1 = y2; y2 = tmp;
+            tmp = t1; t1 = t2; t2 = tmp;
+        }
+
+        int px0 = Math.max(minX, (int) Math.ceil(x1 - 0.5f));
+        int px1 = Math.min(maxX, (int) Math.ceil(x2 - 0.5f));
+        int py0 = Math.max(minY, (int) Math.ceil(y1 - 0.5f));
+        int py1 = Math.min(maxY, (int) Math.ceil(y2 - 0.5f));
+        if (px0 >= px1 || py0 >= py1) {
+            return;
+        }
+
+        int color = colors[quad];
+        int cr = color & 0xFF;
+        int cg = (color >>> 8) & 0xFF;
+        int cb = (color >>> 16) & 0xFF;
+        int ca = color >>> 24;
+        BlendMode blend = blends[quad];
+
+        Texture texture = textures[quad];
+        int[] texels = texture != null ? texture.getPixels() : null;
+        int textureWidth = texture != null ? texture.getWidth() : 1;
+        int textureHeight = texture != null ? texture.getHeight() : 1;
+
+        float ds = (s2 - s1) / (x2 - x1);
+        float dt = (t2 - t1) / (y2 - y1);
+
+        /* Texture coordinates go from 0 to 1 over a shape, also if it was cut */
+        Shape shape = Shape.unpack(shapes[quad]);
+        float shapeWidth = Math.abs(1f / ds);
+        float shapeHeight = Math.abs(1f / dt);
+
+        /* Change of the encoded distance per pixel, like fwidth in the shader */
+        boolean distanceField = shape == Shape.DISTANCE_FIELD;
+        float spread = shapes[quad] >>> 24;
+        float fieldWidth = (Math.abs(ds) * textureWidth + Math.abs(dt) * textureHeight) / (2f * Math.max(spread, 1f));
+
+        for (int py = py0; py < py1; py++) {
+            float t = t1 + (py + 0.5f - y1) * dt;
+            int row = clamp((int) (t * textureHeight), textureHeight) * textureWidth;
+            int base = py * width;
+            for (int px = px0; px < px1; px++) {
+                int texel = WHITE;
+                if (distanceField) {
+                    float s = s1 + (px + 0.5f - x1) * ds;
+                    texel = texels[row + clamp((int) (s * textureWidth), textureWidth)];
+                    float distance = (texel >>> 24) / 255f;
+                    float alpha = Math.max(0f, Math.min(1f, (distance - 0.5f) / Math.max(fieldWidth, 1e-4f) + 0.5f));
+                    texel = (Math.round(alpha * 255f) << 24) | (texel & 0xFFFFFF);
+                } else if (shape != null) {
+                    float s = s1 + (px + 0.5f - x1) * ds;
+                    int alpha = coverage(shape, shapes[quad], (s - 0.5f) * shapeWidth, (t - 0.5f) * shapeHeight,
+                            0.5f * shapeWidth, 0.5f * shapeHeight);
+                    texel = (alpha << 24) | 0xFFFFFF;
+                } else if (texels != null) {
+                    float s = s1 + (px + 0.5f - x1) * ds;
+                    texel = texels[row + clamp((int) (s * textureWidth), textureWidth)];
+                }
+
+                /* Modulate with the vertex color */
+                int sa = mul(texel >>> 24, ca);
+                if (sa == 0 && blend != BlendMode.PREMULTIPLIED) {
+                    continue;
+                }
+                int sr = mul((texel >>> 16) & 0xFF, cr);
+                int sg = mul((texel >>> 8) & 0xFF, cg);
+                int sb = mul(texel & 0xFF, cb);
+
+                int index = base + px;
+                if (sa == 255 && blend == BlendMode.ALPHA) {
+                    pixels[index] = (0xFF << 24) | (sr << 16) | (sg << 8) | sb;
+                    continue;
+                }
+                pixels[index] = blend(blend, sa, sr, sg, sb, pixels[index]);
+            }
+        }
+    }
+
+    /**
+     * Returns how much of a pixel is covered by a shape, with the same
+     * distance functions as the shader.
+     *
+     * @param shape      The shape
+     * @param params     Packed parameters of the shape
+     * @param x          X position of the pixel center relative to the quad center
+     * @param y          Y position of the pixel center relative to the quad center
+     * @param halfWidth  Half width of the quad
+     * @param halfHeight Half height of the quad
+     *
+     * @return Coverage from 0 to 255
+     */
+    private static int coverage(Shape shape, int params, float x, float y, float halfWidth, float halfHeight) {
+        float radius = (params >>> 16) & 0xFF;
+        float border = params >>> 24;
+        float alpha;
+        if (shape == Shape.SHADOW) {
+            /* The quad has a margin of the blur size around the rect */
+            float innerWidth = Math.max(halfWidth - border, 0f);
+            float innerHeight = Math.max(halfHeight - border, 0f);
+            float blur = Math.max(border, 0.5f);
+            float d = roundedRect(x, y, innerWidth, innerHeight, Math.min(radius, Math.min(innerWidth, innerHeight)));
+            float t = Math.max(0f, Math.min(1f, (d + blur) / (2f * blur)));
+            alpha = 1f - t * t * (3f - 2f * t);
+        } else {
+            float d;
+            if (shape == Shape.ELLIPSE) {
+                float k0 = (float) Math.hypot(x / halfWidth, y / halfHeight);
+                float k1 = (float) Math.hypot(x / (halfWidth * halfWidth), y / (halfHeight * halfHeight));
+                d = k0 * (k0 - 1f) / Math.max(k1, 1e-6f);
+            } else {
+                d = roundedRect(x, y, halfWidth, halfHeight, Math.min(radius, Math.min(halfWidth, halfHeight)));
+            }
+            alpha = Math.max(0f, Math.min(1f, 0.5f - d));
+            if (border > 0f) {
+                alpha *= Math.max(0f, Math.min(1f, 0.5f + d + border));
+            }
+        }
+        return Math.round(alpha * 255f);
+    }
+
+    /** Signed distance to a rounded rect centered at the origin. */
+    private static float roundedRect(float x, float y, float halfWidth, float halfHeight, float radius) {
+        float qx = Math.abs(x) - halfWidth + radius;
+        float qy = Math.abs(y) - halfHeight + radius;
+        float outside = (float) Math.hypot(Math.max(qx, 0f), Math.max(qy, 0f));
+        return Math.min(Math.max(qx, qy), 0f) + outside - radius;
+    }
+
+    /**
+     * Blends a source color into a destination pixel with the same factors
+     * as {@link BlendMode#apply()}.
+     */
+    private static int blend(BlendMode mode, int sa, int sr, int sg, int sb, int destination) {
+        int da = destination >>> 24;
+        int dr = (destination >>> 16) & 0xFF;
+        int dg = (destination >>> 8) & 0xFF;
+        int db = destination & 0xFF;
+
+        /* Alpha is always blended like premultiplied alpha */
+        int a = sa + mul(da, 255 - sa);
+        int r, g, b;
+        switch (mode) {
+            case ADDITIVE:
+                r = mul(sr, sa) + dr;
+                g = mul(sg, sa) + dg;
+                b = mul(sb, sa) + db;
+                break;
+            case PREMULTIPLIED:
+                r = sr + mul(dr, 255 - sa);
+                g = sg + mul(dg, 255 - sa);
+                b = sb + mul(db, 255 - sa);
+                break;
+            default:
+                r = mul(sr, sa) + mul(dr, 255 - sa);
+                g = mul(sg, sa) + mul(dg, 255 - sa);
+                b = mul(sb, sa) + mul(db, 255 - sa);
+                break;
+        }
+        return (Math.min(a, 255) << 24) | (Math.min(r, 255) << 16) | (Math.min(g, 255) << 8) | Math.min(b, 255);
+    }
+
+    /** Multiplies two values in [0, 255] as if they were in [0, 1]. */
+    private static int mul(int a, int b) {
+        int product = a * b + 128;
+        return (product + (product >>> 8)) >>> 8;
+    }
+
+    private static int clamp(int value, int size) {
+        return value < 0 ? 0 : (value >= size ? size - 1 : value);
+    }
+
+    /**
+     * Rasterizes a range of the active tiles, splitting it until every task
+     * has one tile. Tasks are never serialized.
+     */
+    @SuppressWarnings("serial")
+    private final class TileTask extends RecursiveAction {
+
+        private final int from;
+        private final int to;
+
+        TileTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                if (to > from) {
+                    rasterizeTile(activeTiles[from]);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new TileTask(from, middle), new TileTask(middle, to));
+        }
+    }
+}
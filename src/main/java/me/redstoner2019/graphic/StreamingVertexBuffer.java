@@ -0,0 +1,230 @@
+package me.redstoner2019.graphic;
+
+import java.nio.ByteBuffer;
+
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+import org.lwjgl.system.MemoryUtil;
+
+import static org.lwjgl.opengl.GL15.GL_ARRAY_BUFFER;
+import static org.lwjgl.opengl.GL15.GL_STREAM_DRAW;
+import static org.lwjgl.opengl.GL30.GL_MAP_WRITE_BIT;
+import static org.lwjgl.opengl.GL32.GL_ALREADY_SIGNALED;
+import static org.lwjgl.opengl.GL32.GL_CONDITION_SATISFIED;
+import static org.lwjgl.opengl.GL32.GL_SYNC_FLUSH_COMMANDS_BIT;
+import static org.lwjgl.opengl.GL32.GL_SYNC_GPU_COMMANDS_COMPLETE;
+import static org.lwjgl.opengl.GL32.GL_WAIT_FAILED;
+import static org.lwjgl.opengl.GL32.glClientWaitSync;
+import static org.lwjgl.opengl.GL32.glDeleteSync;
+import static org.lwjgl.opengl.GL32.glFenceSync;
+import static org.lwjgl.opengl.GL44.GL_MAP_COHERENT_BIT;
+import static org.lwjgl.opengl.GL44.GL_MAP_PERSISTENT_BIT;
+
+/**
+ * A vertex buffer for data that gets rewritten every frame.
+ * <p>
+ * The buffer is split into a ring of regions. Vertices are written into the
+ * current region and {@link #commit()} hands the written range to the GPU.
+ * When a region is full the renderer calls {@link #advance()} which fences
+ * the region and moves on to the next one, so the GPU can still read from
+ * the old one while the CPU writes into the new one.
+ * <p>
+ * If the context supports <code>ARB_buffer_storage</code> the whole buffer is
+ * persistently mapped and vertices are written straight into GPU visible
+ * memory. Otherwise the vertices are written into client memory, uploaded on
+ * commit and the buffer gets orphaned every time the ring wraps around.
+ */
+public class StreamingVertexBuffer {
+
+    /** Default number of regions in the ring. */
+    public static final int DEFAULT_REGIONS = 3;
+
+    /** Time to wait for a fence per try, in nanoseconds. */
+    private static final long FENCE_TIMEOUT = 1_000_000L;
+
+    private final VertexBufferObject vbo;
+    private final boolean persistent;
+
+    private final int regionSize;
+    private final int regionCount;
+
+    /** Persistently mapped memory of each region, or null. */
+    private ByteBuffer[] mapped;
+    /** Client memory used when not persistently mapped, or null. */
+    private ByteBuffer staging;
+    /** View of the staging memory used for uploading a committed range. */
+    private ByteBuffer upload;
+    /** Write buffer of the current region. */
+    private ByteBuffer buffer;
+
+    private final long[] fences;
+    private int region;
+    private int committed;
+
+    /**
+     * Creates a streaming buffer with {@link #DEFAULT_REGIONS} regions.
+     *
+     * @param regionSize Size of one region in bytes
+     */
+    public StreamingVertexBuffer(int regionSize) {
+        this(regionSize, DEFAULT_REGIONS);
+    }
+
+    /**
+     * Creates a streaming buffer. The buffer is left bound to
+     * <code>GL_ARRAY_BUFFER</code>.
+     *
+     * @param regionSize  Size of one region in bytes
+     * @param regionCount Number of regions in the ring
+     */
+    public StreamingVertexBuffer(int regionSize, int regionCount) {
+        if (regionSize <= 0 || regionCount <= 0) {
+            throw new IllegalArgumentException("Region size and count must be positive!");
+        }
+        this.regionSize = regionSize;
+        this.regionCount = regionCount;
+        this.fences = new long[regionCount];
+
+        GLCapabilities caps = GL.getCapabilities();
+        persistent = caps.OpenGL44 || caps.GL_ARB_buffer_storage;
+
+        vbo = new VertexBufferObject();
+        vbo.bind(GL_ARRAY_BUFFER);
+
+        long size = (long) regionSize * regionCount;
+        if (persistent) {
+            int flags = GL_MAP_WRITE_BIT | GL_MAP_PERSISTENT_BIT | GL_MAP_COHERENT_BIT;
+            vbo.storage(GL_ARRAY_BUFFER, size, flags);
+            ByteBuffer memory = vbo.mapRange(GL_ARRAY_BUFFER, 0, size, flags);
+            if (memory == null) {
+                throw new IllegalStateException("Failed to map the streaming buffer!");
+            }
+            mapped = new ByteBuffer[regionCount];
+            for (int i = 0; i < regionCount; i++) {
+                mapped[i] = MemoryUtil.memSlice(memory, i * regionSize, regionSize);
+            }
+        } else {
+            vbo.uploadData(GL_ARRAY_BUFFER, size, GL_STREAM_DRAW);
+            staging = MemoryUtil.memAlloc(regionSize);
+            upload = staging.duplicate();
+        }
+
+        region = 0;
+        buffer = regionBuffer(0);
+        committed = 0;
+    }
+
+    /**
+     * Returns the buffer to write vertices into. Its position is the write
+     * head and its limit is the end of the current region. The returned
+     * buffer changes after {@link #advance()}.
+     *
+     * @return Write buffer of the current region
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Hands everything written since the last commit to the GPU.
+     *
+     * @return Byte offset of the committed range inside the GL buffer
+     */
+    public long commit() {
+        int start = committed;
+        int end = buffer.position();
+        long offset = (long) region * regionSize + start;
+
+        if (!persistent && end > start) {
+            /* Upload the new range, the mapped path is coherent already */
+            vbo.bind(GL_ARRAY_BUFFER);
+            upload.clear();
+            upload.position(start).limit(end);
+            vbo.uploadSubData(GL_ARRAY_BUFFER, offset, upload);
+        }
+
+        committed = end;
+        return offset;
+    }
+
+    /**
+     * Fences the current region and moves on to the next one. Everything
+     * written into the current region should be committed and drawn before.
+     */
+    public void advance() {
+        if (persistent) {
+            fences[region] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        }
+
+        region = (region + 1) % regionCount;
+
+        if (persistent) {
+            waitFence(region);
+        } else if (region == 0) {
+            /* Orphan the buffer, the driver hands us fresh storage */
+            vbo.bind(GL_ARRAY_BUFFER);
+            vbo.uploadData(GL_ARRAY_BUFFER, (long) regionSize * regionCount, GL_STREAM_DRAW);
+        }
+
+        buffer = regionBuffer(region);
+        committed = 0;
+    }
+
+    /**
+     * Checks if the buffer writes directly into persistently mapped memory.
+     *
+     * @return true, if the buffer is persistently mapped, else false
+     */
+    public boolean isPersistent() {
+        return persistent;
+    }
+
+    public int getRegionSize() {
+        return regionSize;
+    }
+
+    public void bind(int target) {
+        vbo.bind(target);
+    }
+
+    public void delete() {
+        for (int i = 0; i < regionCount; i++) {
+            if (fences[i] != 0L) {
+                glDeleteSync(fences[i]);
+                fences[i] = 0L;
+            }
+        }
+        if (persistent) {
+            vbo.bind(GL_ARRAY_BUFFER);
+            vbo.unmap(GL_ARRAY_BUFFER);
+        } else {
+            MemoryUtil.memFree(staging);
+        }
+        vbo.delete();
+    }
+
+    public int getID() {
+        return vbo.getID();
+    }
+
+    private ByteBuffer regionBuffer(int index) {
+        ByteBuffer regionBuffer = persistent ? mapped[index] : staging;
+        regionBuffer.clear();
+        return regionBuffer;
+    }
+
+    private void waitFence(int index) {
+        long fence = fences[index];
+        if (fence == 0L) {
+            return;
+        }
+        while (true) {
+            int result = glClientWaitSync(fence, GL_SYNC_FLUSH_COMMANDS_BIT, FENCE_TIMEOUT);
+            if (result == GL_ALREADY_SIGNALED || result == GL_CONDITION_SATISFIED || result == GL_WAIT_FAILED) {
+                break;
+            }
+        }
+        glDeleteSync(fence);
+        fences[index] = 0L;
+    }
+}
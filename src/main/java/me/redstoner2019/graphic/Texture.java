@@ -12,16 +12,45 @@ public class Texture {
 
     private final int id;
 
+    /** ARGB pixels of a texture in client memory, or null. */
+    private final int[] pixels;
+
     private int width;
 
     private int height;
 
+    /** Counts how often the pixels were replaced, see {@link #markReplaced()}. */
+    private int revision;
+
     public Texture() {
         id = glGenTextures();
+        pixels = null;
+    }
+
+    /**
+     * Creates a texture that only lives in client memory, it has no GL
+     * object and an ID of 0.
+     */
+    private Texture(int width, int height, int[] pixels) {
+        id = 0;
+        this.pixels = pixels;
+        setWidth(width);
+        setHeight(height);
     }
 
     public void bind() {
-        glBindTexture(GL_TEXTURE_2D, id);
+        GLState.current().bindTexture(id);
+    }
+
+    /**
+     * Binds the texture to the specified texture unit. If the texture wasn't
+     * bound there already the active texture unit stays at that unit
+     * afterwards.
+     *
+     * @param unit Index of the texture unit
+     */
+    public void bind(int unit) {
+        GLState.current().bindTexture(unit, id);
     }
 
     public void setParameter(int name, int value) {
@@ -36,8 +65,75 @@ public class Texture {
         glTexImage2D(GL_TEXTURE_2D, 0, internalFormat, width, height, 0, format, GL_UNSIGNED_BYTE, data);
     }
 
+    /**
+     * Replaces a part of the texture, for example while drawing. A GL
+     * texture gets bound to texture unit 0 for the upload, the texture that
+     * was bound there before is bound again afterwards.
+     *
+     * @param x      Left edge of the part
+     * @param y      Bottom edge of the part
+     * @param width  Width of the part
+     * @param height Height of the part
+     * @param data   RGBA pixels of the part, the buffer position is left
+     *               unchanged
+     */
+    public void uploadSubData(int x, int y, int width, int height, ByteBuffer data) {
+        if (x < 0 || y < 0 || x + width > this.width || y + height > this.height) {
+            throw new IllegalArgumentException("Region is outside of the texture!");
+        }
+        if (pixels == null) {
+            GLState state = GLState.current();
+            int previous = state.getTexture(0);
+            bind(0);
+            glTexSubImage2D(GL_TEXTURE_2D, 0, x, y, width, height, GL_RGBA, GL_UNSIGNED_BYTE, data);
+            state.bindTexture(0, previous);
+            return;
+        }
+        int offset = data.position();
+        for (int row = 0; row < height; row++) {
+            for (int column = 0; column < width; column++) {
+                int i = offset + (row * width + column) * 4;
+                int r = data.get(i) & 0xFF;
+                int g = data.get(i + 1) & 0xFF;
+                int b = data.get(i + 2) & 0xFF;
+                int a = data.get(i + 3) & 0xFF;
+                pixels[(y + row) * this.width + x + column] = (a << 24) | (r << 16) | (g << 8) | b;
+            }
+        }
+    }
+
+    /**
+     * Marks the pixels as replaced by unrelated ones, like a cleared atlas
+     * page. Meshes captured with the old pixels become stale.
+     */
+    public void markReplaced() {
+        revision++;
+    }
+
+    public int getRevision() {
+        return revision;
+    }
+
     public void delete() {
+        if (pixels != null) {
+            return;
+        }
         glDeleteTextures(id);
+        GLState.current().textureDeleted(id);
+    }
+
+    public int getID() {
+        return id;
+    }
+
+    /**
+     * Returns the pixels of a client memory texture. The rows start at
+     * <code>t = 0</code>, like the rows of the uploaded data of a GL texture.
+     *
+     * @return ARGB pixels, or null for a GL texture
+     */
+    public int[] getPixels() {
+        return pixels;
     }
 
     public int getWidth() {
@@ -77,6 +173,29 @@ public class Texture {
         return texture;
     }
 
+    /**
+     * Creates a texture in client memory, for the {@link SoftwareRenderer}.
+     * No context is needed.
+     *
+     * @param width  Width of the texture
+     * @param height Height of the texture
+     * @param data   RGBA pixels, the buffer position is left unchanged
+     *
+     * @return The texture
+     */
+    public static Texture createClientTexture(int width, int height, ByteBuffer data) {
+        int[] pixels = new int[width * height];
+        int offset = data.position();
+        for (int i = 0; i < pixels.length; i++) {
+            int r = data.get(offset + i * 4) & 0xFF;
+            int g = data.get(offset + i * 4 + 1) & 0xFF;
+            int b = data.get(offset + i * 4 + 2) & 0xFF;
+            int a = data.get(offset + i * 4 + 3) & 0xFF;
+            pixels[i] = (a << 24) | (r << 16) | (g << 8) | b;
+        }
+        return new Texture(width, height, pixels);
+    }
+
     public static Texture loadTexture(String path) {
         ByteBuffer image;
         int width, height;
@@ -11,11 +11,12 @@ public class VertexArrayObject {
     }
 
     public void bind() {
-        glBindVertexArray(id);
+        GLState.current().bindVertexArray(id);
     }
 
     public void delete() {
         glDeleteVertexArrays(id);
+        GLState.current().vertexArrayDeleted(id);
     }
 
     public int getID() {
@@ -1,9 +1,13 @@
 package me.redstoner2019.graphic;
 
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 
 import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL30.glMapBufferRange;
+import static org.lwjgl.opengl.GL44.glBufferStorage;
 
 public class VertexBufferObject {
 
@@ -13,8 +17,17 @@ public class VertexBufferObject {
         id = glGenBuffers();
     }
 
+    /**
+     * Wraps an already generated buffer object.
+     *
+     * @param id Name of the buffer object
+     */
+    public VertexBufferObject(int id) {
+        this.id = id;
+    }
+
     public void bind(int target) {
-        glBindBuffer(target, id);
+        GLState.current().bindBuffer(target, id);
     }
 
     public void uploadData(int target, FloatBuffer data, int usage) {
@@ -29,15 +42,68 @@ public class VertexBufferObject {
         glBufferSubData(target, offset, data);
     }
 
+    public void uploadSubData(int target, long offset, ByteBuffer data) {
+        glBufferSubData(target, offset, data);
+    }
+
+    public void uploadData(int target, ByteBuffer data, int usage) {
+        glBufferData(target, data, usage);
+    }
+
     public void uploadData(int target, IntBuffer data, int usage) {
         glBufferData(target, data, usage);
     }
 
+    public void uploadData(int target, ShortBuffer data, int usage) {
+        glBufferData(target, data, usage);
+    }
+
+    /**
+     * Allocates immutable storage for the buffer (GL 4.4 / ARB_buffer_storage).
+     *
+     * @param target The target the buffer is bound to
+     * @param size   Size of the storage in bytes
+     * @param flags  Storage flags, e.g. <code>GL_MAP_PERSISTENT_BIT</code>
+     */
+    public void storage(int target, long size, int flags) {
+        glBufferStorage(target, size, flags);
+    }
+
+    /**
+     * Maps a range of the buffer into client memory.
+     *
+     * @param target The target the buffer is bound to
+     * @param offset Offset of the range in bytes
+     * @param length Length of the range in bytes
+     * @param access Access flags, e.g. <code>GL_MAP_WRITE_BIT</code>
+     *
+     * @return The mapped memory
+     */
+    public ByteBuffer mapRange(int target, long offset, long length, int access) {
+        return glMapBufferRange(target, offset, length, access);
+    }
+
+    public void unmap(int target) {
+        glUnmapBuffer(target);
+    }
+
+    /**
+     * Binds the buffer to an indexed binding point, like the uniform buffer
+     * binding points. This binds it to the generic target as well.
+     *
+     * @param target Indexed target, for example <code>GL_UNIFORM_BUFFER</code>
+     * @param index  Index of the binding point
+     */
+    public void bindBase(int target, int index) {
+        GLState.current().bindBufferBase(target, index, id);
+    }
+
     public void delete() {
         glDeleteBuffers(id);
+        GLState.current().bufferDeleted(id);
     }
 
     public int getID() {
         return id;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,164 @@
+package me.redstoner2019.graphic;
+
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.opengl.GL11.GL_FLOAT;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_BYTE;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_SHORT;
+import static org.lwjgl.opengl.GL30.GL_HALF_FLOAT;
+
+/**
+ * Vertex layouts of the sprite and text batch. Every layout has a position,
+ * a color, texture coordinates and four unsigned byte parameters, they only
+ * differ in how compact the attributes are stored. The first parameter is
+ * the texture slot of the vertex, the second is the {@link Shape} mode and
+ * the last two are the radius and size of the shape.
+ */
+public enum VertexFormat {
+
+    /** Float position, float RGBA color and float texture coordinates, 36 bytes. */
+    STANDARD(8 * Float.BYTES + 4) {
+        @Override
+        void putVertex(ByteBuffer buffer, float x, float y, Color c, float s, float t, int params) {
+            buffer.putFloat(x).putFloat(y);
+            buffer.putFloat(c.getRed()).putFloat(c.getGreen()).putFloat(c.getBlue()).putFloat(c.getAlpha());
+            buffer.putFloat(s).putFloat(t);
+            buffer.putInt(params);
+        }
+
+        @Override
+        void specifyVertexAttributes(ShaderProgram program) {
+            point(program, "position", 2, GL_FLOAT, false, 0);
+            point(program, "color", 4, GL_FLOAT, false, 2 * Float.BYTES);
+            point(program, "texcoord", 2, GL_FLOAT, false, 6 * Float.BYTES);
+            pointParams(program, 8 * Float.BYTES);
+        }
+    },
+
+    /**
+     * Float position, normalized unsigned byte color and normalized unsigned
+     * short texture coordinates, 20 bytes. Use {@link #COMPACT_HALF} when 16
+     * bytes are needed, the parameters leave no room to pack further.
+     */
+    COMPACT(2 * Float.BYTES + 4 + 2 * Short.BYTES + 4) {
+        @Override
+        void putVertex(ByteBuffer buffer, float x, float y, Color c, float s, float t, int params) {
+            buffer.putFloat(x).putFloat(y);
+            buffer.putInt(c.getPacked());
+            buffer.putShort(unorm16(s)).putShort(unorm16(t));
+            buffer.putInt(params);
+        }
+
+        @Override
+        void specifyVertexAttributes(ShaderProgram program) {
+            point(program, "position", 2, GL_FLOAT, false, 0);
+            point(program, "color", 4, GL_UNSIGNED_BYTE, true, 2 * Float.BYTES);
+            point(program, "texcoord", 2, GL_UNSIGNED_SHORT, true, 2 * Float.BYTES + 4);
+            pointParams(program, 2 * Float.BYTES + 8);
+        }
+    },
+
+    /**
+     * Like {@link #COMPACT} but with half float positions. Half floats are
+     * exact for whole pixels up to 2048, above that positions snap to two
+     * pixels. 16 bytes.
+     */
+    COMPACT_HALF(2 * Short.BYTES + 4 + 2 * Short.BYTES + 4) {
+        @Override
+        void putVertex(ByteBuffer buffer, float x, float y, Color c, float s, float t, int params) {
+            buffer.putShort(Float.floatToFloat16(x)).putShort(Float.floatToFloat16(y));
+            buffer.putInt(c.getPacked());
+            buffer.putShort(unorm16(s)).putShort(unorm16(t));
+            buffer.putInt(params);
+        }
+
+        @Override
+        void specifyVertexAttributes(ShaderProgram program) {
+            point(program, "position", 2, GL_HALF_FLOAT, false, 0);
+            point(program, "color", 4, GL_UNSIGNED_BYTE, true, 2 * Short.BYTES);
+            point(program, "texcoord", 2, GL_UNSIGNED_SHORT, true, 2 * Short.BYTES + 4);
+            pointParams(program, 2 * Short.BYTES + 8);
+        }
+    };
+
+    /** Names of the vertex attributes, the index is the attribute location. */
+    private static final String[] ATTRIBUTES = {"position", "color", "texcoord", "params"};
+
+    private final int size;
+
+    VertexFormat(int size) {
+        this.size = size;
+    }
+
+    /**
+     * Binds the attribute locations of the batch layouts. Every program that
+     * gets linked after this can be used with the same vertex array.
+     *
+     * @param program Program that is not linked yet
+     */
+    static void bindAttributeLocations(ShaderProgram program) {
+        for (int i = 0; i < ATTRIBUTES.length; i++) {
+            program.bindAttributeLocation(i, ATTRIBUTES[i]);
+        }
+    }
+
+    /**
+     * Returns the size of one vertex.
+     *
+     * @return Size of a vertex in bytes
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Writes one vertex at the current position of the buffer.
+     *
+     * @param buffer Buffer to write into
+     * @param x      X position
+     * @param y      Y position
+     * @param c      Vertex color
+     * @param s      S texture coordinate
+     * @param t      T texture coordinate
+     * @param params Vertex parameters, the lowest byte is the texture slot,
+     *               the upper bytes are the packed {@link Shape}
+     */
+    abstract void putVertex(ByteBuffer buffer, float x, float y, Color c, float s, float t, int params);
+
+    /**
+     * Specifies the vertex pointers of this layout for the bound vertex
+     * buffer.
+     *
+     * @param program Program to get the attribute locations from
+     */
+    abstract void specifyVertexAttributes(ShaderProgram program);
+
+    void point(ShaderProgram program, CharSequence name, int components, int type, boolean normalized, int offset) {
+        int location = program.getAttributeLocation(name);
+        program.enableVertexAttribute(location);
+        program.pointVertexAttribute(location, components, type, normalized, size, offset);
+    }
+
+    void pointParams(ShaderProgram program, int offset) {
+        int location = program.getAttributeLocation("params");
+        program.enableVertexAttribute(location);
+        program.pointIntegerVertexAttribute(location, 4, GL_UNSIGNED_BYTE, size, offset);
+    }
+
+    /**
+     * Converts a texture coordinate to a normalized unsigned short.
+     *
+     * @param value Texture coordinate, gets clamped to [0, 1]
+     *
+     * @return The coordinate as unsigned short bits
+     */
+    static short unorm16(float value) {
+        if (value <= 0f) {
+            return 0;
+        }
+        if (value >= 1f) {
+            return (short) 0xFFFF;
+        }
+        return (short) (value * 65535f + 0.5f);
+    }
+}
@@ -2,12 +2,89 @@
 
 in vec4 vertexColor;
 in vec2 textureCoord;
+flat in uint textureSlot;
+/* Mode, radius and size of a shape, the mode is 0 for textured quads and
+   4 for distance fields */
+flat in uvec3 shape;
 
 out vec4 fragColor;
 
-uniform sampler2D texImage;
+uniform sampler2D texImage[16];
+
+vec4 sampleSlot(uint slot, vec2 coord) {
+    /* GLSL 3.30 only allows constant sampler array indices */
+    switch (slot) {
+        case 1u: return texture(texImage[1], coord);
+        case 2u: return texture(texImage[2], coord);
+        case 3u: return texture(texImage[3], coord);
+        case 4u: return texture(texImage[4], coord);
+        case 5u: return texture(texImage[5], coord);
+        case 6u: return texture(texImage[6], coord);
+        case 7u: return texture(texImage[7], coord);
+        case 8u: return texture(texImage[8], coord);
+        case 9u: return texture(texImage[9], coord);
+        case 10u: return texture(texImage[10], coord);
+        case 11u: return texture(texImage[11], coord);
+        case 12u: return texture(texImage[12], coord);
+        case 13u: return texture(texImage[13], coord);
+        case 14u: return texture(texImage[14], coord);
+        case 15u: return texture(texImage[15], coord);
+        default: return texture(texImage[0], coord);
+    }
+}
+
+/* Signed distance to a rounded rect centered at the origin */
+float roundedRect(vec2 p, vec2 halfSize, float radius) {
+    vec2 q = abs(p) - halfSize + radius;
+    return min(max(q.x, q.y), 0.0) + length(max(q, 0.0)) - radius;
+}
+
+/* Approximate signed distance to an ellipse, exact for circles */
+float ellipse(vec2 p, vec2 halfSize) {
+    float k0 = length(p / halfSize);
+    float k1 = length(p / (halfSize * halfSize));
+    return k0 * (k0 - 1.0) / max(k1, 1e-6);
+}
 
 void main() {
-    vec4 textureColor = texture(texImage, textureCoord);
-    fragColor = vertexColor * textureColor;
+    /* The texture coordinates go from 0 to 1 over a shape, so their
+       derivatives give its size in pixels. They have to be taken outside
+       of branches. */
+    vec2 size = abs(1.0 / vec2(dFdx(textureCoord.x), dFdy(textureCoord.y)));
+    /* Distance fields need the derivative of the sampled distance as well */
+    vec4 textureColor = sampleSlot(textureSlot, textureCoord);
+    float fieldWidth = fwidth(textureColor.a);
+
+    if (shape.x == 0u) {
+        fragColor = vertexColor * textureColor;
+        return;
+    }
+    if (shape.x == 4u) {
+        /* The distance changes by fieldWidth per pixel, so this covers one pixel at any scale */
+        float coverage = clamp((textureColor.a - 0.5) / max(fieldWidth, 1e-4) + 0.5, 0.0, 1.0);
+        fragColor = vec4(vertexColor.rgb * textureColor.rgb, vertexColor.a * coverage);
+        return;
+    }
+
+    vec2 halfSize = 0.5 * size;
+    vec2 p = (textureCoord - 0.5) * size;
+    float border = float(shape.z);
+    float alpha;
+    if (shape.x == 3u) {
+        /* Shadow, the quad has a margin of the blur size around the rect */
+        vec2 inner = max(halfSize - border, vec2(0.0));
+        float radius = min(float(shape.y), min(inner.x, inner.y));
+        float blur = max(border, 0.5);
+        alpha = 1.0 - smoothstep(-blur, blur, roundedRect(p, inner, radius));
+    } else {
+        float radius = min(float(shape.y), min(halfSize.x, halfSize.y));
+        float d = shape.x == 2u ? ellipse(p, halfSize) : roundedRect(p, halfSize, radius);
+        /* The distance is in pixels, so this is the covered part of the pixel */
+        alpha = clamp(0.5 - d, 0.0, 1.0);
+        if (border > 0.0) {
+            /* Border, cut out everything further inside than its width */
+            alpha *= clamp(0.5 + d + border, 0.0, 1.0);
+        }
+    }
+    fragColor = vec4(vertexColor.rgb, vertexColor.a * alpha);
 }
@@ -3,17 +3,25 @@
 in vec2 position;
 in vec4 color;
 in vec2 texcoord;
+in uvec4 params;
 
 out vec4 vertexColor;
 out vec2 textureCoord;
+flat out uint textureSlot;
+flat out uvec3 shape;
 
 uniform mat4 model;
-uniform mat4 view;
-uniform mat4 projection;
+
+layout(std140) uniform PerFrame {
+    mat4 projection;
+    mat4 view;
+};
 
 void main() {
     vertexColor = color;
     textureCoord = texcoord;
+    textureSlot = params.x;
+    shape = params.yzw;
     mat4 mvp = projection * view * model;
     gl_Position = mvp * vec4(position, 0.0, 1.0);
 }
@@ -0,0 +1,37 @@
+#version 330 core
+
+in vec2 corner;
+in vec2 instancePosition;
+in vec2 instanceSize;
+in float instanceRotation;
+in vec4 instanceRegion;
+in vec4 instanceColor;
+in uvec4 instanceParams;
+
+out vec4 vertexColor;
+out vec2 textureCoord;
+flat out uint textureSlot;
+flat out uvec3 shape;
+
+uniform mat4 model;
+
+layout(std140) uniform PerFrame {
+    mat4 projection;
+    mat4 view;
+};
+
+void main() {
+    /* Rotate the corner around the center of the sprite */
+    vec2 halfSize = instanceSize * 0.5;
+    vec2 local = corner * instanceSize - halfSize;
+    float c = cos(instanceRotation);
+    float s = sin(instanceRotation);
+    vec2 position = instancePosition + halfSize + vec2(local.x * c - local.y * s, local.x * s + local.y * c);
+
+    vertexColor = instanceColor;
+    textureCoord = mix(instanceRegion.xy, instanceRegion.zw, corner);
+    textureSlot = instanceParams.x;
+    shape = instanceParams.yzw;
+    mat4 mvp = projection * view * model;
+    gl_Position = mvp * vec4(position, 0.0, 1.0);
+}
@@ -0,0 +1,88 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+
+import com.sun.management.ThreadMXBean;
+import me.redstoner2019.font.Font;
+import me.redstoner2019.font.TextBuffer;
+import me.redstoner2019.graphic.Color;
+import me.redstoner2019.graphic.SoftwareRenderer;
+
+import static java.awt.Font.MONOSPACED;
+import static java.awt.Font.PLAIN;
+
+/**
+ * Checks that the debug overlay allocates nothing per frame. The lines are
+ * built like in the frame and drawn with the software renderer, after a
+ * warmup every frame, from begin() to end(), has to allocate zero bytes.
+ */
+public class OverlayAllocationCheck {
+
+    private static final int WARMUP_FRAMES = 2000;
+    private static final int FRAMES = 1000;
+
+    public static void main(String[] args) {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        TextBuffer text = new TextBuffer(128);
+        long formatting = measure(threads, frame -> {
+            for (int line = 0; line < 12; line++) {
+                formatLine(text, frame, line);
+            }
+        });
+        System.out.println("Formatting: " + formatting + " bytes in " + FRAMES + " frames");
+
+        /* With a single thread the tiles are rasterized here, so the whole frame is counted */
+        ForkJoinPool pool = new ForkJoinPool(1);
+        SoftwareRenderer renderer = new SoftwareRenderer(640, 480, pool);
+        Font font = new Font(renderer, new java.awt.Font(MONOSPACED, PLAIN, 16), true);
+        long drawing = measure(threads, frame -> {
+            renderer.begin();
+            for (int line = 0; line < 12; line++) {
+                font.drawText(renderer, formatLine(text, frame, line), 10, line * 20, Color.BLACK);
+            }
+            renderer.end();
+        });
+        System.out.println("Drawing: " + drawing + " bytes in " + FRAMES + " frames");
+
+        font.dispose();
+        pool.shutdown();
+        if (formatting != 0 || drawing != 0) {
+            throw new AssertionError("The overlay allocates per frame!");
+        }
+    }
+
+    /**
+     * Runs frames and returns the bytes allocated after the warmup.
+     */
+    private static long measure(ThreadMXBean threads, IntConsumer frame) {
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            frame.accept(i);
+        }
+        long start = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < FRAMES; i++) {
+            frame.accept(WARMUP_FRAMES + i);
+        }
+        return threads.getCurrentThreadAllocatedBytes() - start;
+    }
+
+    /**
+     * Builds an overlay line with values that change every frame.
+     */
+    private static TextBuffer formatLine(TextBuffer text, int frame, int line) {
+        double seconds = frame / 60.0;
+        text.clear();
+        switch (line % 4) {
+            case 0:
+                return text.append("FPS: ").append(60 + frame % 7);
+            case 1:
+                return text.append("Last Frame Time: ").appendMillis(seconds / (frame + 1), 2);
+            case 2:
+                return text.append("Time: ").append(seconds, 4).append('s');
+            default:
+                return text.append("Uploaded: ").append(frame * 4096L).append(" B | ")
+                        .append(100.0 * line / (frame + 1), 1).append('%');
+        }
+    }
+}
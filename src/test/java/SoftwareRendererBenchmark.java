@@ -0,0 +1,64 @@
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import me.redstoner2019.graphic.Color;
+import me.redstoner2019.graphic.SoftwareRenderer;
+
+/**
+ * Measures how the software renderer scales with the number of cores. The
+ * same frame of overlapping translucent quads is drawn with pools of 1 up
+ * to N threads, N is the first argument or the number of cores.
+ */
+public class SoftwareRendererBenchmark {
+
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+    private static final int QUADS = 20000;
+    private static final int WARMUP_FRAMES = 5;
+    private static final int FRAMES = 20;
+
+    public static void main(String[] args) {
+        int maxParallelism = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        System.out.println("Cores: " + Runtime.getRuntime().availableProcessors() + ", " + QUADS + " quads at "
+                + WIDTH + "x" + HEIGHT);
+
+        float[] quads = new float[QUADS * 4];
+        Random random = new Random(42);
+        for (int i = 0; i < quads.length; i += 4) {
+            quads[i] = random.nextFloat() * WIDTH;
+            quads[i + 1] = random.nextFloat() * HEIGHT;
+            quads[i + 2] = quads[i] + 8 + random.nextFloat() * 120;
+            quads[i + 3] = quads[i + 1] + 8 + random.nextFloat() * 120;
+        }
+        Color color = new Color(0.2f, 0.5f, 0.8f, 0.5f);
+
+        double serial = 0;
+        for (int parallelism = 1; parallelism <= maxParallelism; parallelism++) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            SoftwareRenderer renderer = new SoftwareRenderer(WIDTH, HEIGHT, pool);
+            for (int i = 0; i < WARMUP_FRAMES; i++) {
+                drawFrame(renderer, quads, color);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < FRAMES; i++) {
+                drawFrame(renderer, quads, color);
+            }
+            double millis = (System.nanoTime() - start) / 1e6 / FRAMES;
+            pool.shutdown();
+
+            if (parallelism == 1) {
+                serial = millis;
+            }
+            System.out.printf("Threads: %2d | %8.2f ms/frame | speedup %5.2f%n", parallelism, millis, serial / millis);
+        }
+    }
+
+    private static void drawFrame(SoftwareRenderer renderer, float[] quads, Color color) {
+        renderer.begin();
+        renderer.clear();
+        for (int i = 0; i < quads.length; i += 4) {
+            renderer.fillRect(quads[i], quads[i + 1], quads[i + 2], quads[i + 3], color);
+        }
+        renderer.end();
+    }
+}